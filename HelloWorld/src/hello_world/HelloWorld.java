@@ -17,9 +17,7 @@ import java.awt.MediaTracker;
 import java.awt.Toolkit;
 import java.awt.event.ActionListener;
 import java.io.File;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.TreeMap;
+import java.util.List;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -35,9 +33,10 @@ import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 import world_data.Region;
+import world_data.RegionPath;
 import world_data.RegionType;
 import world_data.WorldDataManager;
-import world_io.WorldIO;
+import world_io.WorldStreamIO;
 
 /**
  * This HelloWorld application allows for the creating, viewing, and editing
@@ -54,6 +53,9 @@ public class HelloWorld
     // HERE'S OUR DATA
     private WorldDataManager worldDataManager;
     
+    // WE'LL REUSE THIS FOR ALL THE PATHS WE NEED TO LOOK UP IN THE TREE
+    private RegionPath selectionPath;
+    
     // THIS WILL MANAGE I/O
     private HelloWorldFileManager fileManager;
     
@@ -226,10 +228,11 @@ public class HelloWorld
 
         // AND THE DATA MANAGER
         worldDataManager = new WorldDataManager();
+        selectionPath = new RegionPath();
         
         // AND OUR IMPORTER/EXPORTER
         File schemaFile = new File(WORLD_SCHEMA_FILE);
-        WorldIO worldIO = new WorldIO(schemaFile);
+        WorldStreamIO worldIO = new WorldStreamIO(schemaFile);
         worldDataManager.setWorldImporterExporter(worldIO);
      }
 
@@ -609,7 +612,7 @@ public class HelloWorld
      */
     public void refreshWorldTree(Region selectedRegion)
     {
-        LinkedList<Region> selectionPath = worldDataManager.getPathFromRoot(selectedRegion);
+        worldDataManager.getPathFromRoot(selectedRegion, selectionPath);
         Region world = worldDataManager.getWorld();
         DefaultMutableTreeNode root = new DefaultMutableTreeNode(world);
         if (worldTreeModel == null)
@@ -670,21 +673,12 @@ public class HelloWorld
      */
     private void addSubRegionsToTree(Region regionWithSubRegionsToAdd, DefaultMutableTreeNode parentNode)
     {
-        // WE'LL NEED TO ARRANGE THEM IN SORTED ORDER BY NAME
-        TreeMap<String, Region> subRegions = new TreeMap();
-        Iterator<Region> subRegionsIterator = regionWithSubRegionsToAdd.getSubRegions();
-        while (subRegionsIterator.hasNext())
-        {
-            Region subRegion = subRegionsIterator.next();
-            subRegions.put(subRegion.getId(), subRegion);
-        }
+        // THE REGION KEEPS ITS CHILDREN SORTED FOR US
+        List<Region> subRegions = regionWithSubRegionsToAdd.getSubRegionsById();
 
         // ADD ALL THE CHILDREN
-        Iterator<String> keysIterator = subRegions.keySet().iterator();
-        while (keysIterator.hasNext())
+        for (Region subRegion : subRegions)
         {
-            String subRegionName = keysIterator.next();
-            Region subRegion = subRegions.get(subRegionName);
             DefaultMutableTreeNode subNode = new DefaultMutableTreeNode(subRegion);
             worldTreeModel.insertNodeInto(subNode, parentNode, parentNode.getChildCount());
             
@@ -817,7 +811,7 @@ public class HelloWorld
      * @param selectedRegion Region whose corresponding node is to
      * be selected.
      */
-    public void setSelectedRegion(LinkedList<Region> path, Region selectedRegion)
+    public void setSelectedRegion(RegionPath path, Region selectedRegion)
     {
         DefaultMutableTreeNode newNode = getRegionNode(selectedRegion);
         TreeNode[] pathNodes = newNode.getPath();
@@ -916,7 +910,7 @@ public class HelloWorld
         // ONLY LOOK FOR IT IF IT EXISTS
         if (worldDataManager.hasRegion(regionToSelect))
         {
-            LinkedList<Region> pathToRegion = worldDataManager.getPathFromRoot(regionToSelect);
+            RegionPath pathToRegion = worldDataManager.getPathFromRoot(regionToSelect, selectionPath);
             DefaultMutableTreeNode walker = (DefaultMutableTreeNode)worldTreeModel.getRoot();
             boolean regionFound = false;
             int pathIndex = 0;
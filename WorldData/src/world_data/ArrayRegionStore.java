@@ -0,0 +1,248 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * This RegionStore keeps all the regions of a world in parallel primitive
+ * arrays, one entry per region, in pre-order. For each region we keep its
+ * parent index, subtree size, type ordinal, and the offsets of its id,
+ * name, and capital in a shared RegionStringTable. Regions are found by id
+ * through an open-addressing hash table of region indices. All together
+ * that's roughly 30 to 40 bytes per region plus about a byte for each
+ * character of its Strings, with no per-region objects at all.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class ArrayRegionStore extends RegionStore
+{
+    // THE STRUCTURE OF THE WORLD
+    private int[] parents;
+    private int[] subtreeSizes;
+    
+    // THE DATA FOR EACH REGION
+    private byte[] types;
+    private int[] idOffsets;
+    private int[] nameOffsets;
+    private int[] capitalOffsets;
+    
+    // WHERE ALL THE Strings ACTUALLY LIVE
+    private RegionStringTable strings;
+    
+    // HASH TABLE OF REGION INDEX + 1 BY ID, WHERE 0 MEANS AN EMPTY SLOT
+    private int[] idTable;
+    
+    // THE NUMBER OF REGIONS IN THE STORE
+    private int numRegions;
+
+    /**
+     * Private constructor, stores are made by packing a world.
+     */
+    private ArrayRegionStore(int initCapacity)
+    {
+        parents = new int[initCapacity];
+        subtreeSizes = new int[initCapacity];
+        types = new byte[initCapacity];
+        idOffsets = new int[initCapacity];
+        nameOffsets = new int[initCapacity];
+        capitalOffsets = new int[initCapacity];
+        strings = new RegionStringTable();
+        numRegions = 0;
+    }
+
+    /**
+     * Builds a store containing root and all of its descendants, followed
+     * by any other regions in allRegions that have no parent, along with
+     * their descendants.
+     * 
+     * @param root The root of the world to pack, which will be region 0.
+     * 
+     * @param allRegions All the regions of the world.
+     * 
+     * @return A store with all the data of the world, in pre-order.
+     */
+    public static ArrayRegionStore pack(Region root, Collection<Region> allRegions)
+    {
+        ArrayRegionStore store = new ArrayRegionStore(Math.max(allRegions.size(), 16));
+        store.packTree(root);
+        
+        // REGIONS THAT HAVEN'T BEEN HOOKED UP TO THE WORLD YET
+        for (Region region : allRegions)
+        {
+            if ((region.getParentRegion() == null) && !region.equals(root))
+            {
+                store.packTree(region);
+            }
+        }
+        store.trimToSize();
+        store.buildIdTable();
+        return store;
+    }
+
+    /**
+     * Private helper method that adds treeRoot and all its descendants,
+     * in pre-order, after all the regions already in this store.
+     */
+    private void packTree(Region treeRoot)
+    {
+        // WE'LL WALK THE TREE WITHOUT RECURSION SINCE IT MAY BE HUGE. EACH
+        // LEVEL OF THE STACK IS A REGION AND THE CHILDREN WE HAVE LEFT TO DO
+        ArrayList<Iterator<Region>> childIterators = new ArrayList();
+        int[] stackRegions = new int[16];
+        int stackSize = 0;
+        
+        stackRegions[stackSize++] = addRegion(treeRoot, NO_REGION);
+        childIterators.add(treeRoot.getSubRegions());
+        while (stackSize > 0)
+        {
+            Iterator<Region> it = childIterators.get(stackSize - 1);
+            int parent = stackRegions[stackSize - 1];
+            if (it.hasNext())
+            {
+                // ADD THE NEXT CHILD AND THEN DO ALL OF ITS CHILDREN
+                Region child = it.next();
+                if (stackSize == stackRegions.length)
+                {
+                    stackRegions = Arrays.copyOf(stackRegions, stackSize * 2);
+                }
+                stackRegions[stackSize++] = addRegion(child, parent);
+                childIterators.add(child.getSubRegions());
+            }
+            else
+            {
+                // ALL ITS DESCENDANTS HAVE BEEN ADDED RIGHT AFTER IT
+                subtreeSizes[parent] = numRegions - parent;
+                stackSize--;
+                childIterators.remove(stackSize);
+            }
+        }
+    }
+
+    // ACCESSOR METHODS
+
+    @Override
+    public int getNumRegions()                  { return numRegions;                            }
+
+    @Override
+    public int getParent(int region)            { return parents[region];                       }
+
+    @Override
+    public int getSubtreeSize(int region)       { return subtreeSizes[region];                  }
+
+    @Override
+    public RegionType getType(int region)       { return REGION_TYPES[types[region]];           }
+
+    @Override
+    public String getId(int region)             { return strings.get(idOffsets[region]);        }
+
+    @Override
+    public String getName(int region)           { return strings.get(nameOffsets[region]);      }
+
+    @Override
+    public String getCapital(int region)        { return strings.get(capitalOffsets[region]);   }
+
+    @Override
+    public int compareIds(int region1, int region2)
+    {
+        return strings.compare(idOffsets[region1], idOffsets[region2]);
+    }
+
+    @Override
+    public int findRegion(String regionId)
+    {
+        int mask = idTable.length - 1;
+        int slot = spread(regionId.hashCode()) & mask;
+        while (idTable[slot] != 0)
+        {
+            int region = idTable[slot] - 1;
+            if (strings.matches(idOffsets[region], regionId))
+            {
+                return region;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_REGION;
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Adds the data for regionToAdd as the next region in pre-order.
+     */
+    private int addRegion(Region regionToAdd, int parent)
+    {
+        if (numRegions == parents.length)
+        {
+            grow(numRegions * 2);
+        }
+        int region = numRegions++;
+        parents[region] = parent;
+        subtreeSizes[region] = 1;
+        types[region] = (byte)regionToAdd.getType().ordinal();
+        idOffsets[region] = strings.add(regionToAdd.getId());
+        nameOffsets[region] = strings.add(regionToAdd.getName());
+        capitalOffsets[region] = strings.add(regionToAdd.getCapital());
+        return region;
+    }
+
+    /**
+     * Resizes all the per-region arrays to newCapacity.
+     */
+    private void grow(int newCapacity)
+    {
+        parents = Arrays.copyOf(parents, newCapacity);
+        subtreeSizes = Arrays.copyOf(subtreeSizes, newCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        idOffsets = Arrays.copyOf(idOffsets, newCapacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, newCapacity);
+        capitalOffsets = Arrays.copyOf(capitalOffsets, newCapacity);
+    }
+
+    /**
+     * Releases the unused ends of all our arrays once packing is done.
+     */
+    private void trimToSize()
+    {
+        if (numRegions < parents.length)
+        {
+            grow(numRegions);
+        }
+        strings.trimToSize();
+    }
+
+    /**
+     * Builds the hash table for finding regions by id, keeping it
+     * at most half full.
+     */
+    private void buildIdTable()
+    {
+        int capacity = 16;
+        while (capacity < numRegions * 2)
+        {
+            capacity <<= 1;
+        }
+        idTable = new int[capacity];
+        int mask = capacity - 1;
+        for (int region = 0; region < numRegions; region++)
+        {
+            int slot = spread(strings.hash(idOffsets[region])) & mask;
+            while (idTable[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            idTable[slot] = region + 1;
+        }
+    }
+
+    /**
+     * Spreads the high bits of a hash into the low ones.
+     */
+    private static int spread(int h)
+    {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,183 @@
+package world_data;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A CompactRegion is a read-only view of one region in a RegionStore. It
+ * reads all of its data from the store, through the store and the region's
+ * index, whenever it's asked. Note that since it's a Region it still has
+ * all of Region's fields, which it leaves empty, so a view is about as big
+ * as an empty Region, some 70 bytes. What makes a compact world small is
+ * that the store keeps the regions themselves in a few arrays, and views
+ * are only made for the regions being looked at. They're made on demand
+ * and can be thrown away, so two views of the same region are not the
+ * same object, but they are equal.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class CompactRegion extends Region
+{
+    // THIS IS WHAT WE TELL ANYONE WHO TRIES TO CHANGE A COMPACT REGION
+    public static final String READ_ONLY_TEXT = "Compact regions cannot be changed";
+    
+    // WHERE THIS REGION'S DATA LIVES
+    private RegionStore store;
+    
+    // AND WHERE IN THE STORE IT IS
+    private int index;
+
+    /**
+     * Constructor for making a view of the initIndex region in initStore.
+     * 
+     * @param initStore The store containing the region.
+     * 
+     * @param initIndex The index of the region in the store.
+     */
+    CompactRegion(RegionStore initStore, int initIndex)
+    {
+        store = initStore;
+        index = initIndex;
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Accessor method for getting the store this region lives in.
+     * 
+     * @return The store containing this region's data.
+     */
+    RegionStore getStore()                      { return store;                     }
+
+    /**
+     * Accessor method for getting this region's index in its store.
+     * 
+     * @return The index of this region.
+     */
+    int getIndex()                              { return index;                     }
+
+    @Override
+    public String getId()                       { return store.getId(index);        }
+
+    @Override
+    public String getName()                     { return store.getName(index);      }
+
+    @Override
+    public RegionType getType()                 { return store.getType(index);      }
+
+    @Override
+    public String getCapital()                  { return store.getCapital(index);   }
+
+    @Override
+    public boolean hasCapital()                 { return getCapital() != null;      }
+
+    @Override
+    public boolean hasSubRegions()
+    {
+        return store.getFirstChild(index) != RegionStore.NO_REGION;
+    }
+
+    @Override
+    public Region getParentRegion()
+    {
+        int parent = store.getParent(index);
+        return (parent == RegionStore.NO_REGION) ? null : new CompactRegion(store, parent);
+    }
+
+    @Override
+    public Iterator<Region> getSubRegions()
+    {
+        return new SubRegionIterator();
+    }
+
+    @Override
+    public Region getSubRegion(String subRegionId)
+    {
+        // THE STORE CAN FIND IT DIRECTLY, WE JUST HAVE TO MAKE SURE IT'S OURS
+        int subRegion = store.findRegion(subRegionId);
+        if ((subRegion != RegionStore.NO_REGION)
+                && (store.getParent(subRegion) == index))
+        {
+            return new CompactRegion(store, subRegion);
+        }
+        return null;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return getId().hashCode();
+    }
+
+    // MUTATOR METHODS, NONE OF WHICH ARE ALLOWED
+
+    @Override
+    public void setId(String initId)                        { throw readOnly(); }
+
+    @Override
+    public void setName(String initName)                    { throw readOnly(); }
+
+    @Override
+    public void setCapital(String initCapital)              { throw readOnly(); }
+
+    @Override
+    public void setType(RegionType initType)                { throw readOnly(); }
+
+    @Override
+    public void setParentRegion(Region initParentRegion)    { throw readOnly(); }
+
+    @Override
+    public void addSubRegion(Region subRegionToAdd)         { throw readOnly(); }
+
+    @Override
+    public void addSubRegions(Collection subRegionsToAdd)   { throw readOnly(); }
+
+    @Override
+    public void removeSubRegion(Region subRegionToRemove)   { throw readOnly(); }
+
+    /**
+     * Private helper method for making the exception thrown by all
+     * of our mutators.
+     */
+    private UnsupportedOperationException readOnly()
+    {
+        return new UnsupportedOperationException(READ_ONLY_TEXT);
+    }
+
+    /**
+     * This walks through the children of this region in the store, making
+     * a view for each one as it's reached.
+     */
+    private class SubRegionIterator implements Iterator<Region>
+    {
+        // THE INDEX OF THE NEXT CHILD TO PROVIDE
+        private int nextSubRegion = store.getFirstChild(index);
+
+        @Override
+        public boolean hasNext()
+        {
+            return nextSubRegion != RegionStore.NO_REGION;
+        }
+
+        @Override
+        public Region next()
+        {
+            if (nextSubRegion == RegionStore.NO_REGION)
+            {
+                throw new NoSuchElementException();
+            }
+            Region subRegion = new CompactRegion(store, nextSubRegion);
+            nextSubRegion = store.getNextSibling(nextSubRegion);
+            return subRegion;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw readOnly();
+        }
+    }
+}
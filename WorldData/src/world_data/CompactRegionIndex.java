@@ -0,0 +1,266 @@
+package world_data;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This is a read-only RegionIndex over a RegionStore, which is what a
+ * WorldDataManager uses once its world has been compacted. Regions are
+ * found through the store and handed out as CompactRegion views. Note
+ * that iterating in id order needs a sorted array of region indices,
+ * which is only built the first time someone asks for it, and the same
+ * goes for the lists of regions of each type.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class CompactRegionIndex implements RegionIndex
+{
+    // THIS IS WHAT WE TELL ANYONE WHO TRIES TO CHANGE A COMPACT WORLD
+    public static final String READ_ONLY_TEXT = "Compact worlds cannot be changed";
+    
+    // WHERE ALL THE REGIONS LIVE
+    private RegionStore store;
+    
+    // ALL THE REGION INDICES SORTED BY ID, null UNTIL NEEDED. THESE ARE
+    // volatile SINCE A SNAPSHOT'S READERS MAY EACH BUILD THEM AT ONCE
+    private volatile int[] regionsInIdOrder;
+    
+    // THE REGION INDICES OF EACH TYPE, BY TYPE ORDINAL, null UNTIL NEEDED
+    private volatile int[][] regionsByType;
+
+    /**
+     * Constructor for making an index over all the regions in initStore.
+     * 
+     * @param initStore The store containing all the regions.
+     */
+    CompactRegionIndex(RegionStore initStore)
+    {
+        store = initStore;
+        regionsInIdOrder = null;
+        regionsByType = null;
+    }
+
+    // ACCESSOR METHODS
+
+    @Override
+    public Region get(String regionId)
+    {
+        int region = store.findRegion(regionId);
+        return (region == RegionStore.NO_REGION) ? null : new CompactRegion(store, region);
+    }
+
+    @Override
+    public boolean containsKey(String regionId)
+    {
+        return store.findRegion(regionId) != RegionStore.NO_REGION;
+    }
+
+    @Override
+    public int size()
+    {
+        return store.getNumRegions();
+    }
+
+    @Override
+    public Collection<Region> values()
+    {
+        return new AbstractCollection<Region>()
+        {
+            @Override
+            public Iterator<Region> iterator()  { return new IdOrderIterator(getRegionsInIdOrder()); }
+
+            @Override
+            public int size()                   { return store.getNumRegions(); }
+        };
+    }
+
+    /**
+     * Accessor method for getting all the regions of a given type.
+     * 
+     * @param type The type of regions to get.
+     * 
+     * @return A read-only collection of views of all the regions of
+     * that type, in the store's order.
+     */
+    Collection<Region> getRegionsOfType(RegionType type)
+    {
+        final int[] regions = getRegionsByType()[type.ordinal()];
+        return new AbstractCollection<Region>()
+        {
+            @Override
+            public Iterator<Region> iterator()  { return new IdOrderIterator(regions); }
+
+            @Override
+            public int size()                   { return regions.length; }
+        };
+    }
+
+    /**
+     * Accessor method for getting how many regions are of a given type.
+     * 
+     * @param type The type of regions to count.
+     * 
+     * @return The number of regions of that type.
+     */
+    int getNumRegionsOfType(RegionType type)
+    {
+        return getRegionsByType()[type.ordinal()].length;
+    }
+
+    // MUTATOR METHODS, NONE OF WHICH ARE ALLOWED
+
+    @Override
+    public Region put(String regionId, Region region)
+    {
+        throw new UnsupportedOperationException(READ_ONLY_TEXT);
+    }
+
+    @Override
+    public Region remove(String regionId)
+    {
+        throw new UnsupportedOperationException(READ_ONLY_TEXT);
+    }
+
+    @Override
+    public void clear()
+    {
+        throw new UnsupportedOperationException(READ_ONLY_TEXT);
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Gets the region indices in id order, sorting them the first time.
+     */
+    private int[] getRegionsInIdOrder()
+    {
+        int[] sortedRegions = regionsInIdOrder;
+        if (sortedRegions == null)
+        {
+            int numRegions = store.getNumRegions();
+            int[] regions = new int[numRegions];
+            for (int i = 0; i < numRegions; i++)
+            {
+                regions[i] = i;
+            }
+            mergeSort(regions, new int[numRegions], 0, numRegions);
+            regionsInIdOrder = regions;
+            sortedRegions = regions;
+        }
+        return sortedRegions;
+    }
+
+    /**
+     * Gets the region indices grouped by type, scanning the store the
+     * first time. It's counted first so each array is made the right size.
+     */
+    private int[][] getRegionsByType()
+    {
+        int[][] groupedRegions = regionsByType;
+        if (groupedRegions == null)
+        {
+            RegionType[] types = RegionType.values();
+            int numRegions = store.getNumRegions();
+            int[] counts = new int[types.length];
+            for (int i = 0; i < numRegions; i++)
+            {
+                counts[store.getType(i).ordinal()]++;
+            }
+            int[][] regions = new int[types.length][];
+            for (int i = 0; i < types.length; i++)
+            {
+                regions[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+            for (int i = 0; i < numRegions; i++)
+            {
+                int typeIndex = store.getType(i).ordinal();
+                regions[typeIndex][counts[typeIndex]++] = i;
+            }
+            regionsByType = regions;
+            groupedRegions = regions;
+        }
+        return groupedRegions;
+    }
+
+    /**
+     * Sorts regions[from, to) by id. We can't use Arrays.sort with a
+     * Comparator for ints, and boxing millions of them would defeat the
+     * point of a compact world.
+     */
+    private void mergeSort(int[] regions, int[] temp, int from, int to)
+    {
+        if (to - from < 2)
+        {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(regions, temp, from, mid);
+        mergeSort(regions, temp, mid, to);
+        
+        // ALREADY IN ORDER, WHICH IS COMMON SINCE IDS OFTEN FOLLOW NAMES
+        if (store.compareIds(regions[mid - 1], regions[mid]) <= 0)
+        {
+            return;
+        }
+        System.arraycopy(regions, from, temp, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++)
+        {
+            if ((right >= to)
+                    || ((left < mid) && (store.compareIds(temp[left], temp[right]) <= 0)))
+            {
+                regions[i] = temp[left++];
+            }
+            else
+            {
+                regions[i] = temp[right++];
+            }
+        }
+    }
+
+    /**
+     * This walks through an array of region indices, making a view for
+     * each one as it's reached. It's used for the regions in id order
+     * and for the regions of a type.
+     */
+    private class IdOrderIterator implements Iterator<Region>
+    {
+        // THE SORTED REGION INDICES AND HOW FAR THROUGH THEM WE ARE
+        private int[] regions;
+        private int next;
+
+        IdOrderIterator(int[] initRegions)
+        {
+            regions = initRegions;
+            next = 0;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next < regions.length;
+        }
+
+        @Override
+        public Region next()
+        {
+            if (next >= regions.length)
+            {
+                throw new NoSuchElementException();
+            }
+            return new CompactRegion(store, regions[next++]);
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException(READ_ONLY_TEXT);
+        }
+    }
+}
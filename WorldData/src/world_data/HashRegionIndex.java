@@ -0,0 +1,284 @@
+package world_data;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * This is a RegionIndex that uses an open-addressing hash table, with
+ * linear probing, keyed by region id. Each slot keeps the hash of its
+ * key so that probing rarely has to compare Strings and growing the
+ * table never has to rehash them. Lookups are O(1) on average.
+ * 
+ * Note that a hash table has no order, so a sorted array of the regions
+ * is only built when someone asks to iterate through them, and it is
+ * then reused until the index changes.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class HashRegionIndex implements RegionIndex
+{
+    // THE TABLE SIZE MUST ALWAYS BE A POWER OF 2
+    public static final int DEFAULT_CAPACITY = 64;
+    
+    // THE KEYS, VALUES, AND CACHED KEY HASHES, ALL IN PARALLEL.
+    // AN EMPTY SLOT HAS A null KEY
+    private String[] keys;
+    private Region[] values;
+    private int[] hashes;
+    
+    // THE NUMBER OF REGIONS CURRENTLY STORED
+    private int size;
+    
+    // FOR TURNING A HASH INTO A SLOT, IT'S ALWAYS THE TABLE SIZE - 1
+    private int mask;
+    
+    // ALL THE REGIONS SORTED BY ID, null IF IT NEEDS TO BE REBUILT
+    private Region[] sortedRegions;
+    
+    // THE ORDERED VIEW OF ALL THE REGIONS WE GIVE OUT
+    private Collection<Region> valuesView;
+
+    /**
+     * Default constructor, it sets up an empty table.
+     */
+    public HashRegionIndex()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Constructor for when we have an idea of how many regions there
+     * will be, which lets us avoid growing the table while loading.
+     * 
+     * @param expectedSize The number of regions we expect to store.
+     */
+    public HashRegionIndex(int expectedSize)
+    {
+        // KEEP THE TABLE AT MOST HALF FULL
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2)
+        {
+            capacity <<= 1;
+        }
+        initTable(capacity);
+        valuesView = new SortedRegionsView();
+    }
+
+    // ACCESSOR METHODS
+
+    @Override
+    public Region get(String regionId)
+    {
+        int slot = findSlot(regionId, hash(regionId));
+        return (slot >= 0) ? values[slot] : null;
+    }
+
+    @Override
+    public boolean containsKey(String regionId)
+    {
+        return findSlot(regionId, hash(regionId)) >= 0;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public Collection<Region> values()
+    {
+        return valuesView;
+    }
+
+    // MUTATOR METHODS
+
+    @Override
+    public Region put(String regionId, Region region)
+    {
+        int hash = hash(regionId);
+        int slot = findSlot(regionId, hash);
+        sortedRegions = null;
+        
+        // ALREADY THERE, SO JUST REPLACE IT
+        if (slot >= 0)
+        {
+            Region oldRegion = values[slot];
+            values[slot] = region;
+            return oldRegion;
+        }
+        
+        // MAKE ROOM IF WE NEED TO, WHICH MOVES EVERYTHING
+        if ((size + 1) * 2 > keys.length)
+        {
+            resize(keys.length * 2);
+            slot = findSlot(regionId, hash);
+        }
+        
+        // AN EMPTY SLOT COMES BACK ENCODED AS A NEGATIVE NUMBER
+        slot = -(slot + 1);
+        keys[slot] = regionId;
+        values[slot] = region;
+        hashes[slot] = hash;
+        size++;
+        return null;
+    }
+
+    @Override
+    public Region remove(String regionId)
+    {
+        int slot = findSlot(regionId, hash(regionId));
+        if (slot < 0)
+        {
+            return null;
+        }
+        Region removedRegion = values[slot];
+        sortedRegions = null;
+        size--;
+        
+        // WE DON'T USE TOMBSTONES, INSTEAD WE SHIFT BACK ANY LATER
+        // ENTRIES IN THE SAME RUN THAT CAN NOW BE REACHED SOONER
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (keys[next] != null)
+        {
+            int home = hashes[next] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask))
+            {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hashes[hole] = hashes[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        hashes[hole] = 0;
+        return removedRegion;
+    }
+
+    @Override
+    public void clear()
+    {
+        // START OVER SMALL SO A BIG WORLD'S TABLE CAN BE COLLECTED
+        initTable(DEFAULT_CAPACITY);
+        sortedRegions = null;
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Spreads the high bits of the key's hash into the low ones, since
+     * only the low bits are used to pick a slot.
+     */
+    private static int hash(String key)
+    {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds the slot that holds key. If the key is not in the table, the
+     * empty slot where it would go is returned as -(slot + 1).
+     */
+    private int findSlot(String key, int hash)
+    {
+        int slot = hash & mask;
+        while (keys[slot] != null)
+        {
+            if ((hashes[slot] == hash) && keys[slot].equals(key))
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -(slot + 1);
+    }
+
+    /**
+     * Makes new empty arrays for a table with capacity slots.
+     */
+    private void initTable(int capacity)
+    {
+        keys = new String[capacity];
+        values = new Region[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    /**
+     * Moves everything into a table with newCapacity slots. Note that
+     * we reuse the cached hashes so no key has to be hashed again.
+     */
+    private void resize(int newCapacity)
+    {
+        String[] oldKeys = keys;
+        Region[] oldValues = values;
+        int[] oldHashes = hashes;
+        int oldSize = size;
+        initTable(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != null)
+            {
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+        size = oldSize;
+    }
+
+    /**
+     * Gets all the regions sorted by id, sorting them only if something
+     * has changed since the last time we did.
+     */
+    private Region[] getSortedRegions()
+    {
+        if (sortedRegions == null)
+        {
+            Region[] regions = new Region[size];
+            int count = 0;
+            for (int i = 0; i < values.length; i++)
+            {
+                if (keys[i] != null)
+                {
+                    regions[count++] = values[i];
+                }
+            }
+            Arrays.sort(regions, Region.ID_ORDER);
+            sortedRegions = regions;
+        }
+        return sortedRegions;
+    }
+
+    /**
+     * This is the live, ordered view of all the regions that we give
+     * out through values(). Each new iteration picks up any changes.
+     */
+    private class SortedRegionsView extends AbstractCollection<Region>
+    {
+        @Override
+        public Iterator<Region> iterator()
+        {
+            return Arrays.asList(getSortedRegions()).iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+}
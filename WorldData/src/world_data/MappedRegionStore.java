@@ -0,0 +1,462 @@
+package world_data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * This RegionStore keeps all of a world's data in a memory-mapped file
+ * rather than on the Java heap. The file has the same layout as an
+ * ArrayRegionStore: a fixed-size record per region in pre-order, then a
+ * hash table of region indices by id, then all the Strings. Opening a
+ * store only maps the file, so it's nearly instant regardless of size,
+ * and the operating system only pages in the parts that get touched.
+ * 
+ * Since nothing is read until it's used, opening a store checks that the
+ * header describes a file of the size it really is, and every String is
+ * checked to be inside the strings section as it's read, so a truncated or
+ * damaged file is rejected rather than read past its end.
+ * 
+ * Since a single mapping is limited to 2 GB, the file is mapped in
+ * segments. Every value in the file is aligned to its own size and the
+ * segment size is a power of 2, so no value ever spans two segments.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class MappedRegionStore extends RegionStore
+{
+    // THIS IDENTIFIES OUR FILES, IT'S "WRLD" IN ASCII
+    public static final int MAGIC_NUMBER = 0x57524C44;
+    
+    // CHANGE THIS WHENEVER THE FILE LAYOUT CHANGES
+    public static final int FILE_VERSION = 2;
+    
+    // THE FILE IS MAPPED IN PIECES OF THIS SIZE
+    private static final long SEGMENT_SIZE = 1L << 30;
+    
+    // THE HEADER IS FOUR INTS AND THE NUMBER OF CHARS OF STRINGS, PADDED
+    // TO 32 BYTES
+    private static final int HEADER_SIZE = 32;
+    private static final int STRING_CHARS_FIELD = 16;
+    
+    // EACH REGION RECORD IS 5 INTS AND A TYPE BYTE, PADDED TO 24 BYTES
+    private static final int RECORD_SIZE = 24;
+    private static final int PARENT_FIELD = 0;
+    private static final int SUBTREE_SIZE_FIELD = 4;
+    private static final int ID_FIELD = 8;
+    private static final int NAME_FIELD = 12;
+    private static final int CAPITAL_FIELD = 16;
+    private static final int TYPE_FIELD = 20;
+    
+    // OUR STRING OFFSETS ARE IN CHARS AND EACH STRING
+    // IS ITS LENGTH IN TWO CHARS FOLLOWED BY ITS CHARS
+    private static final int LENGTH_CHARS = 2;
+    
+    // THE MAPPED FILE
+    private MappedByteBuffer[] segments;
+    
+    // WHAT WE READ FROM THE HEADER
+    private int numRegions;
+    private int idTableCapacity;
+    private long stringChars;
+    
+    // WHERE EACH SECTION OF THE FILE STARTS
+    private long idTableStart;
+    private long stringsStart;
+
+    /**
+     * Private constructor, stores are made by opening or writing a file.
+     */
+    private MappedRegionStore(MappedByteBuffer[] initSegments, int initNumRegions,
+                              int initIdTableCapacity, long initStringChars)
+    {
+        segments = initSegments;
+        numRegions = initNumRegions;
+        idTableCapacity = initIdTableCapacity;
+        stringChars = initStringChars;
+        idTableStart = HEADER_SIZE + (long)numRegions * RECORD_SIZE;
+        stringsStart = idTableStart + (long)idTableCapacity * 4;
+    }
+
+    /**
+     * Opens a store previously written to storeFile. Note that this only
+     * maps the file, none of it is actually read until it is used.
+     * 
+     * @param storeFile The file containing the store.
+     * 
+     * @return A store that reads everything from the mapped file.
+     * 
+     * @throws IOException Thrown if the file can't be mapped, isn't a
+     * store, or is too short for what its header says is in it.
+     */
+    public static MappedRegionStore open(File storeFile) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(storeFile, "r"))
+        {
+            long fileLength = file.length();
+            MappedByteBuffer[] segments = map(file.getChannel(), FileChannel.MapMode.READ_ONLY, fileLength);
+            if ((fileLength < HEADER_SIZE)
+                    || (segments[0].getInt(0) != MAGIC_NUMBER)
+                    || (segments[0].getInt(4) != FILE_VERSION))
+            {
+                throw new IOException(storeFile + " is not a region store");
+            }
+            int numRegions = segments[0].getInt(8);
+            int idTableCapacity = segments[0].getInt(12);
+            long stringChars = segments[0].getLong(STRING_CHARS_FIELD);
+            
+            // THE ID TABLE MUST HAVE AN EMPTY SLOT OR LOOKUPS WOULD NEVER END
+            if ((numRegions < 0)
+                    || (idTableCapacity <= numRegions)
+                    || (Integer.bitCount(idTableCapacity) != 1)
+                    || (stringChars < 0)
+                    || (stringChars > Integer.MAX_VALUE))
+            {
+                throw new IOException(storeFile + " has a damaged header");
+            }
+            long neededLength = HEADER_SIZE + (long)numRegions * RECORD_SIZE
+                    + (long)idTableCapacity * 4 + stringChars * 2;
+            if (fileLength < neededLength)
+            {
+                throw new IOException(storeFile + " is " + fileLength + " bytes but should be " + neededLength);
+            }
+            return new MappedRegionStore(segments, numRegions, idTableCapacity, stringChars);
+        }
+    }
+
+    /**
+     * Writes all the regions of sourceStore to storeFile such that they
+     * can then be opened as a MappedRegionStore. Note that the file is
+     * itself written through a mapping, so even the id hash table never
+     * has to fit on the heap. It's written next to storeFile first and only
+     * then moved into its place, so if anything goes wrong whatever was in
+     * storeFile before is left alone, as is any store open on it.
+     * 
+     * @param sourceStore The regions to write.
+     * 
+     * @param storeFile The file to write them to.
+     * 
+     * @return The newly written store, already open.
+     * 
+     * @throws IOException Thrown if the file can't be written.
+     */
+    public static MappedRegionStore write(RegionStore sourceStore, File storeFile) throws IOException
+    {
+        int numRegions = sourceStore.getNumRegions();
+        int idTableCapacity = 16;
+        while (idTableCapacity < numRegions * 2)
+        {
+            idTableCapacity <<= 1;
+        }
+        
+        // FIRST FIGURE OUT HOW MUCH ROOM ALL THE STRINGS TAKE
+        long stringChars = 0;
+        for (int region = 0; region < numRegions; region++)
+        {
+            stringChars += storedLength(sourceStore.getId(region))
+                    + storedLength(sourceStore.getName(region))
+                    + storedLength(sourceStore.getCapital(region));
+        }
+        long fileSize = HEADER_SIZE + (long)numRegions * RECORD_SIZE
+                + (long)idTableCapacity * 4 + stringChars * 2;
+        
+        File directory = storeFile.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(storeFile.getName(), ".tmp", directory);
+        boolean written = false;
+        try
+        {
+            writeFile(sourceStore, tempFile, numRegions, idTableCapacity, stringChars, fileSize);
+            try
+            {
+                Files.move(tempFile.toPath(), storeFile.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(AtomicMoveNotSupportedException amnse)
+            {
+                Files.move(tempFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            written = true;
+        }
+        finally
+        {
+            if (!written)
+            {
+                tempFile.delete();
+            }
+        }
+        return open(storeFile);
+    }
+
+    /**
+     * Private helper method that writes the whole store to storeFile,
+     * which write then moves into place.
+     */
+    private static void writeFile(RegionStore sourceStore, File storeFile, int numRegions,
+                                  int idTableCapacity, long stringChars, long fileSize)
+            throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(storeFile, "rw"))
+        {
+            file.setLength(fileSize);
+            MappedByteBuffer[] segments = map(file.getChannel(), FileChannel.MapMode.READ_WRITE, fileSize);
+            MappedRegionStore store = new MappedRegionStore(segments, numRegions, idTableCapacity, stringChars);
+            store.putInt(0, MAGIC_NUMBER);
+            store.putInt(4, FILE_VERSION);
+            store.putInt(8, numRegions);
+            store.putInt(12, idTableCapacity);
+            segments[0].putLong(STRING_CHARS_FIELD, stringChars);
+            
+            // NOW ALL THE REGION RECORDS AND THEIR STRINGS
+            long nextString = 0;
+            int mask = idTableCapacity - 1;
+            for (int region = 0; region < numRegions; region++)
+            {
+                long record = store.recordPosition(region);
+                store.putInt(record + PARENT_FIELD, sourceStore.getParent(region));
+                store.putInt(record + SUBTREE_SIZE_FIELD, sourceStore.getSubtreeSize(region));
+                store.putByte(record + TYPE_FIELD, (byte)sourceStore.getType(region).ordinal());
+                String id = sourceStore.getId(region);
+                nextString = store.putString(record + ID_FIELD, nextString, id);
+                nextString = store.putString(record + NAME_FIELD, nextString, sourceStore.getName(region));
+                nextString = store.putString(record + CAPITAL_FIELD, nextString, sourceStore.getCapital(region));
+                
+                // AND HOOK IT INTO THE ID TABLE, WHICH STARTS OUT ALL 0s
+                int slot = spread(id.hashCode()) & mask;
+                while (store.getInt(store.idTableStart + slot * 4L) != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                store.putInt(store.idTableStart + slot * 4L, region + 1);
+            }
+            for (MappedByteBuffer segment : segments)
+            {
+                segment.force();
+            }
+        }
+    }
+
+    // ACCESSOR METHODS
+
+    @Override
+    public int getNumRegions()              { return numRegions;                                            }
+
+    @Override
+    public int getParent(int region)        { return getInt(recordPosition(region) + PARENT_FIELD);         }
+
+    @Override
+    public int getSubtreeSize(int region)   { return getInt(recordPosition(region) + SUBTREE_SIZE_FIELD);   }
+
+    @Override
+    public RegionType getType(int region)   { return REGION_TYPES[getByte(recordPosition(region) + TYPE_FIELD)]; }
+
+    @Override
+    public String getId(int region)         { return getString(getInt(recordPosition(region) + ID_FIELD));      }
+
+    @Override
+    public String getName(int region)       { return getString(getInt(recordPosition(region) + NAME_FIELD));    }
+
+    @Override
+    public String getCapital(int region)    { return getString(getInt(recordPosition(region) + CAPITAL_FIELD)); }
+
+    @Override
+    public int compareIds(int region1, int region2)
+    {
+        long start1 = stringPosition(getInt(recordPosition(region1) + ID_FIELD));
+        long start2 = stringPosition(getInt(recordPosition(region2) + ID_FIELD));
+        int length1 = stringLength(start1);
+        int length2 = stringLength(start2);
+        int minLength = Math.min(length1, length2);
+        for (int i = 0; i < minLength; i++)
+        {
+            char c1 = getChar(start1 + (LENGTH_CHARS + i) * 2L);
+            char c2 = getChar(start2 + (LENGTH_CHARS + i) * 2L);
+            if (c1 != c2)
+            {
+                return c1 - c2;
+            }
+        }
+        return length1 - length2;
+    }
+
+    @Override
+    public int findRegion(String regionId)
+    {
+        int mask = idTableCapacity - 1;
+        int slot = spread(regionId.hashCode()) & mask;
+        int entry = getInt(idTableStart + slot * 4L);
+        while (entry != 0)
+        {
+            int region = entry - 1;
+            if ((region < 0) || (region >= numRegions))
+            {
+                throw new IllegalStateException("Region store has a damaged id table");
+            }
+            if (idMatches(region, regionId))
+            {
+                return region;
+            }
+            slot = (slot + 1) & mask;
+            entry = getInt(idTableStart + slot * 4L);
+        }
+        return NO_REGION;
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Maps the first size bytes of channel in SEGMENT_SIZE pieces.
+     */
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long size)
+            throws IOException
+    {
+        int numSegments = (int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] segments = new MappedByteBuffer[Math.max(numSegments, 1)];
+        for (int i = 0; i < segments.length; i++)
+        {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(mode, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        return segments;
+    }
+
+    /**
+     * Tells how many chars a String takes up in the file.
+     */
+    private static long storedLength(String text)
+    {
+        return (text == null) ? 0 : LENGTH_CHARS + text.length();
+    }
+
+    /**
+     * Spreads the high bits of a hash into the low ones, just like
+     * ArrayRegionStore does.
+     */
+    private static int spread(int h)
+    {
+        return h ^ (h >>> 16);
+    }
+
+    private long recordPosition(int region)
+    {
+        return HEADER_SIZE + (long)region * RECORD_SIZE;
+    }
+
+    /**
+     * Finds where the String at stringOffset chars into the strings
+     * section starts, making sure the String is all inside the section.
+     */
+    private long stringPosition(int stringOffset)
+    {
+        if ((stringOffset < 0) || (stringOffset + (long)LENGTH_CHARS > stringChars))
+        {
+            throw new IllegalStateException("Region store has a damaged string offset: " + stringOffset);
+        }
+        long position = stringsStart + stringOffset * 2L;
+        int length = stringLength(position);
+        if ((length < 0) || (stringOffset + (long)LENGTH_CHARS + length > stringChars))
+        {
+            throw new IllegalStateException("Region store has a damaged string length at " + stringOffset);
+        }
+        return position;
+    }
+
+    private int stringLength(long position)
+    {
+        return (getChar(position) << 16) | getChar(position + 2);
+    }
+
+    /**
+     * Reads the String at stringOffset chars into the strings section.
+     */
+    private String getString(int stringOffset)
+    {
+        if (stringOffset == RegionStringTable.NO_STRING)
+        {
+            return null;
+        }
+        long start = stringPosition(stringOffset);
+        int length = stringLength(start);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            chars[i] = getChar(start + (LENGTH_CHARS + i) * 2L);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Tests to see if region's id is regionId without making a String.
+     */
+    private boolean idMatches(int region, String regionId)
+    {
+        long start = stringPosition(getInt(recordPosition(region) + ID_FIELD));
+        int length = stringLength(start);
+        if (length != regionId.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (getChar(start + (LENGTH_CHARS + i) * 2L) != regionId.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes text at nextString in the strings section and puts its offset
+     * in the int at fieldPosition. Note that String offsets are ints, in
+     * chars, so the strings section can hold at most 4 GB.
+     * 
+     * @return Where the String after this one goes.
+     */
+    private long putString(long fieldPosition, long nextString, String text)
+    {
+        if (text == null)
+        {
+            putInt(fieldPosition, RegionStringTable.NO_STRING);
+            return nextString;
+        }
+        if (nextString > Integer.MAX_VALUE)
+        {
+            throw new IllegalStateException("Too much text for a region store");
+        }
+        putInt(fieldPosition, (int)nextString);
+        long start = stringsStart + nextString * 2L;
+        int length = text.length();
+        putChar(start, (char)(length >>> 16));
+        putChar(start + 2, (char)length);
+        for (int i = 0; i < length; i++)
+        {
+            putChar(start + (LENGTH_CHARS + i) * 2L, text.charAt(i));
+        }
+        return nextString + LENGTH_CHARS + length;
+    }
+
+    // THESE READ AND WRITE VALUES AT ABSOLUTE FILE POSITIONS
+    
+    private MappedByteBuffer segment(long position)  { return segments[(int)(position / SEGMENT_SIZE)];  }
+    
+    private int offset(long position)                { return (int)(position % SEGMENT_SIZE);           }
+
+    private int getInt(long position)                { return segment(position).getInt(offset(position));   }
+
+    private char getChar(long position)              { return segment(position).getChar(offset(position));  }
+
+    private byte getByte(long position)              { return segment(position).get(offset(position));      }
+
+    private void putInt(long position, int value)    { segment(position).putInt(offset(position), value);   }
+
+    private void putChar(long position, char value)  { segment(position).putChar(offset(position), value);  }
+
+    private void putByte(long position, byte value)  { segment(position).put(offset(position), value);      }
+}
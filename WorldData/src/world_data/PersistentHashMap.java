@@ -0,0 +1,504 @@
+package world_data;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This is an immutable map from String keys to values, built as a hash
+ * array mapped trie (HAMT). Each level of the trie uses 5 more bits of a
+ * key's hash to pick one of up to 32 children, and each node only has room
+ * for the children it actually has, which a bitmap keeps track of. Putting
+ * or removing a key never changes a map but makes a new one, copying only
+ * the O(log n) nodes on the path to that key and sharing all the rest with
+ * the old map. That makes it cheap to keep many slightly different
+ * versions of a big map around at once.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class PersistentHashMap<V>
+{
+    // HOW MANY HASH BITS EACH LEVEL OF THE TRIE USES
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+    
+    // A 32 BIT HASH RUNS OUT AFTER THIS MANY LEVELS, AND THEN COMES AT
+    // MOST ONE LEVEL FOR KEYS WHOSE HASHES ARE ALL THE SAME
+    private static final int MAX_DEPTH = 8;
+    
+    // THERE ONLY NEEDS TO BE ONE EMPTY MAP
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+    
+    // THE TOP OF THE TRIE, null FOR AN EMPTY MAP
+    private final HashNode root;
+    
+    // HOW MANY KEYS ARE IN THE MAP
+    private final int size;
+
+    /**
+     * Private constructor, maps are made by changing the empty one.
+     */
+    private PersistentHashMap(HashNode initRoot, int initSize)
+    {
+        root = initRoot;
+        size = initSize;
+    }
+
+    /**
+     * Accessor method for getting the map with nothing in it.
+     * 
+     * @return The empty map.
+     */
+    static <V> PersistentHashMap<V> empty()
+    {
+        return EMPTY;
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Accessor method for getting the value for a key.
+     * 
+     * @param key The key to look up.
+     * 
+     * @return The value for key, or null if key isn't in this map.
+     */
+    V get(String key)
+    {
+        if (root == null)
+        {
+            return null;
+        }
+        return (V)root.find(key, hash(key), 0);
+    }
+
+    /**
+     * Tests to see if key is in this map.
+     * 
+     * @param key The key to look for.
+     * 
+     * @return true if this map has a value for key, false otherwise.
+     */
+    boolean containsKey(String key)
+    {
+        return get(key) != null;
+    }
+
+    /**
+     * Accessor method for getting how many keys are in this map.
+     * 
+     * @return The number of keys.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Accessor method for going through all the values in this map, in
+     * no particular order.
+     * 
+     * @return An Iterator over all the values.
+     */
+    Iterator<V> valuesIterator()
+    {
+        return new ValueIterator();
+    }
+
+    // METHODS THAT MAKE NEW MAPS
+
+    /**
+     * Makes a map like this one but with value for key.
+     * 
+     * @param key The key to set, which must not be null.
+     * 
+     * @param value The value to give it, which must not be null.
+     * 
+     * @return The new map, or this one if key already had value.
+     */
+    PersistentHashMap<V> put(String key, V value)
+    {
+        HashNode oldRoot = (root == null) ? BitmapNode.EMPTY : root;
+        boolean[] added = new boolean[1];
+        HashNode newRoot = oldRoot.put(key, hash(key), value, 0, added);
+        if (newRoot == oldRoot)
+        {
+            return this;
+        }
+        return new PersistentHashMap(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Makes a map like this one but without key.
+     * 
+     * @param key The key to take out.
+     * 
+     * @return The new map, or this one if key wasn't in it.
+     */
+    PersistentHashMap<V> remove(String key)
+    {
+        if (root == null)
+        {
+            return this;
+        }
+        HashNode newRoot = root.remove(key, hash(key), 0);
+        if (newRoot == root)
+        {
+            return this;
+        }
+        return new PersistentHashMap(newRoot, size - 1);
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Mixes the high bits of a key's hash into the low ones, which are
+     * the ones used first.
+     */
+    private static int hash(String key)
+    {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Works out which of the 32 children at this level goes with hash.
+     */
+    private static int bitFor(int hash, int shift)
+    {
+        return 1 << ((hash >>> shift) & LEVEL_MASK);
+    }
+
+    /**
+     * Makes a new array like array but with two more slots at index,
+     * for a new key and value.
+     */
+    private static Object[] insertPair(Object[] array, int index, Object key, Object value)
+    {
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, index);
+        newArray[index] = key;
+        newArray[index + 1] = value;
+        System.arraycopy(array, index, newArray, index + 2, array.length - index);
+        return newArray;
+    }
+
+    /**
+     * Makes a new array like array but without the two slots at index.
+     */
+    private static Object[] removePair(Object[] array, int index)
+    {
+        Object[] newArray = new Object[array.length - 2];
+        System.arraycopy(array, 0, newArray, 0, index);
+        System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+        return newArray;
+    }
+
+    /**
+     * Makes a new array like array but with value at index.
+     */
+    private static Object[] replace(Object[] array, int index, Object value)
+    {
+        Object[] newArray = array.clone();
+        newArray[index] = value;
+        return newArray;
+    }
+
+    /**
+     * A node of the trie. Its array holds pairs, each of which is either a
+     * key and its value, or null and a node further down the trie.
+     */
+    private abstract static class HashNode
+    {
+        Object[] array;
+
+        abstract Object find(String key, int hash, int shift);
+
+        abstract HashNode put(String key, int hash, Object value, int shift, boolean[] added);
+
+        abstract HashNode remove(String key, int hash, int shift);
+    }
+
+    /**
+     * The usual kind of node, which has a pair for each bit set in its
+     * bitmap, in bit order.
+     */
+    private static class BitmapNode extends HashNode
+    {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+        
+        int bitmap;
+
+        BitmapNode(int initBitmap, Object[] initArray)
+        {
+            bitmap = initBitmap;
+            array = initArray;
+        }
+
+        /**
+         * Gets where in the array the pair for bit goes.
+         */
+        int indexFor(int bit)
+        {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(String key, int hash, int shift)
+        {
+            int bit = bitFor(hash, shift);
+            if ((bitmap & bit) == 0)
+            {
+                return null;
+            }
+            int index = indexFor(bit);
+            Object keyHere = array[index];
+            Object valueHere = array[index + 1];
+            if (keyHere == null)
+            {
+                return ((HashNode)valueHere).find(key, hash, shift + BITS_PER_LEVEL);
+            }
+            return key.equals(keyHere) ? valueHere : null;
+        }
+
+        @Override
+        HashNode put(String key, int hash, Object value, int shift, boolean[] added)
+        {
+            int bit = bitFor(hash, shift);
+            int index = indexFor(bit);
+            
+            // NOTHING'S HERE YET
+            if ((bitmap & bit) == 0)
+            {
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, insertPair(array, index, key, value));
+            }
+            Object keyHere = array[index];
+            Object valueHere = array[index + 1];
+            
+            // IT GOES FURTHER DOWN
+            if (keyHere == null)
+            {
+                HashNode child = (HashNode)valueHere;
+                HashNode newChild = child.put(key, hash, value, shift + BITS_PER_LEVEL, added);
+                return (newChild == child) ? this : new BitmapNode(bitmap, replace(array, index + 1, newChild));
+            }
+            
+            // IT'S ALREADY HERE
+            if (key.equals(keyHere))
+            {
+                return (valueHere == value) ? this : new BitmapNode(bitmap, replace(array, index + 1, value));
+            }
+            
+            // ANOTHER KEY IS HERE, SO THEY BOTH GO IN A NEW NODE FURTHER DOWN
+            added[0] = true;
+            HashNode newChild = makeNode((String)keyHere, valueHere, key, hash, value, shift + BITS_PER_LEVEL);
+            Object[] newArray = array.clone();
+            newArray[index] = null;
+            newArray[index + 1] = newChild;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        HashNode remove(String key, int hash, int shift)
+        {
+            int bit = bitFor(hash, shift);
+            if ((bitmap & bit) == 0)
+            {
+                return this;
+            }
+            int index = indexFor(bit);
+            Object keyHere = array[index];
+            Object valueHere = array[index + 1];
+            if (keyHere == null)
+            {
+                HashNode child = (HashNode)valueHere;
+                HashNode newChild = child.remove(key, hash, shift + BITS_PER_LEVEL);
+                if (newChild == child)
+                {
+                    return this;
+                }
+                if (newChild != null)
+                {
+                    return new BitmapNode(bitmap, replace(array, index + 1, newChild));
+                }
+            }
+            else if (!key.equals(keyHere))
+            {
+                return this;
+            }
+            
+            // THE PAIR GOES AWAY, AND SO DOES THIS NODE IF IT WAS THE LAST
+            if (bitmap == bit)
+            {
+                return null;
+            }
+            return new BitmapNode(bitmap ^ bit, removePair(array, index));
+        }
+
+        /**
+         * Makes a node holding two keys that go in the same place at the
+         * level above.
+         */
+        private static HashNode makeNode(String key1, Object value1, String key2, int hash2, Object value2, int shift)
+        {
+            int hash1 = hash(key1);
+            if (hash1 == hash2)
+            {
+                return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.put(key1, hash1, value1, shift, added)
+                        .put(key2, hash2, value2, shift, added);
+        }
+    }
+
+    /**
+     * A node for keys whose hashes are exactly the same, which can only
+     * be told apart by going through them.
+     */
+    private static class CollisionNode extends HashNode
+    {
+        int hash;
+
+        CollisionNode(int initHash, Object[] initArray)
+        {
+            hash = initHash;
+            array = initArray;
+        }
+
+        /**
+         * Gets where in the array the pair for key is, -1 if it isn't here.
+         */
+        int indexOf(String key)
+        {
+            for (int i = 0; i < array.length; i += 2)
+            {
+                if (key.equals(array[i]))
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(String key, int keyHash, int shift)
+        {
+            int index = indexOf(key);
+            return (index < 0) ? null : array[index + 1];
+        }
+
+        @Override
+        HashNode put(String key, int keyHash, Object value, int shift, boolean[] added)
+        {
+            if (keyHash != hash)
+            {
+                // A DIFFERENT HASH NEEDS A NORMAL NODE ABOVE THIS ONE
+                BitmapNode parent = new BitmapNode(bitFor(hash, shift), new Object[] { null, this });
+                return parent.put(key, keyHash, value, shift, added);
+            }
+            int index = indexOf(key);
+            if (index < 0)
+            {
+                added[0] = true;
+                return new CollisionNode(hash, insertPair(array, array.length, key, value));
+            }
+            return (array[index + 1] == value) ? this : new CollisionNode(hash, replace(array, index + 1, value));
+        }
+
+        @Override
+        HashNode remove(String key, int keyHash, int shift)
+        {
+            int index = indexOf(key);
+            if (index < 0)
+            {
+                return this;
+            }
+            if (array.length == 2)
+            {
+                return null;
+            }
+            return new CollisionNode(hash, removePair(array, index));
+        }
+    }
+
+    /**
+     * This walks through the trie depth first, keeping a stack of the
+     * node arrays it's partway through.
+     */
+    private class ValueIterator implements Iterator<V>
+    {
+        private Object[][] arrays = new Object[MAX_DEPTH][];
+        private int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Object nextValue;
+
+        ValueIterator()
+        {
+            depth = -1;
+            if (root != null)
+            {
+                push(root);
+            }
+            nextValue = findNext();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return nextValue != null;
+        }
+
+        @Override
+        public V next()
+        {
+            if (nextValue == null)
+            {
+                throw new NoSuchElementException();
+            }
+            Object value = nextValue;
+            nextValue = findNext();
+            return (V)value;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private void push(HashNode node)
+        {
+            depth++;
+            arrays[depth] = node.array;
+            positions[depth] = 0;
+        }
+
+        private Object findNext()
+        {
+            while (depth >= 0)
+            {
+                Object[] array = arrays[depth];
+                int position = positions[depth];
+                if (position >= array.length)
+                {
+                    arrays[depth] = null;
+                    depth--;
+                    continue;
+                }
+                positions[depth] = position + 2;
+                if (array[position] == null)
+                {
+                    push((HashNode)array[position + 1]);
+                }
+                else
+                {
+                    return array[position + 1];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -1,13 +1,21 @@
 package world_data;
 
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * This class represents a named region for a geographic application where
  * all regions are hierarchically related. A region should have an id, name,
- * and type, and may optionally have a captial.
+ * and type, and may optionally have a captial. Changes to a region that's
+ * in a world are made while holding that world's write lock.
  * 
  * @author  Richard McKenna 
  *          Debugging Enterprises
@@ -15,9 +23,40 @@ import java.util.Iterator;
  */
 public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
 {
+    // ONCE A REGION HAS MORE CHILDREN THAN THIS WE'LL START KEEPING
+    // A HASH INDEX OF THEM BY ID, BELOW IT A SIMPLE SCAN IS FASTER
+    public static final int SUB_REGION_INDEX_THRESHOLD = 16;
+    
+    // THESE ARE THE TWO ORDERS SUB REGIONS ARE USUALLY WANTED IN
+    public static final Comparator<Region> NAME_ORDER = new Comparator<Region>()
+    {
+        @Override
+        public int compare(Region region1, Region region2)
+        {
+            return region1.getName().compareTo(region2.getName());
+        }
+    };
+    public static final Comparator<Region> ID_ORDER = new Comparator<Region>()
+    {
+        @Override
+        public int compare(Region region1, Region region2)
+        {
+            return region1.getId().compareTo(region2.getId());
+        }
+    };
+    
+    // THE NAME ORDERS FOR EACH LOCALE THAT'S BEEN ASKED FOR
+    private static final HashMap<Locale, Comparator<Region>> collationOrders = new HashMap();
+    
+    // THE MOST COLLATION KEYS A REGION KEEPS, ONE FOR EACH Collator
+    private static final int MAX_COLLATION_KEYS = 4;
+    
     // UNIQUE IDENTIFIER FOR THIS REGION
     private String id;
     
+    // HASH OF THE id, WHICH WE KEEP SO HASHING A REGION IS CHEAP
+    private int idHash;
+    
     // NAME OF REGION
     private String name;
     
@@ -34,6 +73,37 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
     // WOULD LIST STATES HERE
     private ArrayList<Region> subRegions;
     
+    // LOOKUP TABLE OF THE CHILD REGIONS BY ID. NOTE THAT THIS IS ONLY
+    // BUILT ONCE WE ACTUALLY NEED IT, SO IT'S USUALLY null
+    private HashMap<String, Region> subRegionIndex;
+    
+    // THE CHILD REGIONS SORTED IN EACH OF OUR OWN ORDERS THEY'VE BEEN ASKED
+    // FOR, WHICH IS THROWN AWAY WHENEVER THE CHILDREN CHANGE. NOTE THAT ONLY
+    // NAME_ORDER, ID_ORDER, AND THE COLLATION ORDERS ARE KEPT, SO THERE ARE
+    // NEVER MORE OF THESE THAN LOCALES IN USE, PLUS TWO
+    private HashMap<Comparator, List<Region>> subRegionOrders;
+    
+    // THIS REGION'S NAME AS ENCODED BY EACH OF THE LAST FEW Collators USED
+    // TO SORT IT, MOST RECENT FIRST, SO SORTING BY NAME IN A LOCALE'S ORDER
+    // ONLY ENCODES EACH NAME ONCE PER LOCALE. THE ARRAY IS NEVER CHANGED
+    // ONCE IT'S BEEN SET, ONLY REPLACED
+    private volatile CachedCollationKey[] collationKeys;
+    
+    // THE WORLD THIS REGION HAS BEEN ADDED TO, IF ANY, WHICH WE TELL
+    // ABOUT CHANGES SO IT CAN KEEP ITS INDEXES UP TO DATE
+    private WorldDataManager worldDataManager;
+    
+    // THIS REGION'S NUMBERING IN ITS WORLD'S RegionIntervalIndex
+    private RegionInterval interval;
+    
+    /**
+     * Constructor for subclasses that keep their data somewhere else,
+     * like CompactRegion views, which leaves all the fields empty.
+     */
+    Region()
+    {
+    }
+    
     /**
      * Constructor that initializes the three required fields for any
      * region: its id, name, and type
@@ -50,15 +120,20 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
     {
         // INIT THE PROVIDED FIELDS
         id = initId;
+        idHash = hashId(initId);
         name = initName;
         type = initType;
         
         // NULL THE MISSING FIELDS
         parentRegion = null;
         capital = null;
+        worldDataManager = null;
+        interval = null;
         
         // AND SETUP THE LIST SO WE CAN ADD CHILD REGIONS
         subRegions = new ArrayList();
+        subRegionIndex = null;
+        subRegionOrders = null;
     }
     
     /**
@@ -121,6 +196,20 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      */    
     public String       getCapital()        { return capital;       }
 
+    /**
+     * Accessor method for getting the world this region has been added to.
+     * 
+     * @return The data manager of this region's world, null if it has none.
+     */
+    WorldDataManager getWorldDataManager()  { return worldDataManager;  }
+
+    /**
+     * Accessor method for getting this region's ancestry numbering.
+     * 
+     * @return This region's interval, null if it has never been numbered.
+     */
+    RegionInterval getInterval()            { return interval;          }
+
     /**
      * Accessor method for getting all of this regions subregions
      * in the form of an Iterator.
@@ -143,7 +232,18 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      */
     public Region getSubRegion(String subRegionId)
     {
-        // GO THROUGH ALL THE CHILD REGIONS
+        // FOR REGIONS WITH LOTS OF CHILDREN WE'LL USE THE INDEX
+        if ((subRegionIndex == null) 
+                && (subRegions.size() > SUB_REGION_INDEX_THRESHOLD))
+        {
+            buildSubRegionIndex();
+        }
+        if (subRegionIndex != null)
+        {
+            return subRegionIndex.get(subRegionId);
+        }
+        
+        // OTHERWISE GO THROUGH ALL THE CHILD REGIONS
         Iterator it = subRegions.iterator();
         while (it.hasNext())
         {
@@ -160,6 +260,97 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
         return null;
     }    
     
+    /**
+     * Accessor method for getting this region's sub regions sorted by
+     * name, in the order names are sorted in this region's world.
+     * 
+     * @return A read-only list of the child regions in name order.
+     */
+    public List<Region> getSubRegionsByName()
+    {
+        return getSubRegionsInOrder(getWorldNameOrder());
+    }
+
+    /**
+     * Accessor method for getting this region's sub regions sorted by id.
+     * 
+     * @return A read-only list of the child regions in id order.
+     */
+    public List<Region> getSubRegionsById()
+    {
+        return getSubRegionsInOrder(ID_ORDER);
+    }
+
+    /**
+     * Accessor method for getting this region's sub regions sorted by
+     * order. For NAME_ORDER, ID_ORDER, and the orders from
+     * getCollationOrder the sorted list is kept, so asking again is free
+     * until this region's children, or their data, change. Any other
+     * order is sorted every time it's asked for, since keeping a list for
+     * every Comparator anyone ever made would never let them go. Note
+     * that a list that's been handed out is never changed, so after a
+     * change it no longer reflects this region.
+     * 
+     * @param order The ordering of the regions.
+     * 
+     * @return A read-only list of the child regions sorted by order.
+     */
+    public List<Region> getSubRegionsInOrder(Comparator<Region> order)
+    {
+        boolean keepOrder = (order == NAME_ORDER) || (order == ID_ORDER) || (order instanceof CollationOrder);
+        List<Region> orderedSubRegions = null;
+        if (keepOrder && (subRegionOrders != null))
+        {
+            orderedSubRegions = subRegionOrders.get(order);
+        }
+        if (orderedSubRegions == null)
+        {
+            ArrayList<Region> sortedSubRegions = new ArrayList();
+            Iterator<Region> it = getSubRegions();
+            while (it.hasNext())
+            {
+                sortedSubRegions.add(it.next());
+            }
+            Collections.sort(sortedSubRegions, order);
+            orderedSubRegions = Collections.unmodifiableList(sortedSubRegions);
+            if (keepOrder)
+            {
+                if (subRegionOrders == null)
+                {
+                    subRegionOrders = new HashMap();
+                }
+                subRegionOrders.put(order, orderedSubRegions);
+            }
+        }
+        return orderedSubRegions;
+    }
+    
+    /**
+     * Accessor method for getting the order in which names are sorted in
+     * locale, as opposed to NAME_ORDER, which simply compares chars. Each
+     * region's name is encoded for the locale the first time it's sorted,
+     * so sorting costs about the same as with NAME_ORDER.
+     * 
+     * @param locale The locale whose ordering of names should be used.
+     * 
+     * @return The ordering of regions by name for locale, which can be
+     * used with getSubRegionsInOrder. To have a world keep all its sub
+     * regions in this order, use WorldDataManager.setNameLocale.
+     */
+    public static Comparator<Region> getCollationOrder(Locale locale)
+    {
+        synchronized (collationOrders)
+        {
+            Comparator<Region> order = collationOrders.get(locale);
+            if (order == null)
+            {
+                order = new CollationOrder(Collator.getInstance(locale));
+                collationOrders.put(locale, order);
+            }
+            return order;
+        }
+    }
+
     /**
      * This method tests to see if this region is a leaf region (i.e.
      * has no child regions) or not.
@@ -191,17 +382,70 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      */
     public void setId(String initId)
     {
-        id = initId;
+        WorldDataManager lockedWorld = lockWorld();
+        try
+        {
+            String oldId = id;
+            id = initId;
+            idHash = hashId(initId);
+        
+            // OUR PARENT MAY BE LOOKING US UP BY OUR OLD ID
+            if (parentRegion != null)
+            {
+                parentRegion.updateSubRegionId(this, oldId);
+                parentRegion.subRegionOrders = null;
+            }
+        }
+        finally
+        {
+            unlockWorld(lockedWorld);
+        }
     }
     
     /**
-     * Mutator method for changing this region's textual name.
+     * Mutator method for changing this region's textual name. Since our
+     * parent keeps its sub regions sorted by name, we're moved to our new
+     * place among them, unless our world is in a transaction, in which
+     * case that's done when it's committed.
      * 
      * @param initName Name to be used for this region's display.
      */
     public void setName(String initName)
     {
-        name = initName;
+        WorldDataManager lockedWorld = lockWorld();
+        try
+        {
+            String oldName = name;
+            if (worldDataManager != null)
+            {
+                worldDataManager.regionChanging(this);
+            }
+        
+            // FIND WHERE WE ARE AMONG OUR SIBLINGS WHILE WE STILL HAVE THE
+            // NAME THEY'RE SORTED BY
+            int oldIndex = -1;
+            if ((parentRegion != null) && !isParentSortingPutOff())
+            {
+                oldIndex = parentRegion.findSubRegionIndex(this);
+            }
+            name = initName;
+            collationKeys = null;
+            if (oldIndex >= 0)
+            {
+                parentRegion.moveSubRegion(oldIndex);
+            }
+            forgetSubRegionOrdersOfParent();
+        
+            // OUR WORLD MAY BE FINDING US BY NAME
+            if (worldDataManager != null)
+            {
+                worldDataManager.regionRenamed(this, oldName);
+            }
+        }
+        finally
+        {
+            unlockWorld(lockedWorld);
+        }
     }
 
     /**
@@ -211,7 +455,27 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      */
     public void setCapital(String initCapital)
     {
-        capital = initCapital;
+        WorldDataManager lockedWorld = lockWorld();
+        try
+        {
+            String oldCapital = capital;
+            if (worldDataManager != null)
+            {
+                worldDataManager.regionChanging(this);
+            }
+            capital = initCapital;
+            forgetSubRegionOrdersOfParent();
+        
+            // OUR WORLD MAY BE FINDING US BY CAPITAL
+            if (worldDataManager != null)
+            {
+                worldDataManager.regionCapitalChanged(this, oldCapital);
+            }
+        }
+        finally
+        {
+            unlockWorld(lockedWorld);
+        }
     }
 
     /**
@@ -221,7 +485,27 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      */
     public void setType(RegionType initType)
     {
-        type = initType;
+        WorldDataManager lockedWorld = lockWorld();
+        try
+        {
+            RegionType oldType = type;
+            if (worldDataManager != null)
+            {
+                worldDataManager.regionChanging(this);
+            }
+            type = initType;
+            forgetSubRegionOrdersOfParent();
+        
+            // OUR WORLD KEEPS TRACK OF ITS REGIONS BY TYPE
+            if ((worldDataManager != null) && (oldType != initType))
+            {
+                worldDataManager.regionTypeChanged(this, oldType);
+            }
+        }
+        finally
+        {
+            unlockWorld(lockedWorld);
+        }
     }
 
     /**
@@ -233,7 +517,90 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      */
     public void setParentRegion(Region initParentRegion)
     {
+        WorldDataManager lockedWorld = lockWorld();
+        try
+        {
+            if (worldDataManager != null)
+            {
+                worldDataManager.regionChanging(this);
+            }
+            parentRegion = initParentRegion;
+        }
+        finally
+        {
+            unlockWorld(lockedWorld);
+        }
+    }
+    
+    /**
+     * Private helper method that locks this region's world for writing, if
+     * it's in one, since every change to a world's regions is made while
+     * holding its lock.
+     * 
+     * @return The world that was locked, which must be passed to
+     * unlockWorld, or null if this region isn't in a world.
+     */
+    private WorldDataManager lockWorld()
+    {
+        WorldDataManager lockedWorld = worldDataManager;
+        if (lockedWorld != null)
+        {
+            lockedWorld.lockForWriting();
+        }
+        return lockedWorld;
+    }
+
+    /**
+     * Private helper method that unlocks the world locked by lockWorld.
+     * 
+     * @param lockedWorld The world lockWorld returned, may be null.
+     */
+    private static void unlockWorld(WorldDataManager lockedWorld)
+    {
+        if (lockedWorld != null)
+        {
+            lockedWorld.unlockForWriting();
+        }
+    }
+
+    /**
+     * Mutator method for setting the world this region belongs to, which
+     * is done by the WorldDataManager as regions are added and removed.
+     * 
+     * @param initWorldDataManager The data manager of this region's world.
+     */
+    void setWorldDataManager(WorldDataManager initWorldDataManager)
+    {
+        worldDataManager = initWorldDataManager;
+    }
+
+    /**
+     * Mutator method for setting this region's ancestry numbering, which
+     * is done by its world's RegionIntervalIndex.
+     * 
+     * @param initInterval The numbering record for this region.
+     */
+    void setInterval(RegionInterval initInterval)
+    {
+        interval = initInterval;
+    }
+
+    /**
+     * Puts this region's data back the way it was, which is done when a
+     * transaction on its world is rolled back. Note that, unlike the
+     * public mutators, this doesn't let the world know.
+     */
+    void restore(String initName, String initCapital, RegionType initType,
+                 Region initParentRegion, WorldDataManager initWorldDataManager)
+    {
+        forgetSubRegionOrdersOfParent();
+        name = initName;
+        collationKeys = null;
+        capital = initCapital;
+        type = initType;
         parentRegion = initParentRegion;
+        worldDataManager = initWorldDataManager;
+        forgetSubRegionOrdersOfParent();
     }
     
     // ADDITIONAL SERVICE METHODS
@@ -246,11 +613,87 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      */
     public void addSubRegion(Region subRegionToAdd)
     {
-        // ADD IT TO OUR DATA STRUCTURE
-        subRegions.add(subRegionToAdd);
+        WorldDataManager lockedWorld = lockWorld();
+        try
+        {
+            // DURING A TRANSACTION OUR WORLD SORTS US ONCE WHEN IT'S DONE
+            if (isSortingPutOff())
+            {
+                subRegions.add(subRegionToAdd);
+            }
+            else
+            {
+                // THE LIST IS ALREADY SORTED BY NAME, SO WE ONLY NEED TO
+                // FIND WHERE THE NEW REGION GOES RATHER THAN RE-SORT IT ALL
+                int insertionIndex = findInsertionIndex(subRegionToAdd);
+                subRegions.add(insertionIndex, subRegionToAdd);
+            }
         
-        // AND LET'S KEEP IT SORTED BY NAME
-        Collections.sort(subRegions);
+            // AND KEEP THE INDEX UP TO DATE IF WE HAVE ONE
+            if (subRegionIndex != null)
+            {
+                subRegionIndex.put(subRegionToAdd.id, subRegionToAdd);
+            }
+            subRegionOrders = null;
+        
+            // LET OUR WORLD KNOW
+            if (worldDataManager != null)
+            {
+                worldDataManager.subRegionAdded(this, subRegionToAdd);
+            }
+        }
+        finally
+        {
+            unlockWorld(lockedWorld);
+        }
+    }
+
+    /**
+     * Adds many regions to be child regions of this one at once. Rather
+     * than keeping the list sorted one insert at a time, this appends
+     * them all and then sorts only once, which is what we want when
+     * building a world from a file.
+     * 
+     * @param subRegionsToAdd Regions to be added as sub regions.
+     */
+    public void addSubRegions(Collection<Region> subRegionsToAdd)
+    {
+        WorldDataManager lockedWorld = lockWorld();
+        try
+        {
+            // DURING A TRANSACTION OUR WORLD SORTS US ONCE WHEN IT'S DONE
+            boolean sortLater = isSortingPutOff();
+        
+            // ADD THEM ALL TO OUR DATA STRUCTURE
+            subRegions.ensureCapacity(subRegions.size() + subRegionsToAdd.size());
+            subRegions.addAll(subRegionsToAdd);
+        
+            // AND SORT BY NAME JUST THE ONE TIME
+            if (!sortLater)
+            {
+                Collections.sort(subRegions, getWorldNameOrder());
+            }
+        
+            // AND KEEP THE INDEX UP TO DATE IF WE HAVE ONE
+            if (subRegionIndex != null)
+            {
+                for (Region subRegionToAdd : subRegionsToAdd)
+                {
+                    subRegionIndex.put(subRegionToAdd.id, subRegionToAdd);
+                }
+            }
+            subRegionOrders = null;
+        
+            // LET OUR WORLD KNOW
+            if (worldDataManager != null)
+            {
+                worldDataManager.subRegionsAdded(this, subRegionsToAdd);
+            }
+        }
+        finally
+        {
+            unlockWorld(lockedWorld);
+        }
     }
 
     /*
@@ -259,12 +702,280 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      */
     public void removeSubRegion(Region subRegionToRemove)
     {
-        // TAKE IT OUT OF OUR DATA STRUCTURE
-        subRegions.remove(subRegionToRemove);
+        WorldDataManager lockedWorld = lockWorld();
+        try
+        {
+            if (worldDataManager != null)
+            {
+                worldDataManager.subRegionsChanging(this);
+            }
+        
+            // TAKE IT OUT OF OUR DATA STRUCTURE
+            int index = findSubRegionIndex(subRegionToRemove);
+            if (index >= 0)
+            {
+                subRegions.remove(index);
+            }
+        
+            // AND OUT OF THE INDEX IF WE HAVE ONE
+            if (subRegionIndex != null)
+            {
+                subRegionIndex.remove(subRegionToRemove.id);
+            }
+            subRegionOrders = null;
+        
+            // LET OUR WORLD KNOW
+            if (worldDataManager != null)
+            {
+                worldDataManager.subRegionRemoved(this, subRegionToRemove);
+            }
+        }
+        finally
+        {
+            unlockWorld(lockedWorld);
+        }
     }    
 
     /**
-     * Used for comparing Regions for the purpose of sorting them.
+     * Private helper method that throws away our parent's sorted lists
+     * of its sub regions, since a change to us may change their order.
+     */
+    private void forgetSubRegionOrdersOfParent()
+    {
+        if (parentRegion != null)
+        {
+            parentRegion.subRegionOrders = null;
+        }
+    }
+
+    /**
+     * Private helper method for testing if this region's world is putting
+     * off sorting its sub regions until a transaction is committed, which
+     * also lets the world save them in case it's rolled back.
+     */
+    private boolean isSortingPutOff()
+    {
+        return (worldDataManager != null) && worldDataManager.subRegionsChanging(this);
+    }
+
+    /**
+     * Private helper method for testing if our parent's sub regions won't
+     * be sorted until a transaction is committed. Our parent may have been
+     * removed from our world, in which case our world still saves them, as
+     * a rollback may bring our parent back.
+     */
+    private boolean isParentSortingPutOff()
+    {
+        WorldDataManager parentWorld = (parentRegion.worldDataManager != null) ? parentRegion.worldDataManager : worldDataManager;
+        return (parentWorld != null) && parentWorld.subRegionsChanging(parentRegion);
+    }
+
+    /**
+     * Private helper method that moves the sub region at oldIndex to where
+     * it now belongs by name, which is done when it's renamed.
+     * 
+     * @param oldIndex Where the renamed sub region is in the list.
+     */
+    private void moveSubRegion(int oldIndex)
+    {
+        Region subRegion = subRegions.remove(oldIndex);
+        subRegions.add(findInsertionIndex(subRegion), subRegion);
+    }
+
+    /**
+     * Sorts this region's sub regions by name, which is done for every
+     * parent whose children changed once a transaction is committed, and
+     * for every region when its world's name order changes.
+     */
+    void sortSubRegions()
+    {
+        Collections.sort(subRegions, getWorldNameOrder());
+        subRegionOrders = null;
+    }
+
+    /**
+     * Private helper method for getting the order names are sorted in
+     * for this region's world, which is what our sub regions are kept in.
+     */
+    private Comparator<Region> getWorldNameOrder()
+    {
+        return (worldDataManager == null) ? NAME_ORDER : worldDataManager.getNameOrder();
+    }
+
+    /**
+     * Makes a copy of this region's list of sub regions, as it is now.
+     * 
+     * @return A new list with all of this region's sub regions.
+     */
+    ArrayList<Region> copySubRegions()
+    {
+        return new ArrayList(subRegions);
+    }
+
+    /**
+     * Replaces this region's sub regions with those in a list made by
+     * copySubRegions, which is done when a transaction is rolled back.
+     * Note that, unlike the public methods, this doesn't let the world
+     * know.
+     * 
+     * @param savedSubRegions The sub regions this region should have.
+     */
+    void restoreSubRegions(ArrayList<Region> savedSubRegions)
+    {
+        subRegions = savedSubRegions;
+        subRegionIndex = null;
+        subRegionOrders = null;
+    }
+
+    /**
+     * Gets those of this region's sub regions whose names sort the same
+     * as subRegion's, in the order they're kept in, which takes O(log k)
+     * plus however many there are, as long as they're sorted. Note that
+     * the list is a view, which changes along with our sub regions.
+     *
+     * @param subRegion The sub region whose namesakes are wanted.
+     *
+     * @return The sub regions with the same name, including subRegion.
+     */
+    List<Region> getSubRegionsNamedLike(Region subRegion)
+    {
+        Comparator<Region> nameOrder = getWorldNameOrder();
+        int end = findInsertionIndex(subRegion);
+        int start = end;
+        while ((start > 0) && (nameOrder.compare(subRegions.get(start - 1), subRegion) == 0))
+        {
+            start--;
+        }
+        return subRegions.subList(start, end);
+    }
+
+    /**
+     * Private helper method that builds the id lookup table for all
+     * of this region's current child regions.
+     */
+    private void buildSubRegionIndex()
+    {
+        subRegionIndex = new HashMap(subRegions.size() * 2);
+        for (Region subRegion : subRegions)
+        {
+            subRegionIndex.put(subRegion.id, subRegion);
+        }
+    }
+
+    /**
+     * Called by a child region when its id changes so that we can
+     * keep finding it by its new id.
+     * 
+     * @param subRegion The child region whose id changed.
+     * 
+     * @param oldId The id the child region used to have.
+     */
+    void updateSubRegionId(Region subRegion, String oldId)
+    {
+        if (subRegionIndex != null)
+        {
+            if (subRegionIndex.get(oldId) == subRegion)
+            {
+                subRegionIndex.remove(oldId);
+            }
+            subRegionIndex.put(subRegion.id, subRegion);
+        }
+    }
+
+    /**
+     * Private helper method that uses a binary search to find where
+     * regionToInsert belongs in our sorted list of sub regions. Note
+     * that regions with the same name as an existing one go after it,
+     * just as they would with a stable sort.
+     * 
+     * @param regionToInsert The region we're looking to place.
+     * 
+     * @return The index in the sub regions list at which to insert it.
+     */
+    private int findInsertionIndex(Region regionToInsert)
+    {
+        Comparator<Region> nameOrder = getWorldNameOrder();
+        int low = 0;
+        int high = subRegions.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (nameOrder.compare(subRegions.get(mid), regionToInsert) <= 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Private helper method that finds where subRegion is in our list of
+     * sub regions, using a binary search since the list is sorted by name.
+     * If it's not where its name says it should be, which happens while
+     * sorting is put off during a transaction, we look through them all.
+     * 
+     * @param subRegion The sub region we're looking for.
+     * 
+     * @return Its index in the sub regions list, -1 if it isn't there.
+     */
+    private int findSubRegionIndex(Region subRegion)
+    {
+        // THE LAST REGION WITH THE SAME NAME IS JUST BEFORE WHERE IT
+        // WOULD BE INSERTED, SO CHECK BACK FROM THERE
+        Comparator<Region> nameOrder = getWorldNameOrder();
+        int index = findInsertionIndex(subRegion) - 1;
+        while ((index >= 0) && (nameOrder.compare(subRegions.get(index), subRegion) == 0))
+        {
+            if (subRegions.get(index) == subRegion)
+            {
+                return index;
+            }
+            index--;
+        }
+        return subRegions.indexOf(subRegion);
+    }
+
+    /**
+     * Private helper method for getting this region's name as encoded by
+     * collator, which is only done if no key for collator is kept. A key
+     * is only good for the name it was made from, so one made for our old
+     * name by another thread while we were being renamed is never used.
+     */
+    private CollationKey getCollationKey(Collator collator)
+    {
+        String currentName = getName();
+        CachedCollationKey[] cachedKeys = collationKeys;
+        int numCachedKeys = (cachedKeys == null) ? 0 : cachedKeys.length;
+        for (int i = 0; i < numCachedKeys; i++)
+        {
+            if ((cachedKeys[i].collator == collator) && (cachedKeys[i].name == currentName))
+            {
+                return cachedKeys[i].key;
+            }
+        }
+        
+        // THE NEW KEY GOES FIRST, AND IF WE'RE ALREADY KEEPING AS MANY
+        // AS WE CAN THE ONE USED LEAST RECENTLY IS DROPPED
+        CachedCollationKey newKey = new CachedCollationKey(collator, currentName, collator.getCollationKey(currentName));
+        int numKeysToKeep = Math.min(numCachedKeys, MAX_COLLATION_KEYS - 1);
+        CachedCollationKey[] newKeys = new CachedCollationKey[numKeysToKeep + 1];
+        newKeys[0] = newKey;
+        for (int i = 0; i < numKeysToKeep; i++)
+        {
+            newKeys[i + 1] = cachedKeys[i];
+        }
+        collationKeys = newKeys;
+        return newKey.key;
+    }
+
+    /**
+     * Used for comparing Regions for the purpose of sorting them, by name
+     * in the order names are sorted in this region's world. That's char
+     * order unless the world has a name locale.
      * 
      * @param region The Region to be compared to this one.
      * 
@@ -274,7 +985,7 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
     @Override
     public int compareTo(Region<T> region)
     {
-        return name.compareTo(region.name);
+        return getWorldNameOrder().compare(this, region);
     }
 
     /**
@@ -286,16 +997,37 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
      * 
      * @return true if they have the same id, false otherwise.
      */
+    @Override
     public boolean equals(Object regionAsObject)
     {
         if (regionAsObject instanceof Region)
         {
             Region region = (Region)regionAsObject;
-            return id.equals(region.id);
+            return getId().equals(region.getId());
         }
         return false;
     }
 
+    /**
+     * Generates a hash code for this region that is consistent with
+     * equals, meaning it is based only on the region's id.
+     * 
+     * @return The hash code of this region's id.
+     */
+    @Override
+    public int hashCode()
+    {
+        return idHash;
+    }
+
+    /**
+     * Private helper method for hashing an id, which may be null.
+     */
+    private static int hashId(String idToHash)
+    {
+        return (idToHash == null) ? 0 : idToHash.hashCode();
+    }
+
     /**
      * Generates a textual representation of this region.
      * 
@@ -305,6 +1037,49 @@ public class Region<T extends Comparable<T>> implements Comparable<Region<T>>
    @Override
     public String toString()
     {
-        return name;
+        return getName();
+    }
+
+    /**
+     * A CollationOrder sorts regions by name the way a Collator says to,
+     * comparing the keys the regions keep rather than the names.
+     */
+    private static class CollationOrder implements Comparator<Region>
+    {
+        // THE Collator FOR THE LOCALE
+        private Collator collator;
+
+        /**
+         * Constructor for sorting by initCollator.
+         */
+        CollationOrder(Collator initCollator)
+        {
+            collator = initCollator;
+        }
+
+        @Override
+        public int compare(Region region1, Region region2)
+        {
+            return region1.getCollationKey(collator).compareTo(region2.getCollationKey(collator));
+        }
+    }
+
+    /**
+     * A CachedCollationKey is a region's encoded name along with the
+     * Collator that encoded it and the name it was made from. It's never
+     * changed, so it can be shared safely between threads.
+     */
+    private static class CachedCollationKey
+    {
+        final Collator collator;
+        final String name;
+        final CollationKey key;
+
+        CachedCollationKey(Collator initCollator, String initName, CollationKey initKey)
+        {
+            collator = initCollator;
+            name = initName;
+            key = initKey;
+        }
     }
 }
\ No newline at end of file
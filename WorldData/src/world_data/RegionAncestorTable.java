@@ -0,0 +1,194 @@
+package world_data;
+
+import java.util.ArrayList;
+
+/**
+ * This index answers lowest common ancestor and distance questions using
+ * binary lifting. Each numbered region gets a table of its ancestors 1, 2,
+ * 4, 8, ... steps up, so we can climb any number of steps, or find where
+ * two paths to the root meet, in O(log depth) jumps.
+ * 
+ * The tables are built lazily from the parent's table as regions are
+ * queried, which means a newly added leaf costs nothing until it's used.
+ * They belong to the RegionIntervalIndex numbering, so whenever the world
+ * gets renumbered, say after a subtree is hooked up somewhere, all the
+ * tables are thrown out and rebuilt as needed.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class RegionAncestorTable
+{
+    // THIS PROVIDES THE DEPTHS AND THE NUMBERING OUR TABLES BELONG TO
+    private RegionIntervalIndex intervalIndex;
+
+    /**
+     * Constructor for a table that works alongside initIntervalIndex.
+     * 
+     * @param initIntervalIndex The interval index of the same world.
+     */
+    RegionAncestorTable(RegionIntervalIndex initIntervalIndex)
+    {
+        intervalIndex = initIntervalIndex;
+    }
+
+    /**
+     * Finds the deepest region that is an ancestor of both region1 and
+     * region2, where a region counts as its own ancestor.
+     * 
+     * @return The lowest common ancestor, null if they're in different trees.
+     */
+    Region lowestCommonAncestor(Region region1, Region region2)
+    {
+        int depth1 = intervalIndex.getDepth(region1);
+        int depth2 = intervalIndex.getDepth(region2);
+        
+        // FIRST BRING THE DEEPER ONE UP TO THE SAME LEVEL
+        if (depth1 > depth2)
+        {
+            region1 = climb(region1, depth1 - depth2);
+        }
+        else
+        {
+            region2 = climb(region2, depth2 - depth1);
+        }
+        if (region1 == region2)
+        {
+            return region1;
+        }
+        
+        // THEN TAKE THE BIGGEST JUMPS THAT DON'T MEET, SO
+        // THAT WE END UP JUST BELOW THE COMMON ANCESTOR
+        Region[] ancestors1 = getAncestors(region1);
+        Region[] ancestors2 = getAncestors(region2);
+        if ((ancestors1 == null) || (ancestors2 == null))
+        {
+            return climbTogether(region1, region2);
+        }
+        for (int k = ancestors1.length - 1; k >= 0; k--)
+        {
+            if ((k < ancestors1.length) && (ancestors1[k] != ancestors2[k]))
+            {
+                region1 = ancestors1[k];
+                region2 = ancestors2[k];
+                ancestors1 = getAncestors(region1);
+                ancestors2 = getAncestors(region2);
+            }
+        }
+        Region parent1 = region1.getParentRegion();
+        return (parent1 == region2.getParentRegion()) ? parent1 : null;
+    }
+
+    /**
+     * Gets the number of parent-child links on the path between region1
+     * and region2.
+     * 
+     * @return The distance between them, -1 if they're in different trees.
+     */
+    int treeDistance(Region region1, Region region2)
+    {
+        Region commonAncestor = lowestCommonAncestor(region1, region2);
+        if (commonAncestor == null)
+        {
+            return -1;
+        }
+        return intervalIndex.getDepth(region1) + intervalIndex.getDepth(region2)
+                - (2 * intervalIndex.getDepth(commonAncestor));
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Gets the region steps levels above region, using its jump table
+     * when it has one.
+     */
+    private Region climb(Region region, int steps)
+    {
+        while ((steps > 0) && (region != null))
+        {
+            Region[] ancestors = getAncestors(region);
+            if (ancestors == null)
+            {
+                // NOT NUMBERED, SO ONE STEP AT A TIME
+                region = region.getParentRegion();
+                steps--;
+            }
+            else
+            {
+                // TAKE THE BIGGEST JUMP THAT DOESN'T GO TOO FAR
+                int k = 31 - Integer.numberOfLeadingZeros(steps);
+                region = ancestors[k];
+                steps -= (1 << k);
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Walks two regions at the same depth up one step at a time until
+     * they meet, for when they don't have jump tables.
+     */
+    private Region climbTogether(Region region1, Region region2)
+    {
+        while ((region1 != null) && (region1 != region2))
+        {
+            region1 = region1.getParentRegion();
+            region2 = region2.getParentRegion();
+        }
+        return region1;
+    }
+
+    /**
+     * Gets region's jump table, building it and any missing tables of its
+     * ancestors first.
+     * 
+     * @return The jump table, null if region isn't numbered.
+     */
+    private Region[] getAncestors(Region region)
+    {
+        RegionInterval interval = intervalIndex.getCurrentInterval(region);
+        if (interval == null)
+        {
+            return null;
+        }
+        int version = intervalIndex.getVersion();
+        if (interval.ancestorsVersion == version)
+        {
+            return interval.ancestors;
+        }
+        
+        // FIND ALL THE REGIONS ON THE WAY UP THAT NEED TABLES
+        ArrayList<Region> regionsToBuild = new ArrayList();
+        Region walker = region;
+        RegionInterval walkerInterval = interval;
+        while ((walkerInterval != null) && (walkerInterval.ancestorsVersion != version))
+        {
+            regionsToBuild.add(walker);
+            walker = walker.getParentRegion();
+            walkerInterval = (walker == null) ? null : intervalIndex.getCurrentInterval(walker);
+        }
+        
+        // AND BUILD THEM TOP DOWN, SINCE EACH NEEDS ITS ANCESTORS' TABLES
+        for (int i = regionsToBuild.size() - 1; i >= 0; i--)
+        {
+            Region regionToBuild = regionsToBuild.get(i);
+            RegionInterval intervalToBuild = intervalIndex.getCurrentInterval(regionToBuild);
+            int depth = intervalToBuild.depth;
+            int numJumps = 32 - Integer.numberOfLeadingZeros(depth);
+            Region[] ancestors = new Region[numJumps];
+            if (numJumps > 0)
+            {
+                ancestors[0] = regionToBuild.getParentRegion();
+                for (int k = 1; k < numJumps; k++)
+                {
+                    // 2^k UP IS 2^(k-1) UP FROM 2^(k-1) UP
+                    ancestors[k] = intervalIndex.getCurrentInterval(ancestors[k - 1]).ancestors[k - 1];
+                }
+            }
+            intervalToBuild.ancestors = ancestors;
+            intervalToBuild.ancestorsVersion = version;
+        }
+        return interval.ancestors;
+    }
+}
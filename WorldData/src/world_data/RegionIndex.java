@@ -0,0 +1,75 @@
+package world_data;
+
+import java.util.Collection;
+
+/**
+ * This interface provides the requirements for the primary index that a
+ * WorldDataManager uses to store one of each region by its unique id. It
+ * lets the data manager's storage be swapped out, for example a hash table
+ * for fast lookups in very large worlds, or a sorted tree.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public interface RegionIndex
+{
+    /**
+     * Accessor method for getting the region with the regionId key.
+     * 
+     * @param regionId The unique id of the Region to retrieve.
+     * 
+     * @return The Region that corresponds to regionId, null if there isn't one.
+     */
+    public Region get(String regionId);
+
+    /**
+     * Tests to see if there is a region in this index with regionId as its key.
+     * 
+     * @param regionId The unique id to test for.
+     * 
+     * @return true if a region is stored under regionId, false otherwise.
+     */
+    public boolean containsKey(String regionId);
+
+    /**
+     * Stores region in this index under the regionId key, replacing
+     * whatever region was stored there before.
+     * 
+     * @param regionId The unique id to store the region under.
+     * 
+     * @param region The Region to store.
+     * 
+     * @return The Region previously stored under regionId, null if there wasn't one.
+     */
+    public Region put(String regionId, Region region);
+
+    /**
+     * Removes the region stored under the regionId key.
+     * 
+     * @param regionId The unique id of the Region to remove.
+     * 
+     * @return The Region that was removed, null if there wasn't one.
+     */
+    public Region remove(String regionId);
+
+    /**
+     * Removes all of the regions from this index.
+     */
+    public void clear();
+
+    /**
+     * Accessor method for getting the number of regions in this index.
+     * 
+     * @return The number of regions currently stored.
+     */
+    public int size();
+
+    /**
+     * Accessor method for getting all the regions in this index. Note
+     * that the regions must be provided in order sorted by id.
+     * 
+     * @return A Collection of all the regions in this index, ordered by id.
+     */
+    public Collection<Region> values();
+}
@@ -0,0 +1,40 @@
+package world_data;
+
+/**
+ * This is the numbering a RegionIntervalIndex gives a single region. All
+ * of a region's descendants are numbered inside its [start, end] interval,
+ * so containment of intervals is the same as ancestry. It also holds the
+ * region's binary lifting table for the RegionAncestorTable. Note that
+ * this is just a package-level record for the indexes to fill in.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class RegionInterval
+{
+    // NO NUMBERING EVER HAS THIS VERSION
+    static final int NO_VERSION = -1;
+
+    // THE RANGE OF NUMBERS BELONGING TO THE REGION AND ITS DESCENDANTS
+    long start;
+    long end;
+    
+    // THE FIRST NUMBER IN THE RANGE NOT YET GIVEN TO A CHILD
+    long nextFree;
+    
+    // HOW FAR BELOW THE ROOT THE REGION IS
+    int depth;
+    
+    // HOW MANY REGIONS ARE IN ITS SUBTREE, INCLUDING ITSELF
+    int subtreeSize;
+    
+    // THE NUMBERING THIS CAME FROM, SO OLD NUMBERS ARE NEVER TRUSTED
+    int version;
+    
+    // ancestors[k] IS THE REGION 2^k STEPS ABOVE THIS ONE
+    Region[] ancestors;
+    
+    // THE NUMBERING THE ancestors TABLE WAS BUILT UNDER
+    int ancestorsVersion = NO_VERSION;
+}
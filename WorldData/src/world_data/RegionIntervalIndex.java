@@ -0,0 +1,349 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * This index numbers every region of a world in pre-order such that each
+ * region owns an interval of numbers containing the intervals of all its
+ * descendants. That lets us answer "is X inside Y" by comparing numbers,
+ * and we also keep each region's depth and subtree size, so all three
+ * queries are O(1).
+ * 
+ * Intervals are spaced out with gaps, so a new leaf region can usually be
+ * numbered inside its parent's leftover space without touching any other
+ * region. Anything bigger, like hooking up a whole subtree, or running
+ * out of gap, simply marks the index as stale, and it is renumbered in
+ * one O(n) pass the next time it's queried. Regions that aren't numbered,
+ * like those not yet hooked up to the world, are answered by walking up
+ * their parent links instead.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class RegionIntervalIndex
+{
+    // EACH REGION GETS THIS MANY NUMBERS WHEN THE WORLD IS RENUMBERED
+    public static final long NUMBERS_PER_REGION = 1L << 16;
+    
+    // A NEW LEAF GETS THIS FRACTION (AS A SHIFT) OF ITS PARENT'S FREE NUMBERS
+    private static final int NEW_LEAF_SHIFT = 4;
+    
+    // THE SMALLEST INTERVAL A NEW LEAF CAN HAVE
+    private static final long MIN_LEAF_NUMBERS = 2;
+    
+    // THE WORLD WE'RE NUMBERING
+    private WorldDataManager worldDataManager;
+    
+    // false WHEN THE NUMBERING HAS TO BE REDONE BEFORE IT CAN BE USED
+    private boolean valid;
+    
+    // THE CURRENT NUMBERING, ANY REGION WITH A DIFFERENT ONE IS NOT NUMBERED
+    private int version;
+
+    /**
+     * Constructor for an index of the initWorldDataManager world. Note
+     * that no numbering is done until the first query.
+     * 
+     * @param initWorldDataManager The world whose regions we'll number.
+     */
+    RegionIntervalIndex(WorldDataManager initWorldDataManager)
+    {
+        worldDataManager = initWorldDataManager;
+        valid = false;
+        version = 0;
+    }
+
+    // QUERY METHODS
+
+    /**
+     * Tests to see if ancestor contains descendant. Note that a region
+     * counts as its own ancestor.
+     */
+    boolean isAncestor(Region ancestor, Region descendant)
+    {
+        ensureValid();
+        RegionInterval ancestorInterval = getInterval(ancestor);
+        RegionInterval descendantInterval = getInterval(descendant);
+        if ((ancestorInterval != null) && (descendantInterval != null))
+        {
+            return (ancestorInterval.start <= descendantInterval.start)
+                    && (descendantInterval.start <= ancestorInterval.end);
+        }
+        
+        // NOT BOTH NUMBERED, SO WALK UP THE SLOW WAY
+        Region walker = descendant;
+        while (walker != null)
+        {
+            if (walker == ancestor)
+            {
+                return true;
+            }
+            walker = walker.getParentRegion();
+        }
+        return false;
+    }
+
+    /**
+     * Gets how far below the root region is, 0 for the root.
+     */
+    int getDepth(Region region)
+    {
+        ensureValid();
+        RegionInterval interval = getInterval(region);
+        if (interval != null)
+        {
+            return interval.depth;
+        }
+        int depth = 0;
+        Region walker = region.getParentRegion();
+        while (walker != null)
+        {
+            depth++;
+            walker = walker.getParentRegion();
+        }
+        return depth;
+    }
+
+    /**
+     * Gets the number of regions in region's subtree, including itself.
+     */
+    int getSubtreeSize(Region region)
+    {
+        ensureValid();
+        RegionInterval interval = getInterval(region);
+        if (interval != null)
+        {
+            return interval.subtreeSize;
+        }
+        int subtreeSize = 0;
+        ArrayList<Region> regionsToCount = new ArrayList();
+        regionsToCount.add(region);
+        while (!regionsToCount.isEmpty())
+        {
+            Region regionToCount = regionsToCount.remove(regionsToCount.size() - 1);
+            subtreeSize++;
+            Iterator<Region> it = regionToCount.getSubRegions();
+            while (it.hasNext())
+            {
+                regionsToCount.add(it.next());
+            }
+        }
+        return subtreeSize;
+    }
+
+    /**
+     * Gets region's interval in the current numbering, renumbering first
+     * if need be.
+     * 
+     * @return The region's interval, null if it isn't numbered.
+     */
+    RegionInterval getCurrentInterval(Region region)
+    {
+        ensureValid();
+        return getInterval(region);
+    }
+
+    /**
+     * Gets the current numbering, which changes every time the whole
+     * world is renumbered.
+     */
+    int getVersion()
+    {
+        return version;
+    }
+
+    // UPDATE METHODS, WHICH THE WorldDataManager CALLS AS THE WORLD CHANGES
+
+    /**
+     * Forces a complete renumbering the next time the index is used.
+     */
+    void invalidate()
+    {
+        valid = false;
+    }
+
+    /**
+     * Numbers subRegion, which was just added to parent. Only new leaf
+     * regions can be numbered in place, anything else means renumbering.
+     */
+    void subRegionAdded(Region parent, Region subRegion)
+    {
+        if (!valid)
+        {
+            return;
+        }
+        RegionInterval parentInterval = getInterval(parent);
+        long freeNumbers = (parentInterval == null) ? 0 : parentInterval.end - parentInterval.nextFree + 1;
+        if (subRegion.hasSubRegions() || (freeNumbers < MIN_LEAF_NUMBERS))
+        {
+            valid = false;
+            return;
+        }
+        
+        // CARVE THE NEW LEAF'S INTERVAL OUT OF THE PARENT'S FREE SPACE
+        long leafNumbers = Math.max(MIN_LEAF_NUMBERS, freeNumbers >> NEW_LEAF_SHIFT);
+        RegionInterval interval = makeInterval(subRegion);
+        interval.start = parentInterval.nextFree;
+        interval.end = interval.start + leafNumbers - 1;
+        interval.nextFree = interval.start + 1;
+        interval.depth = parentInterval.depth + 1;
+        interval.subtreeSize = 1;
+        parentInterval.nextFree = interval.end + 1;
+        
+        // AND ALL THE ANCESTORS NOW HAVE ONE MORE DESCENDANT
+        Region ancestor = parent;
+        while (ancestor != null)
+        {
+            getInterval(ancestor).subtreeSize++;
+            ancestor = ancestor.getParentRegion();
+        }
+    }
+
+    /**
+     * Accounts for subRegion having been taken away from parent. Since the
+     * remaining intervals are all still nested properly this only needs
+     * fixing of the subtree sizes, unless a whole subtree was removed, in
+     * which case we renumber so its regions don't keep stale numbers.
+     */
+    void subRegionRemoved(Region parent, Region subRegion)
+    {
+        if (!valid)
+        {
+            return;
+        }
+        RegionInterval interval = getInterval(subRegion);
+        if ((interval == null) || (getInterval(parent) == null) || subRegion.hasSubRegions())
+        {
+            valid = false;
+            return;
+        }
+        detach(interval);
+        Region ancestor = parent;
+        while (ancestor != null)
+        {
+            getInterval(ancestor).subtreeSize--;
+            ancestor = ancestor.getParentRegion();
+        }
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Gets region's interval if it has a current one, null otherwise.
+     */
+    private RegionInterval getInterval(Region region)
+    {
+        RegionInterval interval = region.getInterval();
+        return ((interval != null) && (interval.version == version)) ? interval : null;
+    }
+
+    /**
+     * Gets region's interval record, making one if it doesn't have one,
+     * and marks it as part of the current numbering. A reused record may
+     * have a jump table built for where the region used to be, say if it
+     * was removed and added back under another parent, so that's dropped.
+     */
+    private RegionInterval makeInterval(Region region)
+    {
+        RegionInterval interval = region.getInterval();
+        if (interval == null)
+        {
+            interval = new RegionInterval();
+            region.setInterval(interval);
+        }
+        interval.version = version;
+        interval.ancestors = null;
+        interval.ancestorsVersion = RegionInterval.NO_VERSION;
+        return interval;
+    }
+
+    /**
+     * Takes interval out of the current numbering, along with its jump
+     * table, so neither is trusted again.
+     */
+    private void detach(RegionInterval interval)
+    {
+        interval.version = RegionInterval.NO_VERSION;
+        interval.ancestors = null;
+        interval.ancestorsVersion = RegionInterval.NO_VERSION;
+    }
+
+    /**
+     * Renumbers the whole world if anything has made the numbering stale.
+     */
+    private void ensureValid()
+    {
+        if (!valid)
+        {
+            renumber();
+            valid = true;
+        }
+    }
+
+    /**
+     * Numbers every region in the world in two passes without recursion,
+     * first finding subtree sizes bottom up and then handing out intervals
+     * top down, each sized in proportion to its subtree.
+     */
+    private void renumber()
+    {
+        version++;
+        Region root = worldDataManager.getWorld();
+        if (root == null)
+        {
+            return;
+        }
+        
+        // FIRST PUT ALL THE REGIONS IN PRE-ORDER, ALONG WITH THE PARENT
+        // WE REACHED EACH ONE THROUGH
+        ArrayList<Region> preOrder = new ArrayList();
+        ArrayList<RegionInterval> parentIntervals = new ArrayList();
+        ArrayList<Region> regionsToVisit = new ArrayList();
+        ArrayList<RegionInterval> parentsToVisit = new ArrayList();
+        regionsToVisit.add(root);
+        parentsToVisit.add(null);
+        while (!regionsToVisit.isEmpty())
+        {
+            Region region = regionsToVisit.remove(regionsToVisit.size() - 1);
+            RegionInterval parentInterval = parentsToVisit.remove(parentsToVisit.size() - 1);
+            preOrder.add(region);
+            parentIntervals.add(parentInterval);
+            RegionInterval interval = makeInterval(region);
+            interval.subtreeSize = 1;
+            interval.depth = (parentInterval == null) ? 0 : parentInterval.depth + 1;
+            Iterator<Region> it = region.getSubRegions();
+            while (it.hasNext())
+            {
+                regionsToVisit.add(it.next());
+                parentsToVisit.add(interval);
+            }
+        }
+        
+        // GOING BACKWARDS, EVERY REGION COMES AFTER ALL ITS DESCENDANTS
+        for (int i = preOrder.size() - 1; i > 0; i--)
+        {
+            parentIntervals.get(i).subtreeSize += getInterval(preOrder.get(i)).subtreeSize;
+        }
+        
+        // AND NOW HAND OUT THE NUMBERS, PARENTS BEFORE CHILDREN, WITH
+        // EACH CHILD TAKING THE NEXT FREE NUMBERS OF ITS PARENT
+        for (int i = 0; i < preOrder.size(); i++)
+        {
+            RegionInterval interval = getInterval(preOrder.get(i));
+            RegionInterval parentInterval = parentIntervals.get(i);
+            if (parentInterval == null)
+            {
+                interval.start = 0;
+            }
+            else
+            {
+                interval.start = parentInterval.nextFree;
+                parentInterval.nextFree += interval.subtreeSize * NUMBERS_PER_REGION;
+            }
+            interval.end = interval.start + (interval.subtreeSize * NUMBERS_PER_REGION) - 1;
+            interval.nextFree = interval.start + 1;
+        }
+    }
+}
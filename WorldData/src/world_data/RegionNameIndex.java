@@ -0,0 +1,701 @@
+package world_data;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * This is a secondary index for finding regions by the first few letters
+ * of their names or capitals, as a user would type them. All names and
+ * capitals are normalized, meaning lower-cased with their accents taken
+ * off, and kept in sorted order, so all the texts that start with some
+ * prefix sit next to each other and the first k of them can be found in
+ * O(log n + k). The WorldDataManager keeps it up to date as regions come
+ * and go and have their names and capitals changed.
+ * 
+ * The same sorted texts are used for finding misspelled names. Walking
+ * through them in order is like walking down a trie, so the edit distance
+ * table for each text can start from the rows already worked out for the
+ * prefix it shares with the text before it. As soon as every number in a
+ * row is too big, no text starting with that prefix can match, and the
+ * walk jumps straight past all of them, which is what a Levenshtein
+ * automaton would do. So that jump is cheap, the first search by spelling
+ * packs the texts into arrays, along with how much each shares with the
+ * one before it and where the texts under each prefix end, which makes
+ * them a trie that can be walked without any searching. Texts added later
+ * are packed on their own and walked as well, texts removed later are
+ * passed over, and once enough have changed all of them are packed again.
+ * The closer the matches being looked for, the sooner the walk skips, so
+ * texts one edit away are only looked for if there aren't enough exact
+ * matches, and so on.
+ * 
+ * Texts are sorted by char once they've been normalized, since that keeps
+ * all the ones that start the same next to each other. The regions that
+ * share a text, like "Cote" and "Côte", are kept in the world's name order,
+ * so that's the order they're found in.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class RegionNameIndex
+{
+    // THIS MATCHES THE ACCENT MARKS LEFT OVER AFTER DECOMPOSING TEXT
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    
+    // AFTER ALL THE TEXTS THAT START WITH A PREFIX COMES prefix + THIS
+    private static final char MAX_CHAR = '\uffff';
+    
+    // EACH NORMALIZED NAME OR CAPITAL AND THE REGIONS THAT HAVE IT
+    private TreeMap<String, ArrayList<Region>> regionsByText;
+    
+    // THE ORDER THE REGIONS THAT SHARE A TEXT ARE KEPT IN
+    private Comparator<Region> nameOrder;
+    
+    // ONCE THIS MANY TEXTS, OR A SIXTEENTH OF THEM, HAVE CHANGED SINCE
+    // THEY WERE PACKED THEY'RE ALL PACKED AGAIN
+    private static final int MAX_CHANGED_TEXTS = 4096;
+    
+    // ALL THE TEXTS AS THEY WERE WHEN FIRST SEARCHED BY SPELLING, OR
+    // null IF THEY HAVEN'T BEEN PACKED SINCE THEY LAST CHANGED A LOT
+    private volatile PackedTexts packedTexts;
+    
+    // THE TEXTS ADDED SINCE THEN, AND THOSE PACKED IF THEY'VE BEEN SEARCHED
+    private TreeSet<String> newTexts;
+    private volatile PackedTexts packedNewTexts;
+    
+    // HOW MANY OF THE PACKED TEXTS NO REGION HAS ANY MORE
+    private int numRemovedTexts;
+
+    /**
+     * Constructor for making an index of all the regions provided.
+     * 
+     * @param regions The regions to index.
+     * 
+     * @param initNameOrder The order to keep regions with the same
+     * text in, which should be their world's name order.
+     */
+    RegionNameIndex(Collection<Region> regions, Comparator<Region> initNameOrder)
+    {
+        regionsByText = new TreeMap();
+        nameOrder = initNameOrder;
+        newTexts = new TreeSet();
+        for (Region region : regions)
+        {
+            add(region);
+        }
+    }
+
+    /**
+     * Puts text in the form it's indexed by, so that "cote" finds
+     * "Côte d'Ivoire".
+     * 
+     * @param text The text to normalize.
+     * 
+     * @return The lower-cased text without accents.
+     */
+    static String normalize(String text)
+    {
+        // MOST NAMES ARE PLAIN ASCII, WHICH ONLY NEED LOWER-CASING
+        if (isAscii(text))
+        {
+            return text.toLowerCase(Locale.ROOT);
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return ACCENTS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Finds the regions whose names or capitals start with prefix. Each
+     * region is listed once, in the order of whichever of its texts is
+     * first alphabetically.
+     * 
+     * @param prefix The first few letters of a name or capital, which
+     * will be normalized before looking.
+     * 
+     * @param maxMatches The most regions to find.
+     * 
+     * @return The matching regions, at most maxMatches of them, with
+     * those found under the same text in the world's name order.
+     */
+    List<Region> findRegions(String prefix, int maxMatches)
+    {
+        ArrayList<Region> matches = new ArrayList();
+        if (maxMatches <= 0)
+        {
+            return matches;
+        }
+        String normalizedPrefix = normalize(prefix);
+        SortedMap<String, ArrayList<Region>> texts =
+                regionsByText.subMap(normalizedPrefix, normalizedPrefix + MAX_CHAR);
+        
+        // A REGION CAN MATCH BY BOTH NAME AND CAPITAL, SO AVOID REPEATS
+        IdentityHashMap<Region, Boolean> found = new IdentityHashMap();
+        Iterator<Map.Entry<String, ArrayList<Region>>> it = texts.entrySet().iterator();
+        while (it.hasNext() && (matches.size() < maxMatches))
+        {
+            ArrayList<Region> regions = it.next().getValue();
+            for (int i = 0; (i < regions.size()) && (matches.size() < maxMatches); i++)
+            {
+                Region region = regions.get(i);
+                if (found.put(region, Boolean.TRUE) == null)
+                {
+                    matches.add(region);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Finds the regions whose names or capitals are within maxDistance
+     * edits of text, ignoring case and accents, where an edit is a single
+     * character inserted, deleted, or replaced. Each region is listed
+     * once, under whichever of its texts is closest.
+     * 
+     * @param text The possibly misspelled name or capital.
+     * 
+     * @param maxDistance The most edits a match may be away.
+     * 
+     * @param maxMatches The most regions to find.
+     * 
+     * @return The matching regions, closest first and then in alphabetical
+     * order of the text that matched, at most maxMatches of them.
+     */
+    List<Region> findRegionsBySpelling(String text, int maxDistance, int maxMatches)
+    {
+        ArrayList<Region> matches = new ArrayList();
+        if ((maxMatches <= 0) || (maxDistance < 0))
+        {
+            return matches;
+        }
+        char[] target = normalize(text).toCharArray();
+        
+        // ROW i OF THE TABLE IS FOR THE FIRST i CHARACTERS OF THE CURRENT
+        // TEXT, AND ROW 0 IS ALWAYS THE SAME
+        int[][] rows = new int[target.length + maxDistance + 1][];
+        rows[0] = new int[target.length + 1];
+        for (int j = 0; j <= target.length; j++)
+        {
+            rows[0][j] = j;
+        }
+        PackedTexts allTexts = getPackedTexts();
+        PackedTexts addedTexts = getPackedNewTexts();
+        
+        // EACH DISTANCE IS LOOKED FOR ON ITS OWN, CLOSEST FIRST, SINCE THE
+        // CLOSER THE MATCHES THE LESS OF THE TRIE HAS TO BE WALKED TO FIND
+        // THEM, AND THERE ARE OFTEN ENOUGH OF THEM
+        IdentityHashMap<Region, Boolean> found = new IdentityHashMap();
+        for (int distance = 0; (distance <= maxDistance) && (matches.size() < maxMatches); distance++)
+        {
+            ArrayList<String> closeTexts = new ArrayList();
+            findTexts(allTexts, target, distance, rows, closeTexts);
+            if (addedTexts != null)
+            {
+                // THE NEW ONES HAVE TO BE PUT IN AMONG THE OTHERS
+                findTexts(addedTexts, target, distance, rows, closeTexts);
+                Collections.sort(closeTexts);
+            }
+            
+            // NOW LIST THEIR REGIONS, AVOIDING REPEATS
+            for (int j = 0; (j < closeTexts.size()) && (matches.size() < maxMatches); j++)
+            {
+                // A TEXT THAT'S GONE SINCE IT WAS PACKED HAS NO REGIONS
+                ArrayList<Region> regions = regionsByText.get(closeTexts.get(j));
+                if (regions == null)
+                {
+                    continue;
+                }
+                for (int i = 0; (i < regions.size()) && (matches.size() < maxMatches); i++)
+                {
+                    Region region = regions.get(i);
+                    if (found.put(region, Boolean.TRUE) == null)
+                    {
+                        matches.add(region);
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    // MUTATOR METHODS
+
+    /**
+     * Adds region under its name and capital.
+     * 
+     * @param region The region to add.
+     */
+    void add(Region region)
+    {
+        addText(region, region.getName());
+        if (region.hasCapital())
+        {
+            addText(region, region.getCapital());
+        }
+    }
+
+    /**
+     * Removes region from under its name and capital.
+     * 
+     * @param region The region to remove.
+     */
+    void remove(Region region)
+    {
+        removeText(region, region.getName());
+        if (region.hasCapital())
+        {
+            removeText(region, region.getCapital());
+        }
+    }
+
+    /**
+     * Moves region from under its old name to under its new one, after
+     * it's been renamed. It's moved under its capital too, since the
+     * regions there are in order by name.
+     * 
+     * @param region The region that was renamed.
+     * 
+     * @param oldName The name it used to have.
+     */
+    void regionRenamed(Region region, String oldName)
+    {
+        removeText(region, oldName);
+        removeText(region, region.getCapital());
+        add(region);
+    }
+
+    /**
+     * Moves region from under oldText to under newText, after its name
+     * or capital has been changed.
+     * 
+     * @param region The region that changed.
+     * 
+     * @param oldText The name or capital it used to have, may be null.
+     * 
+     * @param newText The name or capital it has now, may be null.
+     */
+    void textChanged(Region region, String oldText, String newText)
+    {
+        removeText(region, oldText);
+        addText(region, newText);
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Walks through packed like a trie, adding each text that's exactly
+     * maxDistance edits from target to closeTexts, in alphabetical order.
+     * Closer texts are passed over, since they've already been found.
+     */
+    private static void findTexts(PackedTexts packed, char[] target, int maxDistance,
+                                  int[][] rows, ArrayList<String> closeTexts)
+    {
+        int[] sharedLengths = packed.sharedLengths;
+        int[] restStarts = packed.restStarts;
+        char[] rests = packed.rests;
+        int numTexts = sharedLengths.length;
+        
+        // HOW MANY ROWS ARE GOOD FOR THE LAST TEXT WE LOOKED AT
+        int rowsWorkedOut = 0;
+        
+        // WE STEP THROUGH THE TEXTS ONE AT A TIME UNTIL WE CAN SKIP SOME
+        int i = 0;
+        while (i < numTexts)
+        {
+            int sharedLength = sharedLengths[i];
+            int textLength = sharedLength + restStarts[i + 1] - restStarts[i];
+            
+            // ONLY THE CHARACTERS PAST WHAT A TEXT SHARES WITH THE ONE BEFORE
+            // IT ARE EVER NEEDED, SINCE THE ROWS FOR THOSE IT SHARES ARE
+            // ALREADY WORKED OUT, OR ELSE IT'S TOO LONG TO NEED THEM
+            int restOffset = restStarts[i] - sharedLength;
+            
+            // ANY TEXT MORE THAN maxDistance LONGER THAN THE TARGET NEEDS TOO
+            // MANY DELETIONS, SO WE NEVER NEED MORE ROWS THAN THIS
+            int rowsNeeded = Math.min(textLength, target.length + maxDistance);
+            
+            // PICK UP FROM THE ROWS FOR THE PREFIX WE SHARE WITH THE LAST
+            // TEXT, WHICH IS ALL A SKIPPED TEXT SHARED WITH IT TOO
+            int row = Math.min(rowsWorkedOut, sharedLength);
+            boolean tooFar = false;
+            while (row < rowsNeeded)
+            {
+                row++;
+                if (nextRow(rows, row, rests[restOffset + row - 1], target, maxDistance) > maxDistance)
+                {
+                    tooFar = true;
+                    break;
+                }
+            }
+            if (tooFar)
+            {
+                // NOTHING STARTING WITH THIS PREFIX CAN MATCH, SO SKIP THEM ALL
+                rowsWorkedOut = row - 1;
+                i = packed.skipPrefix(i, row);
+                continue;
+            }
+            rowsWorkedOut = row;
+            if (textLength > rowsNeeded)
+            {
+                // THIS TEXT AND ALL THE OTHERS THAT START THE SAME ARE TOO LONG
+                i = packed.skipPrefix(i, rowsNeeded);
+                continue;
+            }
+            
+            // A TEXT THIS MUCH SHORTER NEEDS TOO MANY INSERTIONS, AND ITS
+            // DISTANCE WASN'T WORKED OUT
+            if ((target.length - textLength <= maxDistance)
+                    && (rows[textLength][target.length] == maxDistance))
+            {
+                closeTexts.add(packed.texts[i]);
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Gets all the texts packed for searching by spelling, packing them
+     * if they haven't been yet. Note that they may include texts that no
+     * region has any more.
+     */
+    private PackedTexts getPackedTexts()
+    {
+        PackedTexts texts = packedTexts;
+        if (texts == null)
+        {
+            texts = new PackedTexts(regionsByText.keySet());
+            packedTexts = texts;
+        }
+        return texts;
+    }
+
+    /**
+     * Gets the texts added since all of them were packed, packing them if
+     * they've changed since last time, or null if there aren't any.
+     */
+    private PackedTexts getPackedNewTexts()
+    {
+        PackedTexts texts = packedNewTexts;
+        if ((texts == null) && !newTexts.isEmpty())
+        {
+            texts = new PackedTexts(newTexts);
+            packedNewTexts = texts;
+        }
+        return texts;
+    }
+
+    /**
+     * Called when some region is the first to have text.
+     */
+    private void textAdded(String text)
+    {
+        PackedTexts texts = packedTexts;
+        if ((texts != null) && !texts.contains(text))
+        {
+            newTexts.add(text);
+            packedNewTexts = null;
+            packedTextsChanged(texts);
+        }
+    }
+
+    /**
+     * Called when the last region to have text no longer does.
+     */
+    private void textRemoved(String text)
+    {
+        PackedTexts texts = packedTexts;
+        if (texts != null)
+        {
+            if (newTexts.remove(text))
+            {
+                packedNewTexts = null;
+            }
+            else
+            {
+                numRemovedTexts++;
+            }
+            packedTextsChanged(texts);
+        }
+    }
+
+    /**
+     * Drops the packed texts once so many have changed that walking the
+     * new ones, and passing over the removed ones, would cost too much.
+     * They're packed again by the next search by spelling.
+     */
+    private void packedTextsChanged(PackedTexts texts)
+    {
+        int maxChangedTexts = Math.min(MAX_CHANGED_TEXTS, texts.texts.length / 16);
+        if (newTexts.size() + numRemovedTexts > maxChangedTexts)
+        {
+            packedTexts = null;
+            packedNewTexts = null;
+            newTexts.clear();
+            numRemovedTexts = 0;
+        }
+    }
+
+    /**
+     * Works out row of the edit distance table from the row above it,
+     * for a text whose row'th character is textChar. Only the numbers
+     * within maxDistance of the diagonal are worked out, since the rest
+     * can't be maxDistance or less. Just outside them on each side we put
+     * maxDistance + 1, so the next row doesn't use old numbers from there.
+     * 
+     * @return The smallest number in the new row. No later row can have
+     * anything smaller.
+     */
+    private static int nextRow(int[][] rows, int row, char textChar, char[] target, int maxDistance)
+    {
+        int[] previousRow = rows[row - 1];
+        int[] currentRow = rows[row];
+        if (currentRow == null)
+        {
+            currentRow = new int[target.length + 1];
+            rows[row] = currentRow;
+        }
+        int tooFar = maxDistance + 1;
+        int firstColumn = row - maxDistance;
+        int lastColumn = Math.min(row + maxDistance, target.length);
+        int rowMin = tooFar;
+        if (firstColumn <= 0)
+        {
+            currentRow[0] = row;
+            rowMin = row;
+            firstColumn = 1;
+        }
+        else
+        {
+            currentRow[firstColumn - 1] = tooFar;
+        }
+        if (lastColumn < target.length)
+        {
+            currentRow[lastColumn + 1] = tooFar;
+        }
+        for (int j = firstColumn; j <= lastColumn; j++)
+        {
+            int cost = (target[j - 1] == textChar) ? 0 : 1;
+            int distance = previousRow[j - 1] + cost;
+            if (previousRow[j] + 1 < distance)
+            {
+                distance = previousRow[j] + 1;
+            }
+            if (currentRow[j - 1] + 1 < distance)
+            {
+                distance = currentRow[j - 1] + 1;
+            }
+            currentRow[j] = distance;
+            if (distance < rowMin)
+            {
+                rowMin = distance;
+            }
+        }
+        return rowMin;
+    }
+
+    /**
+     * Counts how many characters text1 and text2 start with in common.
+     */
+    private static int sharedPrefixLength(String text1, String text2)
+    {
+        int length = Math.min(text1.length(), text2.length());
+        for (int i = 0; i < length; i++)
+        {
+            if (text1.charAt(i) != text2.charAt(i))
+            {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Tests to see if text has no characters beyond ASCII, and so no
+     * accents to take off.
+     */
+    private static boolean isAscii(String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (text.charAt(i) >= 0x80)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds region under text, unless there is no text.
+     */
+    private void addText(Region region, String text)
+    {
+        if (text == null)
+        {
+            return;
+        }
+        String normalizedText = normalize(text);
+        ArrayList<Region> regions = regionsByText.get(normalizedText);
+        if (regions == null)
+        {
+            regions = new ArrayList(1);
+            regionsByText.put(normalizedText, regions);
+            textAdded(normalizedText);
+        }
+        
+        // IT GOES AFTER ANY WITH THE SAME NAME, JUST LIKE A SUB REGION
+        int low = 0;
+        int high = regions.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (nameOrder.compare(regions.get(mid), region) <= 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        regions.add(low, region);
+    }
+
+    /**
+     * Removes region from under text, dropping text once no region
+     * has it. Regions are matched by identity since their ids, and so
+     * what equals means for them, can change.
+     */
+    private void removeText(Region region, String text)
+    {
+        if (text == null)
+        {
+            return;
+        }
+        String normalizedText = normalize(text);
+        ArrayList<Region> regions = regionsByText.get(normalizedText);
+        if (regions == null)
+        {
+            return;
+        }
+        for (int i = 0; i < regions.size(); i++)
+        {
+            if (regions.get(i) == region)
+            {
+                regions.remove(i);
+                break;
+            }
+        }
+        if (regions.isEmpty())
+        {
+            regionsByText.remove(normalizedText);
+            textRemoved(normalizedText);
+        }
+    }
+
+    /**
+     * A sorted set of texts packed into arrays for walking like a trie.
+     * Along with each text is how many characters it shares with the one
+     * before it, and where the next text that shares fewer than that is,
+     * so all the texts under a prefix can be skipped in a few steps.
+     */
+    private static final class PackedTexts
+    {
+        // THE TEXTS IN ORDER
+        final String[] texts;
+        
+        // HOW MANY CHARACTERS EACH TEXT STARTS WITH IN COMMON WITH THE
+        // ONE BEFORE IT, WHICH IS 0 FOR THE FIRST
+        final int[] sharedLengths;
+        
+        // FOR EACH TEXT, THE FIRST ONE AFTER IT THAT SHARES LESS WITH THE
+        // ONE BEFORE IT, OR texts.length IF NONE DOES
+        final int[] nextShorter;
+        
+        // THE REST OF EACH TEXT AFTER WHAT IT SHARES WITH THE ONE BEFORE IT,
+        // ALL IN ONE ARRAY SO WALKING THEM DOESN'T JUMP ALL OVER MEMORY, AND
+        // WHERE EACH ONE STARTS, WITH ONE MORE FOR WHERE THE LAST ONE ENDS
+        final char[] rests;
+        final int[] restStarts;
+
+        /**
+         * Constructor for packing texts, which must be in order with no
+         * repeats.
+         */
+        PackedTexts(Collection<String> sortedTexts)
+        {
+            texts = sortedTexts.toArray(new String[sortedTexts.size()]);
+            sharedLengths = new int[texts.length];
+            restStarts = new int[texts.length + 1];
+            int maxSharedLength = 0;
+            for (int i = 0; i < texts.length; i++)
+            {
+                if (i > 0)
+                {
+                    sharedLengths[i] = sharedPrefixLength(texts[i - 1], texts[i]);
+                    maxSharedLength = Math.max(maxSharedLength, sharedLengths[i]);
+                }
+                restStarts[i + 1] = restStarts[i] + texts[i].length() - sharedLengths[i];
+            }
+            rests = new char[restStarts[texts.length]];
+            for (int i = 0; i < texts.length; i++)
+            {
+                texts[i].getChars(sharedLengths[i], texts[i].length(), rests, restStarts[i]);
+            }
+            
+            // GOING BACKWARDS, THE STACK HOLDS THE TEXTS THAT COULD STILL BE
+            // SOME EARLIER TEXT'S NEXT SHORTER, WITH THE SHORTEST AT THE BOTTOM
+            nextShorter = new int[texts.length];
+            int[] stack = new int[maxSharedLength + 1];
+            int stackSize = 0;
+            for (int i = texts.length - 1; i >= 0; i--)
+            {
+                while ((stackSize > 0) && (sharedLengths[stack[stackSize - 1]] >= sharedLengths[i]))
+                {
+                    stackSize--;
+                }
+                nextShorter[i] = (stackSize == 0) ? texts.length : stack[stackSize - 1];
+                stack[stackSize++] = i;
+            }
+        }
+
+        /**
+         * Tests to see if text was packed.
+         */
+        boolean contains(String text)
+        {
+            return Arrays.binarySearch(texts, text) >= 0;
+        }
+
+        /**
+         * Finds the first text after the one at index that doesn't start
+         * with its first prefixLength characters, or texts.length if
+         * there isn't one. Each step lands on a text sharing less with the
+         * one before it, so there are never more than prefixLength steps.
+         */
+        int skipPrefix(int index, int prefixLength)
+        {
+            int next = index + 1;
+            while ((next < texts.length) && (sharedLengths[next] >= prefixLength))
+            {
+                next = nextShorter[next];
+            }
+            return next;
+        }
+    }
+}
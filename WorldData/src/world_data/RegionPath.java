@@ -0,0 +1,160 @@
+package world_data;
+
+import java.util.Arrays;
+
+/**
+ * A RegionPath is a reusable buffer for holding a sequence of regions, such
+ * as the path from the root of a world down to some region. It's meant to
+ * be kept around and refilled by the WorldDataManager, so that getting a
+ * path doesn't allocate anything once the buffer is big enough. That's
+ * for a world of Regions; a compact world still makes each Region on the
+ * path as it's reached, though that's less than a LinkedList also takes.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class RegionPath
+{
+    // ENOUGH FOR A WORLD, CONTINENT, NATION, STATE, AND COUNTY
+    public static final int DEFAULT_CAPACITY = 8;
+    
+    // THE REGIONS IN THE PATH, IN ORDER, FOLLOWED BY UNUSED SPACE
+    private Region[] regions;
+    
+    // HOW MANY REGIONS ARE IN THE PATH
+    private int size;
+
+    /**
+     * Default constructor, it makes an empty path.
+     */
+    public RegionPath()
+    {
+        regions = new Region[DEFAULT_CAPACITY];
+        size = 0;
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Accessor method for getting the number of regions in this path.
+     * 
+     * @return The length of the path, counting both ends.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Accessor method for getting one of the regions in this path.
+     * 
+     * @param index The location of the region in the path, from 0.
+     * 
+     * @return The region at index.
+     */
+    public Region get(int index)
+    {
+        if (index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return regions[index];
+    }
+
+    /**
+     * Accessor method for getting the first region in this path.
+     * 
+     * @return The first region, null if the path is empty.
+     */
+    public Region getFirst()
+    {
+        return (size == 0) ? null : regions[0];
+    }
+
+    /**
+     * Accessor method for getting the last region in this path.
+     * 
+     * @return The last region, null if the path is empty.
+     */
+    public Region getLast()
+    {
+        return (size == 0) ? null : regions[size - 1];
+    }
+
+    /**
+     * Tests to see if region is somewhere in this path.
+     * 
+     * @param region The region to look for.
+     * 
+     * @return true if the region is in the path, false otherwise.
+     */
+    public boolean contains(Region region)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (regions[i].equals(region))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the regions in this path to a new array, for when a path
+     * needs to be kept after the buffer is reused.
+     * 
+     * @return An array of all the regions in the path, in order.
+     */
+    public Region[] toArray()
+    {
+        return Arrays.copyOf(regions, size);
+    }
+
+    // MUTATOR METHODS, WHICH ARE USED BY THE WorldDataManager TO FILL THE PATH
+
+    /**
+     * Empties this path and makes sure it can hold newSize regions,
+     * growing the buffer only if it's too small.
+     * 
+     * @param newSize The number of regions the path will hold.
+     */
+    void reset(int newSize)
+    {
+        if (newSize > regions.length)
+        {
+            regions = new Region[Math.max(newSize, regions.length * 2)];
+        }
+        else if (newSize < size)
+        {
+            // DON'T HANG ON TO REGIONS FROM THE LAST PATH
+            Arrays.fill(regions, newSize, size, null);
+        }
+        size = newSize;
+    }
+
+    /**
+     * Puts region at index in this path.
+     * 
+     * @param index The location in the path, which must be less than
+     * the size given to reset.
+     * 
+     * @param region The region to put there.
+     */
+    void set(int index, Region region)
+    {
+        regions[index] = region;
+    }
+
+    /**
+     * Generates a textual representation of this path.
+     * 
+     * @return The names of all the regions in the path, in order.
+     */
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(toArray());
+    }
+}
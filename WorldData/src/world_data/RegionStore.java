@@ -0,0 +1,185 @@
+package world_data;
+
+/**
+ * This class provides the requirements for compact, read-only storage of
+ * all the regions of a world, where each region is just an int index
+ * rather than an object. Regions are always laid out in pre-order, with
+ * the root at index 0 and every region followed directly by all of its
+ * descendants. So, a region's subtree is the run of indices starting at
+ * it and spanning its subtree size, and its first child and next sibling
+ * can be found by arithmetic rather than stored links. Any regions not yet
+ * hooked up to the world follow the root's subtree as trees of their own.
+ * 
+ * Regions of a store are handed out as CompactRegion views, which are
+ * created on demand and read everything from the store.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public abstract class RegionStore
+{
+    // THE INDEX USED WHEN THERE IS NO REGION, LIKE THE PARENT OF THE ROOT
+    public static final int NO_REGION = -1;
+    
+    // THE ROOT OF THE WORLD IS ALWAYS THE FIRST REGION
+    public static final int ROOT_REGION = 0;
+    
+    // ALL THE REGION TYPES, BY ORDINAL
+    protected static final RegionType[] REGION_TYPES = RegionType.values();
+
+    // ACCESSOR METHODS THAT EACH KIND OF STORE MUST PROVIDE
+    
+    /**
+     * Accessor method for getting the number of regions in the store.
+     * 
+     * @return The number of regions, which are indexed 0 to this - 1.
+     */
+    public abstract int getNumRegions();
+
+    /**
+     * Accessor method for getting the parent of a region.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The index of its parent region, NO_REGION for the root.
+     */
+    public abstract int getParent(int region);
+
+    /**
+     * Accessor method for getting how many regions are in the subtree
+     * rooted at a region, including the region itself.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The size of the region's subtree, which is 1 for a leaf.
+     */
+    public abstract int getSubtreeSize(int region);
+
+    /**
+     * Accessor method for getting the type of a region.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The type of the region.
+     */
+    public abstract RegionType getType(int region);
+
+    /**
+     * Accessor method for getting the id of a region.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The id of the region.
+     */
+    public abstract String getId(int region);
+
+    /**
+     * Accessor method for getting the name of a region.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The name of the region.
+     */
+    public abstract String getName(int region);
+
+    /**
+     * Accessor method for getting the capital of a region.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The capital of the region, null if it doesn't have one.
+     */
+    public abstract String getCapital(int region);
+
+    /**
+     * Finds the region with the regionId id.
+     * 
+     * @param regionId The id of the region to look for.
+     * 
+     * @return The index of the region, NO_REGION if there isn't one.
+     */
+    public abstract int findRegion(String regionId);
+
+    /**
+     * Compares the ids of two regions, the same way String.compareTo
+     * would, without needing to make Strings for them.
+     * 
+     * @param region1 The index of the first region.
+     * 
+     * @param region2 The index of the second region.
+     * 
+     * @return A negative number, 0, or a positive number if the first
+     * id precedes, equals, or follows the second.
+     */
+    public abstract int compareIds(int region1, int region2);
+
+    // ADDITIONAL SERVICE METHODS, WHICH ALL FOLLOW FROM THE PRE-ORDER LAYOUT
+
+    /**
+     * Accessor method for getting the first child of a region.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The index of its first child, NO_REGION if it's a leaf.
+     */
+    public int getFirstChild(int region)
+    {
+        return (getSubtreeSize(region) > 1) ? region + 1 : NO_REGION;
+    }
+
+    /**
+     * Accessor method for getting the next sibling of a region.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The index of the next child of the same parent, NO_REGION
+     * if this is the last one.
+     */
+    public int getNextSibling(int region)
+    {
+        int parent = getParent(region);
+        if (parent == NO_REGION)
+        {
+            return NO_REGION;
+        }
+        int next = region + getSubtreeSize(region);
+        return (next < parent + getSubtreeSize(parent)) ? next : NO_REGION;
+    }
+
+    /**
+     * Tests to see if the ancestor region contains the descendant region.
+     * Note that a region counts as its own ancestor.
+     * 
+     * @param ancestor The index of the possible ancestor.
+     * 
+     * @param descendant The index of the possible descendant.
+     * 
+     * @return true if descendant is in ancestor's subtree, false otherwise.
+     */
+    public boolean isAncestor(int ancestor, int descendant)
+    {
+        return (ancestor <= descendant)
+                && (descendant < ancestor + getSubtreeSize(ancestor));
+    }
+
+    /**
+     * Accessor method for getting the depth of a region, which is the
+     * number of steps from the root to it.
+     * 
+     * @param region The index of the region.
+     * 
+     * @return The depth of the region, 0 for the root.
+     */
+    public int getDepth(int region)
+    {
+        int depth = 0;
+        int parent = getParent(region);
+        while (parent != NO_REGION)
+        {
+            depth++;
+            parent = getParent(parent);
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,399 @@
+package world_data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class packs all the Strings of a compact world (ids, names, and
+ * capitals) into a single byte array so that no String objects need to
+ * be kept around. Each String is referred to by the int offset at which
+ * it was stored, and is only turned back into a String when asked for.
+ *
+ * Nearly all region text is Latin-1, so such Strings are stored with one
+ * byte per char, and only Strings with other chars take two. Equal Strings
+ * are only stored once, which matters since many capitals share the name
+ * of their region, and many regions of different worlds share names.
+ *
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class RegionStringTable
+{
+    // THIS OFFSET STANDS FOR A MISSING STRING, LIKE A REGION WITH NO CAPITAL
+    public static final int NO_STRING = -1;
+
+    // EACH STRING IS STORED AS A FOUR BYTE HEADER FOLLOWED BY ITS CHARS,
+    // THE HEADER BEING ITS LENGTH SHIFTED LEFT ONE WITH THE LOW BIT SET
+    // IF IT TAKES TWO BYTES PER CHAR
+    private static final int HEADER_BYTES = 4;
+    private static final int WIDE_FLAG = 1;
+
+    // THE LARGEST CHAR THAT FITS IN ONE BYTE
+    private static final char MAX_LATIN_1 = '\u00ff';
+
+    // ALL THE STORED STRINGS, BACK TO BACK
+    private byte[] data;
+
+    // HOW MUCH OF data IS IN USE
+    private int dataSize;
+
+    // HASH TABLE OF THE OFFSETS OF ALL STORED STRINGS PLUS ONE, SO THAT 0
+    // IS AN EMPTY SLOT. IT'S ONLY NEEDED WHILE ADDING, SO IT'S DROPPED BY
+    // trimToSize AND REBUILT IF ANYTHING IS ADDED AFTERWARDS
+    private int[] internTable;
+    private int numInterned;
+
+    /**
+     * Default constructor, it sets up an empty table.
+     */
+    public RegionStringTable()
+    {
+        data = new byte[1024];
+        dataSize = 0;
+        internTable = new int[256];
+        numInterned = 0;
+    }
+
+    /**
+     * Stores textToAdd in this table, unless an equal String is already
+     * stored, in which case that one is shared.
+     *
+     * @param textToAdd The String to store, which may be null.
+     *
+     * @return The offset to use for getting the String back, or NO_STRING
+     * if textToAdd was null.
+     */
+    public int add(String textToAdd)
+    {
+        if (textToAdd == null)
+        {
+            return NO_STRING;
+        }
+        if (internTable == null)
+        {
+            rebuildInternTable();
+        }
+
+        // IS IT ALREADY HERE?
+        int mask = internTable.length - 1;
+        int slot = spread(textToAdd.hashCode()) & mask;
+        while (internTable[slot] != 0)
+        {
+            int offset = internTable[slot] - 1;
+            if (matches(offset, textToAdd))
+            {
+                return offset;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // NO, SO STORE IT AND REMEMBER IT
+        int offset = store(textToAdd);
+        internTable[slot] = offset + 1;
+        numInterned++;
+        if ((numInterned * 2) > internTable.length)
+        {
+            growInternTable();
+        }
+        return offset;
+    }
+
+    /**
+     * Accessor method for turning a stored String back into a String.
+     *
+     * @param offset The offset the String was stored at.
+     *
+     * @return The String stored at offset, null for NO_STRING.
+     */
+    public String get(int offset)
+    {
+        if (offset == NO_STRING)
+        {
+            return null;
+        }
+        int length = length(offset);
+        int start = offset + HEADER_BYTES;
+        if (!isWide(offset))
+        {
+            return new String(data, start, length, StandardCharsets.ISO_8859_1);
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            chars[i] = wideCharAt(start, i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Tests to see if the String stored at offset is the same as text,
+     * without having to make a String for it.
+     *
+     * @param offset The offset of the stored String.
+     *
+     * @param text The String to compare it to.
+     *
+     * @return true if they have the same characters, false otherwise.
+     */
+    public boolean matches(int offset, String text)
+    {
+        int length = length(offset);
+        if (length != text.length())
+        {
+            return false;
+        }
+        boolean wide = isWide(offset);
+        int start = offset + HEADER_BYTES;
+        for (int i = 0; i < length; i++)
+        {
+            if (charAt(start, wide, i) != text.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two stored Strings the same way String.compareTo would.
+     *
+     * @param offset1 The offset of the first stored String.
+     *
+     * @param offset2 The offset of the second stored String.
+     *
+     * @return A negative number, 0, or a positive number if the first
+     * String precedes, equals, or follows the second.
+     */
+    public int compare(int offset1, int offset2)
+    {
+        if (offset1 == offset2)
+        {
+            // EQUAL STRINGS ARE ONLY STORED ONCE
+            return 0;
+        }
+        int length1 = length(offset1);
+        int length2 = length(offset2);
+        boolean wide1 = isWide(offset1);
+        boolean wide2 = isWide(offset2);
+        int start1 = offset1 + HEADER_BYTES;
+        int start2 = offset2 + HEADER_BYTES;
+        int minLength = Math.min(length1, length2);
+        for (int i = 0; i < minLength; i++)
+        {
+            char c1 = charAt(start1, wide1, i);
+            char c2 = charAt(start2, wide2, i);
+            if (c1 != c2)
+            {
+                return c1 - c2;
+            }
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Computes the same hash code that String.hashCode would for the
+     * String stored at offset.
+     *
+     * @param offset The offset of the stored String.
+     *
+     * @return The hash code of the stored String.
+     */
+    public int hash(int offset)
+    {
+        int length = length(offset);
+        boolean wide = isWide(offset);
+        int start = offset + HEADER_BYTES;
+        int h = 0;
+        for (int i = 0; i < length; i++)
+        {
+            h = 31 * h + charAt(start, wide, i);
+        }
+        return h;
+    }
+
+    /**
+     * Accessor method for getting the number of bytes this table uses
+     * for its Strings.
+     *
+     * @return The number of bytes of storage in use.
+     */
+    public int getDataSize()
+    {
+        return dataSize;
+    }
+
+    /**
+     * Releases any storage that isn't being used, which should be done
+     * once all the Strings have been added.
+     */
+    public void trimToSize()
+    {
+        data = Arrays.copyOf(data, dataSize);
+        internTable = null;
+        numInterned = 0;
+    }
+
+    /**
+     * Private helper method that appends text to our storage, one byte
+     * per char if it's all Latin-1 and two otherwise.
+     *
+     * @return The offset it was stored at.
+     */
+    private int store(String text)
+    {
+        int length = text.length();
+        boolean wide = false;
+        for (int i = 0; (i < length) && !wide; i++)
+        {
+            wide = text.charAt(i) > MAX_LATIN_1;
+        }
+        int charBytes = wide ? 2 : 1;
+        if ((length > (Integer.MAX_VALUE >> 1))
+                || ((long)dataSize + HEADER_BYTES + ((long)length * charBytes) > Integer.MAX_VALUE))
+        {
+            throw new IllegalStateException("Too much text for a string table");
+        }
+        ensureCapacity(dataSize + HEADER_BYTES + (length * charBytes));
+        int offset = dataSize;
+        int header = (length << 1) | (wide ? WIDE_FLAG : 0);
+        data[offset] = (byte)(header >>> 24);
+        data[offset + 1] = (byte)(header >>> 16);
+        data[offset + 2] = (byte)(header >>> 8);
+        data[offset + 3] = (byte)header;
+        int position = offset + HEADER_BYTES;
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (wide)
+            {
+                data[position++] = (byte)(c >>> 8);
+            }
+            data[position++] = (byte)c;
+        }
+        dataSize = position;
+        return offset;
+    }
+
+    /**
+     * Private helper method for reading the header of a stored String.
+     */
+    private int header(int offset)
+    {
+        return ((data[offset] & 0xff) << 24)
+                | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8)
+                | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * Private helper method for reading the length of a stored String.
+     */
+    private int length(int offset)
+    {
+        return header(offset) >>> 1;
+    }
+
+    /**
+     * Private helper method for testing if a stored String takes two
+     * bytes per char.
+     */
+    private boolean isWide(int offset)
+    {
+        return (header(offset) & WIDE_FLAG) != 0;
+    }
+
+    /**
+     * Private helper method for reading char i of the String whose chars
+     * start at start.
+     */
+    private char charAt(int start, boolean wide, int i)
+    {
+        return wide ? wideCharAt(start, i) : (char)(data[start + i] & 0xff);
+    }
+
+    /**
+     * Private helper method for reading char i of a two byte per char
+     * String whose chars start at start.
+     */
+    private char wideCharAt(int start, int i)
+    {
+        int position = start + (i * 2);
+        return (char)(((data[position] & 0xff) << 8) | (data[position + 1] & 0xff));
+    }
+
+    /**
+     * Private helper method that makes the intern table twice as big.
+     */
+    private void growInternTable()
+    {
+        int[] oldTable = internTable;
+        internTable = new int[oldTable.length * 2];
+        for (int entry : oldTable)
+        {
+            if (entry != 0)
+            {
+                insertInterned(entry - 1);
+            }
+        }
+    }
+
+    /**
+     * Private helper method that remakes the intern table after it was
+     * dropped, by walking through all the stored Strings.
+     */
+    private void rebuildInternTable()
+    {
+        internTable = new int[256];
+        numInterned = 0;
+        int offset = 0;
+        while (offset < dataSize)
+        {
+            insertInterned(offset);
+            numInterned++;
+            if ((numInterned * 2) > internTable.length)
+            {
+                growInternTable();
+            }
+            offset += HEADER_BYTES + (length(offset) * (isWide(offset) ? 2 : 1));
+        }
+    }
+
+    /**
+     * Private helper method that puts the String stored at offset in the
+     * intern table, which must have room for it.
+     */
+    private void insertInterned(int offset)
+    {
+        int mask = internTable.length - 1;
+        int slot = spread(hash(offset)) & mask;
+        while (internTable[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        internTable[slot] = offset + 1;
+    }
+
+    /**
+     * Private helper method that mixes the bits of a hash code, so that
+     * hash codes differing only in their high bits are still spread out.
+     */
+    private static int spread(int h)
+    {
+        h ^= (h >>> 16);
+        return h * 0x45d9f3b;
+    }
+
+    /**
+     * Private helper method for growing our storage.
+     */
+    private void ensureCapacity(int minCapacity)
+    {
+        if (minCapacity > data.length)
+        {
+            long grownCapacity = (long)data.length + (data.length >> 1);
+            int newCapacity = (int)Math.max(minCapacity, Math.min(grownCapacity, Integer.MAX_VALUE - 8));
+            data = Arrays.copyOf(data, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package world_data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * This is a secondary index that groups the regions of a world by their
+ * RegionType, so that finding all the NATIONs or counting all the COUNTYs
+ * only touches the regions of that type. The WorldDataManager keeps it up
+ * to date as regions are added, removed, and have their types changed.
+ * Note that regions are kept by identity rather than by equals, since a
+ * region's id, and so its hash code, can change while it's in the index.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class RegionTypeIndex
+{
+    // ONE SET OF REGIONS FOR EACH TYPE
+    private EnumMap<RegionType, Set<Region>> regionsByType;
+    
+    // AND A READ-ONLY VIEW OF EACH ONE TO HAND OUT
+    private EnumMap<RegionType, Set<Region>> regionsByTypeViews;
+
+    /**
+     * Default constructor, it makes an empty set for each type.
+     */
+    RegionTypeIndex()
+    {
+        regionsByType = new EnumMap(RegionType.class);
+        regionsByTypeViews = new EnumMap(RegionType.class);
+        for (RegionType type : RegionType.values())
+        {
+            Set<Region> regions = Collections.newSetFromMap(new IdentityHashMap<Region, Boolean>());
+            regionsByType.put(type, regions);
+            regionsByTypeViews.put(type, Collections.unmodifiableSet(regions));
+        }
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Accessor method for getting all the indexed regions of a given type.
+     * 
+     * @param type The type of regions to get.
+     * 
+     * @return A read-only view of all the regions of that type, in no
+     * particular order. It reflects later changes to the index.
+     */
+    Collection<Region> getRegions(RegionType type)
+    {
+        return regionsByTypeViews.get(type);
+    }
+
+    /**
+     * Accessor method for getting how many indexed regions are of a
+     * given type.
+     * 
+     * @param type The type of regions to count.
+     * 
+     * @return The number of regions of that type.
+     */
+    int getNumRegions(RegionType type)
+    {
+        return regionsByType.get(type).size();
+    }
+
+    // MUTATOR METHODS
+
+    /**
+     * Adds region to the set for its type. Adding a region that's
+     * already there does nothing.
+     * 
+     * @param region The region to add.
+     */
+    void add(Region region)
+    {
+        regionsByType.get(region.getType()).add(region);
+    }
+
+    /**
+     * Removes region from the set for its type.
+     * 
+     * @param region The region to remove.
+     */
+    void remove(Region region)
+    {
+        regionsByType.get(region.getType()).remove(region);
+    }
+
+    /**
+     * Moves region to the set for its new type after its type was changed.
+     * 
+     * @param region The region whose type changed.
+     * 
+     * @param oldType The type it used to have.
+     */
+    void typeChanged(Region region, RegionType oldType)
+    {
+        if (regionsByType.get(oldType).remove(region))
+        {
+            add(region);
+        }
+    }
+
+    /**
+     * Empties all the sets.
+     */
+    void clear()
+    {
+        for (Set<Region> regions : regionsByType.values())
+        {
+            regions.clear();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This is an immutable list of the ids of a region's children in a
+ * WorldVersion, kept in order by name as a balanced (AVL) binary tree.
+ * Adding or removing a child never changes a tree but makes a new one,
+ * copying only the O(log k) nodes on the path to that child and sharing
+ * all the rest, so editing a region with many children doesn't mean
+ * copying all of them.
+ * 
+ * Each child is kept along with its name and a sequence number, which
+ * breaks ties between children with the same name. A child added later
+ * is given a bigger number, so just like with Region it goes after any
+ * with the same name.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+final class SubRegionTree
+{
+    // THERE ONLY NEEDS TO BE ONE EMPTY TREE
+    static final SubRegionTree EMPTY = new SubRegionTree(null);
+
+    // THE TOP OF THE TREE, null FOR AN EMPTY ONE
+    private final Node root;
+
+    /**
+     * Private constructor, trees are made by changing the empty one.
+     */
+    private SubRegionTree(Node initRoot)
+    {
+        root = initRoot;
+    }
+
+    /**
+     * Makes a tree holding children that are already in order, which
+     * takes O(k) rather than adding them one at a time. They're numbered
+     * in the order they're provided.
+     * 
+     * @param names The names of the children, in order.
+     * 
+     * @param ids The ids of the children, in the same order.
+     * 
+     * @return A tree holding all of them, with sequence numbers from 0.
+     */
+    static SubRegionTree of(ArrayList<String> names, ArrayList<String> ids)
+    {
+        if (ids.isEmpty())
+        {
+            return EMPTY;
+        }
+        return new SubRegionTree(build(names, ids, 0, ids.size()));
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Tests to see if there are no children in this tree.
+     * 
+     * @return true if there are none, false otherwise.
+     */
+    boolean isEmpty()
+    {
+        return root == null;
+    }
+
+    /**
+     * Accessor method for getting how many children are in this tree.
+     * 
+     * @return The number of children.
+     */
+    int size()
+    {
+        return size(root);
+    }
+
+    /**
+     * Accessor method for going through the ids of the children in order.
+     * 
+     * @return An Iterator over the ids, in order by name.
+     */
+    Iterator<String> idsIterator()
+    {
+        return new IdIterator();
+    }
+
+    // METHODS THAT MAKE NEW TREES
+
+    /**
+     * Makes a tree like this one but with another child in it.
+     * 
+     * @param name The child's name.
+     * 
+     * @param seq The child's sequence number, which should be bigger than
+     * that of any child already here with the same name.
+     * 
+     * @param id The child's id.
+     * 
+     * @param nameOrder How names are sorted.
+     * 
+     * @return The new tree.
+     */
+    SubRegionTree insert(String name, long seq, String id, Comparator nameOrder)
+    {
+        return new SubRegionTree(insert(root, name, seq, id, nameOrder));
+    }
+
+    /**
+     * Makes a tree like this one but without the child with name and seq.
+     * 
+     * @param name The child's name.
+     * 
+     * @param seq The child's sequence number.
+     * 
+     * @param nameOrder How names are sorted.
+     * 
+     * @return The new tree, or this one if there's no such child.
+     */
+    SubRegionTree remove(String name, long seq, Comparator nameOrder)
+    {
+        Node newRoot = remove(root, name, seq, nameOrder);
+        return (newRoot == root) ? this : new SubRegionTree(newRoot);
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Builds a perfectly balanced tree from the children from start up
+     * to but not including end.
+     */
+    private static Node build(ArrayList<String> names, ArrayList<String> ids, int start, int end)
+    {
+        if (start >= end)
+        {
+            return null;
+        }
+        int mid = (start + end) >>> 1;
+        return makeNode(names.get(mid), mid, ids.get(mid),
+                        build(names, ids, start, mid),
+                        build(names, ids, mid + 1, end));
+    }
+
+    /**
+     * Compares a child's key to a node's, by name and then by number.
+     */
+    private static int compare(String name, long seq, Node node, Comparator nameOrder)
+    {
+        int result = nameOrder.compare(name, node.name);
+        if (result != 0)
+        {
+            return result;
+        }
+        return (seq < node.seq) ? -1 : ((seq == node.seq) ? 0 : 1);
+    }
+
+    /**
+     * Makes a tree like the one under node but with a child added.
+     */
+    private static Node insert(Node node, String name, long seq, String id, Comparator nameOrder)
+    {
+        if (node == null)
+        {
+            return makeNode(name, seq, id, null, null);
+        }
+        int result = compare(name, seq, node, nameOrder);
+        if (result < 0)
+        {
+            return balance(node, insert(node.left, name, seq, id, nameOrder), node.right);
+        }
+        else if (result > 0)
+        {
+            return balance(node, node.left, insert(node.right, name, seq, id, nameOrder));
+        }
+        return makeNode(name, seq, id, node.left, node.right);
+    }
+
+    /**
+     * Makes a tree like the one under node but without a child, or
+     * returns node itself if the child isn't under it.
+     */
+    private static Node remove(Node node, String name, long seq, Comparator nameOrder)
+    {
+        if (node == null)
+        {
+            return null;
+        }
+        int result = compare(name, seq, node, nameOrder);
+        if (result < 0)
+        {
+            Node newLeft = remove(node.left, name, seq, nameOrder);
+            return (newLeft == node.left) ? node : balance(node, newLeft, node.right);
+        }
+        else if (result > 0)
+        {
+            Node newRight = remove(node.right, name, seq, nameOrder);
+            return (newRight == node.right) ? node : balance(node, node.left, newRight);
+        }
+
+        // THIS IS THE ONE, SO PUT THE FIRST CHILD AFTER IT IN ITS PLACE
+        if (node.left == null)
+        {
+            return node.right;
+        }
+        if (node.right == null)
+        {
+            return node.left;
+        }
+        Node first = node.right;
+        while (first.left != null)
+        {
+            first = first.left;
+        }
+        return balance(first, node.left, removeFirst(node.right));
+    }
+
+    /**
+     * Makes a tree like the one under node but without its first child.
+     */
+    private static Node removeFirst(Node node)
+    {
+        if (node.left == null)
+        {
+            return node.right;
+        }
+        return balance(node, removeFirst(node.left), node.right);
+    }
+
+    /**
+     * Makes a node with node's child in it and left and right under it,
+     * rotating if one side has become two levels taller than the other.
+     */
+    private static Node balance(Node node, Node left, Node right)
+    {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1)
+        {
+            if (height(left.left) >= height(left.right))
+            {
+                return makeNode(left, left.left, makeNode(node, left.right, right));
+            }
+            return makeNode(left.right,
+                            makeNode(left, left.left, left.right.left),
+                            makeNode(node, left.right.right, right));
+        }
+        if (rightHeight > leftHeight + 1)
+        {
+            if (height(right.right) >= height(right.left))
+            {
+                return makeNode(right, makeNode(node, left, right.left), right.right);
+            }
+            return makeNode(right.left,
+                            makeNode(node, left, right.left.left),
+                            makeNode(right, right.left.right, right.right));
+        }
+        return makeNode(node, left, right);
+    }
+
+    private static Node makeNode(Node child, Node left, Node right)
+    {
+        return makeNode(child.name, child.seq, child.id, left, right);
+    }
+
+    private static Node makeNode(String name, long seq, String id, Node left, Node right)
+    {
+        return new Node(name, seq, id, left, right,
+                        1 + Math.max(height(left), height(right)),
+                        1 + size(left) + size(right));
+    }
+
+    private static int height(Node node)
+    {
+        return (node == null) ? 0 : node.height;
+    }
+
+    private static int size(Node node)
+    {
+        return (node == null) ? 0 : node.size;
+    }
+
+    /**
+     * One child in the tree, along with the children before and after it.
+     * Like the tree itself, it never changes.
+     */
+    private static final class Node
+    {
+        final String name;
+        final long seq;
+        final String id;
+        final Node left;
+        final Node right;
+        final int height;
+        final int size;
+
+        Node(String initName, long initSeq, String initId, Node initLeft, Node initRight,
+             int initHeight, int initSize)
+        {
+            name = initName;
+            seq = initSeq;
+            id = initId;
+            left = initLeft;
+            right = initRight;
+            height = initHeight;
+            size = initSize;
+        }
+    }
+
+    /**
+     * This walks through the tree in order, keeping a stack of the nodes
+     * whose children before them it's still going through.
+     */
+    private class IdIterator implements Iterator<String>
+    {
+        private ArrayList<Node> stack = new ArrayList();
+
+        IdIterator()
+        {
+            pushLeft(root);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public String next()
+        {
+            if (stack.isEmpty())
+            {
+                throw new NoSuchElementException();
+            }
+            Node node = stack.remove(stack.size() - 1);
+            pushLeft(node.right);
+            return node.id;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private void pushLeft(Node node)
+        {
+            while (node != null)
+            {
+                stack.add(node);
+                node = node.left;
+            }
+        }
+    }
+}
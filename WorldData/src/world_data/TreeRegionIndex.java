@@ -0,0 +1,48 @@
+package world_data;
+
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * This is a RegionIndex that keeps all regions in a TreeMap sorted by id.
+ * Lookups cost O(log n) String comparisons, but the regions are always
+ * ready to be iterated in order.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class TreeRegionIndex implements RegionIndex
+{
+    // THIS IS WHERE WE'LL STORE ONE OF EACH REGION
+    private TreeMap<String, Region> regions;
+
+    /**
+     * Default constructor, it just sets up an empty tree.
+     */
+    public TreeRegionIndex()
+    {
+        regions = new TreeMap();
+    }
+
+    @Override
+    public Region get(String regionId)              { return regions.get(regionId);             }
+
+    @Override
+    public boolean containsKey(String regionId)     { return regions.containsKey(regionId);     }
+
+    @Override
+    public Region put(String regionId, Region region) { return regions.put(regionId, region);   }
+
+    @Override
+    public Region remove(String regionId)           { return regions.remove(regionId);          }
+
+    @Override
+    public void clear()                             { regions.clear();                          }
+
+    @Override
+    public int size()                               { return regions.size();                    }
+
+    @Override
+    public Collection<Region> values()              { return regions.values();                  }
+}
@@ -0,0 +1,152 @@
+package world_data;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A VersionRegion is a lightweight, read-only view of one region in a
+ * WorldVersion. Like the version itself it never changes, and like a
+ * CompactRegion, two views of the same region are equal but not the
+ * same object.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class VersionRegion extends Region
+{
+    // THIS IS WHAT WE TELL ANYONE WHO TRIES TO CHANGE A VERSION'S REGION
+    public static final String READ_ONLY_TEXT = "Regions of a world version cannot be changed";
+    
+    // THE VERSION THIS REGION IS PART OF
+    private WorldVersion version;
+    
+    // AND ITS DATA IN THAT VERSION
+    private WorldVersion.RegionRecord record;
+
+    /**
+     * Constructor for making a view of initRecord in initVersion.
+     * 
+     * @param initVersion The version containing the region.
+     * 
+     * @param initRecord The region's data.
+     */
+    VersionRegion(WorldVersion initVersion, WorldVersion.RegionRecord initRecord)
+    {
+        version = initVersion;
+        record = initRecord;
+    }
+
+    // ACCESSOR METHODS
+
+    @Override
+    public String getId()                       { return record.id;                 }
+
+    @Override
+    public String getName()                     { return record.name;               }
+
+    @Override
+    public RegionType getType()                 { return record.type;               }
+
+    @Override
+    public String getCapital()                  { return record.capital;            }
+
+    @Override
+    public boolean hasCapital()                 { return record.capital != null;    }
+
+    @Override
+    public boolean hasSubRegions()              { return !record.subRegions.isEmpty();      }
+
+    @Override
+    public Region getParentRegion()
+    {
+        return (record.parentId == null) ? null : version.getRegion(record.parentId);
+    }
+
+    @Override
+    public Iterator<Region> getSubRegions()
+    {
+        return new SubRegionIterator();
+    }
+
+    @Override
+    public Region getSubRegion(String subRegionId)
+    {
+        // THE VERSION CAN FIND IT DIRECTLY, WE JUST HAVE TO MAKE SURE IT'S OURS
+        WorldVersion.RegionRecord subRecord = version.getRecord(subRegionId);
+        if ((subRecord != null) && record.id.equals(subRecord.parentId))
+        {
+            return new VersionRegion(version, subRecord);
+        }
+        return null;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return record.id.hashCode();
+    }
+
+    // MUTATOR METHODS, NONE OF WHICH ARE ALLOWED
+
+    @Override
+    public void setId(String initId)                        { throw readOnly(); }
+
+    @Override
+    public void setName(String initName)                    { throw readOnly(); }
+
+    @Override
+    public void setCapital(String initCapital)              { throw readOnly(); }
+
+    @Override
+    public void setType(RegionType initType)                { throw readOnly(); }
+
+    @Override
+    public void setParentRegion(Region initParentRegion)    { throw readOnly(); }
+
+    @Override
+    public void addSubRegion(Region subRegionToAdd)         { throw readOnly(); }
+
+    @Override
+    public void addSubRegions(Collection subRegionsToAdd)   { throw readOnly(); }
+
+    @Override
+    public void removeSubRegion(Region subRegionToRemove)   { throw readOnly(); }
+
+    /**
+     * Private helper method for making the exception thrown by all
+     * of our mutators.
+     */
+    private UnsupportedOperationException readOnly()
+    {
+        return new UnsupportedOperationException(READ_ONLY_TEXT);
+    }
+
+    /**
+     * This walks through the ids of this region's children, making a
+     * view for each one as it's reached.
+     */
+    private class SubRegionIterator implements Iterator<Region>
+    {
+        // THE IDS OF THE CHILDREN, IN ORDER
+        private Iterator<String> idsIterator = record.subRegions.idsIterator();
+
+        @Override
+        public boolean hasNext()
+        {
+            return idsIterator.hasNext();
+        }
+
+        @Override
+        public Region next()
+        {
+            return version.getRegion(idsIterator.next());
+        }
+
+        @Override
+        public void remove()
+        {
+            throw readOnly();
+        }
+    }
+}
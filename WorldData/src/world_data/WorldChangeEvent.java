@@ -0,0 +1,90 @@
+package world_data;
+
+/**
+ * A WorldChangeEvent describes one change made to a world, like a region
+ * being renamed or moved to a different parent. Events are handed to
+ * WorldChangeListeners in batches, one batch per edit.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class WorldChangeEvent
+{
+    // WHAT KIND OF CHANGE THIS WAS
+    private WorldChangeType type;
+    
+    // THE REGION THAT CHANGED, null FOR WORLD_REPLACED
+    private Region region;
+    
+    // WHAT CHANGED ABOUT IT. THESE ARE NAMES OR CAPITALS FOR RENAMES AND
+    // CAPITAL CHANGES, RegionTypes FOR RETYPES, AND PARENT REGIONS FOR
+    // ADDS, REMOVES, AND MOVES
+    private Object oldValue;
+    private Object newValue;
+
+    /**
+     * Constructor for making an event, which is done by the world
+     * that changed.
+     * 
+     * @param initType What kind of change it was.
+     * 
+     * @param initRegion The region that changed.
+     * 
+     * @param initOldValue What it was before.
+     * 
+     * @param initNewValue What it is now.
+     */
+    WorldChangeEvent(WorldChangeType initType, Region initRegion, Object initOldValue, Object initNewValue)
+    {
+        type = initType;
+        region = initRegion;
+        oldValue = initOldValue;
+        newValue = initNewValue;
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Accessor method for getting what kind of change this was.
+     * 
+     * @return The type of change.
+     */
+    public WorldChangeType getType()    { return type;      }
+
+    /**
+     * Accessor method for getting the region that changed.
+     * 
+     * @return The changed region, or null if the whole world was replaced.
+     */
+    public Region getRegion()           { return region;    }
+
+    /**
+     * Accessor method for getting what changed about the region, as it
+     * was before the change.
+     * 
+     * @return The old name, capital, type, or parent, depending on the
+     * type of change.
+     */
+    public Object getOldValue()         { return oldValue;  }
+
+    /**
+     * Accessor method for getting what changed about the region, as it
+     * is after the change.
+     * 
+     * @return The new name, capital, type, or parent, depending on the
+     * type of change.
+     */
+    public Object getNewValue()         { return newValue;  }
+
+    /**
+     * Generates a textual representation of this event.
+     * 
+     * @return The type of change, the region, and the old and new values.
+     */
+    @Override
+    public String toString()
+    {
+        return type + " " + region + ": " + oldValue + " -> " + newValue;
+    }
+}
@@ -0,0 +1,29 @@
+package world_data;
+
+import java.util.List;
+
+/**
+ * This interface is for objects that want to hear about changes made to a
+ * world, so that they can update themselves to match in proportion to what
+ * changed rather than redo everything, like a tree view adding one node
+ * for a region that was added.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public interface WorldChangeListener
+{
+    /**
+     * Called by a world after a batch of changes, meaning after an edit
+     * made between lockForWriting and unlockForWriting calls, or after any
+     * single change made outside of them. Repeated changes of the same
+     * kind to the same region are merged into one event. Note that if the
+     * batch holds a WORLD_REPLACED event it holds nothing else, since the
+     * whole world needs looking at again anyway.
+     * 
+     * @param changes The changes, in the order they were made. This list
+     * may not be changed.
+     */
+    public void worldChanged(List<WorldChangeEvent> changes);
+}
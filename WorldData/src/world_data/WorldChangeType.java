@@ -0,0 +1,35 @@
+package world_data;
+
+/**
+ * This enum is used to tell the different kinds of WorldChangeEvents
+ * apart.
+ * 
+ * @author  Richard McKenna 
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public enum WorldChangeType 
+{
+    // A REGION JOINED THE WORLD, UNDER THE PARENT GIVEN AS THE NEW VALUE
+    REGION_ADDED,
+    
+    // A REGION LEFT THE WORLD, FROM UNDER THE PARENT GIVEN AS THE OLD VALUE
+    REGION_REMOVED,
+    
+    // A REGION CHANGED PARENTS, FROM THE OLD VALUE TO THE NEW VALUE.
+    // EITHER MAY BE null, FOR A REGION BEING DETACHED OR ATTACHED
+    REGION_MOVED,
+    
+    // A REGION'S NAME CHANGED
+    REGION_RENAMED,
+    
+    // A REGION'S TYPE CHANGED
+    REGION_RETYPED,
+    
+    // A REGION'S CAPITAL CHANGED
+    CAPITAL_CHANGED,
+    
+    // THE WHOLE WORLD WAS CLEARED, LOADED, OR REPLACED, SO EVERYTHING
+    // KNOWN ABOUT IT IS OUT OF DATE
+    WORLD_REPLACED
+}
@@ -1,14 +1,47 @@
 package world_data;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *  This is a data management class for Regions, providing a means
  *  to add, remove, and find regions.
  * 
+ *  Every change to a world, whether made through it or through one of its
+ *  regions, takes the world's write lock, so only one thread at a time
+ *  can change it. Reading a world that's being changed isn't safe though,
+ *  so to share one between threads, turn on concurrent mode. Other threads
+ *  then read from getSnapshot, which never blocks, and what they get stays
+ *  consistent no matter what the writer does afterwards. The writer never
+ *  copies the world for them. Instead, it keeps an immutable WorldVersion
+ *  of the world, which it brings up to date after each edit by changing
+ *  only what the edit changed, and the first reader to ask after a change
+ *  makes a new snapshot from that, without ever taking the write lock.
+ * 
+ *  Anyone who needs to follow changes to a world, rather than look at
+ *  all of it again, can register a WorldChangeListener. Changes made
+ *  between lockForWriting and unlockForWriting calls are reported together
+ *  as one batch when the world is unlocked.
+ * 
+ *  Large groups of edits, like those from a feed, can be made as a
+ *  transaction, which is either committed as a whole or rolled back as
+ *  if it never happened. Sorting of sub regions is put off until the
+ *  transaction is done, so each parent is sorted once no matter how many
+ *  of its children change, while the name index is kept up to date as
+ *  names change, since that only costs a lookup or two per name.
+ * 
  *  @author Richard McKenna
  *          Debugging Enterprises
  *          Version 1.0
@@ -16,7 +49,78 @@ import java.util.TreeMap;
 public class WorldDataManager 
 {
     // THIS IS WHERE WE'LL STORE ONE OF EACH REGION
-    private TreeMap<String, Region> allRegions;
+    private RegionIndex allRegions;
+    
+    // ONCE THE WORLD IS COMPACTED ITS REGIONS LIVE HERE AND allRegions
+    // IS A READ-ONLY VIEW OF THEM. OTHERWISE THIS IS null
+    private RegionStore regionStore;
+    
+    // WHILE COMPACTED, THIS KEEPS THE EMPTIED EDITABLE INDEX FOR LATER
+    private RegionIndex editableRegions;
+    
+    // THIS ANSWERS ANCESTRY QUESTIONS ABOUT REGION OBJECTS IN O(1)
+    private RegionIntervalIndex intervalIndex;
+    
+    // AND THIS FINDS COMMON ANCESTORS IN O(log depth)
+    private RegionAncestorTable ancestorTable;
+    
+    // THIS GROUPS THE REGION OBJECTS BY TYPE
+    private RegionTypeIndex typeIndex;
+    
+    // THIS FINDS REGIONS BY THE START OF THEIR NAMES AND CAPITALS. IT'S
+    // ONLY BUILT ONCE SOMEONE SEARCHES, SO IT'S null UNTIL THEN. NOTE THAT
+    // IN A SNAPSHOT SEVERAL READERS MAY BUILD IT AT ONCE
+    private volatile RegionNameIndex nameIndex;
+    
+    // THE LOCALE WHOSE ORDER NAMES ARE SORTED IN, null FOR char ORDER, AND
+    // THE ORDER ALL SUB REGIONS ARE KEPT IN BECAUSE OF IT
+    private Locale nameLocale;
+    private Comparator<Region> nameOrder;
+    
+    // WRITERS TAKE TURNS WITH THIS WHEN THE WORLD IS SHARED
+    private ReentrantLock writeLock;
+    
+    // IN CONCURRENT MODE THIS IS THE LATEST READ-ONLY COPY OF THE WORLD
+    // FOR OTHER THREADS TO READ, OTHERWISE IT'S null
+    private volatile boolean concurrent;
+    private volatile WorldDataManager snapshot;
+    
+    // WHAT THE NEXT SNAPSHOT IS TO BE MADE FROM, WHICH THE WRITER PUTS
+    // HERE EACH TIME IT UNLOCKS, AND WHAT THE CURRENT ONE WAS MADE FROM.
+    // READERS TAKE TURNS MAKING SNAPSHOTS WITH snapshotLock, WHICH THE
+    // WRITER NEVER WAITS FOR
+    private volatile SnapshotSource snapshotSource;
+    private volatile SnapshotSource snapshotMadeFrom;
+    private ReentrantLock snapshotLock;
+    
+    // HOW MANY TIMES THE WORLD HAS BEEN UNLOCKED AFTER WRITING
+    private volatile int numWrites;
+    
+    // IN CONCURRENT MODE, A VERSION OF THE WORLD THAT'S BROUGHT UP TO DATE
+    // EACH TIME IT'S UNLOCKED, THE IDS OF THE REGIONS THAT HAVE CHANGED
+    // SINCE, AND WHETHER THE WORLD CHANGED SO MUCH THAT IT MUST BE MADE
+    // OVER AGAIN INSTEAD
+    private WorldVersion liveVersion;
+    private LinkedHashSet<String> liveVersionChanges;
+    private boolean liveVersionStale;
+    
+    // THE LAST VERSION MADE OF THE WORLD, AND HOW MANY TIMES THE WORLD HAD
+    // BEEN UNLOCKED AFTER WRITING WHEN IT WAS, SO THAT IT CAN BE HANDED
+    // OUT AGAIN UNTIL THE WORLD CHANGES
+    private WorldVersion version;
+    private int versionNumWrites;
+    
+    // EVERYONE WHO WANTS TO HEAR ABOUT CHANGES TO THE WORLD
+    private ArrayList<WorldChangeListener> changeListeners;
+    
+    // THE CHANGES IN THE CURRENT BATCH, AND WHERE IN IT EACH REGION'S
+    // LATEST CHANGE IS SO THAT REPEATED CHANGES CAN BE MERGED
+    private ArrayList<WorldChangeEvent> pendingChanges;
+    private IdentityHashMap<Region, Integer> latestChanges;
+    
+    // WHAT THE WORLD LOOKED LIKE BEFORE THE CURRENT TRANSACTION, IF
+    // THERE IS ONE
+    private WorldTransaction transaction;
     
     // THERE SHOULD ONLY BE ONE WORLD NODE, WHICH IS THE ROOT
     private Region world;
@@ -33,15 +137,50 @@ public class WorldDataManager
     public WorldDataManager()
     {
         // INIT WHERE WE'LL PUT OUR DATA
-        allRegions = new TreeMap();
+        this(new HashRegionIndex());
     }    
     
+    /**
+     * Constructor for when a particular kind of primary index should
+     * be used to store the regions, for example a TreeRegionIndex.
+     * 
+     * @param initRegionIndex The empty index that will store one of
+     * each region by id.
+     */
+    public WorldDataManager(RegionIndex initRegionIndex)
+    {
+        allRegions = initRegionIndex;
+        regionStore = null;
+        editableRegions = null;
+        intervalIndex = new RegionIntervalIndex(this);
+        ancestorTable = new RegionAncestorTable(intervalIndex);
+        typeIndex = new RegionTypeIndex();
+        nameIndex = null;
+        nameLocale = null;
+        nameOrder = Region.NAME_ORDER;
+        writeLock = new ReentrantLock();
+        concurrent = false;
+        snapshot = null;
+        snapshotSource = null;
+        snapshotMadeFrom = null;
+        snapshotLock = new ReentrantLock();
+        numWrites = 0;
+        liveVersion = null;
+        liveVersionChanges = new LinkedHashSet();
+        liveVersionStale = true;
+        changeListeners = new ArrayList();
+        pendingChanges = new ArrayList();
+        latestChanges = new IdentityHashMap();
+        transaction = null;
+    }
+    
     // ACCESSOR METHODS
 
    /**
     * Accessor method for getting all the regions currently in the world.
     * 
-    * @return A Collection containing all the regions currently in the world.
+    * @return A Collection containing all the regions currently in the world,
+    * sorted by id.
     */
    public Collection<Region> getAllRegions()
    {
@@ -60,6 +199,211 @@ public class WorldDataManager
         return allRegions.get(regionId);
     }
 
+    /**
+     * Accessor method for getting all the regions of a given type in the
+     * current world, which only touches the regions of that type.
+     * 
+     * @param type The type of regions to get, like NATION.
+     * 
+     * @return A read-only Collection of all the regions of that type, in
+     * no particular order.
+     */
+    public Collection<Region> getRegionsOfType(RegionType type)
+    {
+        if (regionStore != null)
+        {
+            return ((CompactRegionIndex)allRegions).getRegionsOfType(type);
+        }
+        return typeIndex.getRegions(type);
+    }
+
+    /**
+     * Accessor method for getting how many regions of a given type are
+     * in the current world, which is done in constant time.
+     * 
+     * @param type The type of regions to count.
+     * 
+     * @return The number of regions of that type.
+     */
+    public int getNumRegionsOfType(RegionType type)
+    {
+        if (regionStore != null)
+        {
+            return ((CompactRegionIndex)allRegions).getNumRegionsOfType(type);
+        }
+        return typeIndex.getNumRegions(type);
+    }
+
+    /**
+     * Finds regions whose names or capitals start with prefix, ignoring
+     * case and accents, which is meant for suggesting regions as a user
+     * types. Note that the first search of a world builds the index it
+     * uses, after which searches take O(log n + maxMatches) time.
+     * 
+     * @param prefix The first few letters of a name or capital.
+     * 
+     * @param maxMatches The most regions to find.
+     * 
+     * @return The matching regions in alphabetical order of the name or
+     * capital that matched, at most maxMatches of them. Regions that
+     * matched the same text are in this world's name order.
+     */
+    public List<Region> findRegionsByPrefix(String prefix, int maxMatches)
+    {
+        return getNameIndex().findRegions(prefix, maxMatches);
+    }
+
+    /**
+     * Finds regions whose names or capitals are spelled like text, give
+     * or take a few typos, ignoring case and accents. How far off a
+     * spelling is counts the characters that would have to be inserted,
+     * deleted, or replaced to fix it. Note that this uses the same index
+     * as findRegionsByPrefix, which the first search of a world builds.
+     * 
+     * @param text The possibly misspelled name or capital.
+     * 
+     * @param maxDistance The most typos a match may have, usually 1 or 2.
+     * 
+     * @param maxMatches The most regions to find.
+     * 
+     * @return The matching regions, closest spellings first, at most
+     * maxMatches of them.
+     */
+    public List<Region> findRegionsBySpelling(String text, int maxDistance, int maxMatches)
+    {
+        return getNameIndex().findRegionsBySpelling(text, maxDistance, maxMatches);
+    }
+
+    /**
+     * Accessor method for getting a snapshot of this world, which is how
+     * other threads should read a world that's in concurrent mode. A
+     * snapshot is a compact, read-only world, so it can be read by any
+     * number of threads at once without locking, and it never changes,
+     * even as the writer goes on changing this world. To see those
+     * changes, get the snapshot again.
+     * 
+     * If the world has changed since the last snapshot was made, a new one
+     * is made now from the immutable version of the world the writer left
+     * when it last unlocked, so the writer is never held up while the world
+     * is copied. Only one reader at a time makes a snapshot, and since this
+     * never waits, the others get the last one in the meantime. Either way,
+     * all the changes made between two snapshots cost only one copy.
+     * 
+     * @return The world as it was after some write, usually the latest,
+     * or null if this world isn't in concurrent mode.
+     */
+    public WorldDataManager getSnapshot()
+    {
+        SnapshotSource source = snapshotSource;
+        if ((source == null) || (source == snapshotMadeFrom) || !snapshotLock.tryLock())
+        {
+            return snapshot;
+        }
+        try
+        {
+            // SOMEBODY MAY HAVE MADE ONE WHILE WE WERE GETTING THE LOCK
+            source = snapshotSource;
+            if ((source != null) && (source != snapshotMadeFrom))
+            {
+                snapshot = makeSnapshot(source);
+                snapshotMadeFrom = source;
+            }
+            return snapshot;
+        }
+        finally
+        {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Accessor method for getting an immutable version of this world as it
+     * is now. Making a version copies the world once, but from then on it
+     * can be forked and edited into any number of variants, each of which
+     * shares all but what it changed with the others. Since versions never
+     * change, the same one is returned again until the world does. In
+     * concurrent mode the world keeps one up to date anyway, so nothing is
+     * copied at all.
+     * 
+     * @return A WorldVersion holding all the regions of this world.
+     */
+    public WorldVersion getVersion()
+    {
+        writeLock.lock();
+        try
+        {
+            // IF THIS THREAD IS IN THE MIDDLE OF AN EDIT, THE WORLD MAY HAVE
+            // CHANGED WITHOUT numWrites KNOWING YET
+            boolean midEdit = writeLock.getHoldCount() > 1;
+            
+            // IN CONCURRENT MODE ONE'S KEPT UP TO DATE ANYWAY
+            if (!midEdit && (liveVersion != null))
+            {
+                return liveVersion;
+            }
+            if (midEdit || (version == null) || (versionNumWrites != numWrites))
+            {
+                WorldVersion newVersion = WorldVersion.of(world, allRegions.values(), nameLocale);
+                if (midEdit)
+                {
+                    return newVersion;
+                }
+                version = newVersion;
+                versionNumWrites = numWrites;
+            }
+            return version;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Accessor method for getting the locale whose order names are
+     * sorted in for this world.
+     * 
+     * @return The locale, or null if names are sorted by char.
+     */
+    public Locale getNameLocale()
+    {
+        return nameLocale;
+    }
+
+    /**
+     * Accessor method for getting the order all the sub regions in this
+     * world are kept in, which is by name in its locale's order.
+     * 
+     * @return Region.NAME_ORDER if this world has no name locale, and
+     * otherwise the collation order for its locale.
+     */
+    public Comparator<Region> getNameOrder()
+    {
+        return nameOrder;
+    }
+
+    /**
+     * Accessor method for testing if this world is being shared between
+     * threads, meaning it publishes snapshots for readers.
+     * 
+     * @return true if this world is in concurrent mode, false otherwise.
+     */
+    public boolean isConcurrent()
+    {
+        return concurrent;
+    }
+
+    /**
+     * Accessor method for testing if a transaction is under way.
+     * 
+     * @return true if beginTransaction has been called and the
+     * transaction has not yet been committed or rolled back.
+     */
+    public boolean isInTransaction()
+    {
+        return transaction != null;
+    }
+
     /**
      * Accessor method for getting the root of the world.
      * 
@@ -128,143 +472,1601 @@ public class WorldDataManager
     }
 
     /**
-     * Tests to see if the testRegion argument is part of the current
-     * world or not.
+     * Tests to see if the ancestor region contains the descendant region,
+     * meaning ancestor is on the path from the root to descendant. Note
+     * that a region counts as its own ancestor. This is answered in O(1)
+     * from the world's interval numbering rather than by walking paths.
      * 
-     * @param testRegion The region to test.
+     * @param ancestor The region that may contain the other.
      * 
-     * @return true if testRegion is in the current world, false otherwise.
+     * @param descendant The region that may be contained.
+     * 
+     * @return true if descendant is inside ancestor, false otherwise.
      */
-    public boolean hasRegion(Region testRegion)
+    public boolean isAncestor(Region ancestor, Region descendant)
     {
-        return (allRegions.containsKey(testRegion.getId()));
+        if (regionStore != null)
+        {
+            int ancestorIndex = getStoreIndex(ancestor);
+            int descendantIndex = getStoreIndex(descendant);
+            return (ancestorIndex != RegionStore.NO_REGION)
+                    && (descendantIndex != RegionStore.NO_REGION)
+                    && regionStore.isAncestor(ancestorIndex, descendantIndex);
+        }
+        return intervalIndex.isAncestor(ancestor, descendant);
     }
 
-    // MUTATOR METHODS
-    
     /**
-     * Mutator method for setting the root of the world.
+     * Accessor method for getting how far below the root of the world
+     * a region is.
      * 
-     * @param initRoot The region that will become the root of the world.
-     * All other regions will be descendant regions of this region.
+     * @param region The region to get the depth of.
+     * 
+     * @return The number of steps from the root to region, 0 for the root.
      */
-    public void setRoot(Region initRoot)
+    public int getDepth(Region region)
     {
-        // PUT THE ROOT IN THE LIST WITH ALL THE OTHER REGIONS
-        allRegions.put(initRoot.getId(), initRoot);
-        
-        // AND MAKE IT THE ROOT
-        world = initRoot;
+        if (regionStore != null)
+        {
+            return regionStore.getDepth(getStoreIndex(region));
+        }
+        return intervalIndex.getDepth(region);
     }
 
     /**
-     * Mutator method for setting the file reader/writer. Note that
-     * WorldImporterExporter is an interface, so a concrete 
-     * implementation of XML file reading and writing of a world
-     * must be provided by some other class.
+     * Accessor method for getting how many regions are in the subtree
+     * rooted at region.
      * 
-     * @param wie The XML region file reader/writer object.
+     * @param region The region at the top of the subtree.
+     * 
+     * @return The number of regions in the subtree, including region.
      */
-    public void setWorldImporterExporter(WorldImporterExporter wie)
+    public int getSubtreeSize(Region region)
     {
-        worldImporterExporter = wie;
+        if (regionStore != null)
+        {
+            return regionStore.getSubtreeSize(getStoreIndex(region));
+        }
+        return intervalIndex.getSubtreeSize(region);
     }
-    
-    // ADDITIONAL SERVICE METHODS
-    
+
     /**
-     * Adds a region to this world, which includes hooking up the linkage
-     * between the parent and child nodes.
+     * Finds the deepest region that contains both region1 and region2,
+     * which is where their paths from the root split apart. Note that a
+     * region counts as its own ancestor, so if one region contains the
+     * other then it is the answer. This takes O(log depth) steps.
      * 
-     * @param regionToAdd The node to add to this world.
+     * @param region1 One of the regions.
+     * 
+     * @param region2 The other region.
+     * 
+     * @return The lowest common ancestor of the two regions, null if
+     * they aren't part of the same tree.
      */
-    public void addRegion(Region regionToAdd, Region parentRegion)
+    public Region lowestCommonAncestor(Region region1, Region region2)
     {
-        allRegions.put(regionToAdd.getId(), regionToAdd);
-        if (parentRegion != null)
+        if (regionStore != null)
         {
-            parentRegion.addSubRegion(regionToAdd);
-            regionToAdd.setParentRegion(parentRegion);
+            int ancestorIndex = getStoreIndex(region1);
+            int otherIndex = getStoreIndex(region2);
+            while ((ancestorIndex != RegionStore.NO_REGION)
+                    && !regionStore.isAncestor(ancestorIndex, otherIndex))
+            {
+                ancestorIndex = regionStore.getParent(ancestorIndex);
+            }
+            return (ancestorIndex == RegionStore.NO_REGION) ? null : new CompactRegion(regionStore, ancestorIndex);
         }
+        return ancestorTable.lowestCommonAncestor(region1, region2);
     }
-     
+
     /**
-     * Adds a region to this world to the list of all regions, but does
-     * not add it to the world. That must be done by hooking up the
-     * parent and child nodes separately.
+     * Computes how far apart two regions are in the world, counting each
+     * step from a region to its parent or to one of its children.
      * 
-     * @param regionToAdd Region to add to the list of all regions.
+     * @param region1 One of the regions.
+     * 
+     * @param region2 The other region.
+     * 
+     * @return The number of steps between the regions, -1 if they aren't
+     * part of the same tree.
      */
-    public void addRegion(Region regionToAdd)
+    public int treeDistance(Region region1, Region region2)
     {
-        allRegions.put(regionToAdd.getId(), regionToAdd);
+        if (regionStore != null)
+        {
+            Region commonAncestor = lowestCommonAncestor(region1, region2);
+            if (commonAncestor == null)
+            {
+                return -1;
+            }
+            return getDepth(region1) + getDepth(region2) - (2 * getDepth(commonAncestor));
+        }
+        return ancestorTable.treeDistance(region1, region2);
     }
-  
+
     /**
-     * Removes all of the regions from the world.
+     * Tests to see if the world has been compacted, in which case it
+     * may be read but not changed.
+     * 
+     * @return true if the world is stored compactly, false otherwise.
      */
-    public void clearRegions()
+    public boolean isCompact()
     {
-        allRegions.clear();
+        return regionStore != null;
     }
- 
+
     /**
-     * Removes the regionToRemove argument from this world. Note that
-     * this method removes the region from the list of all regions
-     * and decouples it from its parent region.
+     * This method fills pathToFill with the sequence of nodes, in order,
+     * from the root of this world to the region provided as an argument.
+     * Unlike the LinkedList version, this allocates nothing as long as
+     * pathToFill is big enough, so callers that get paths often should
+     * keep one RegionPath around and reuse it. Note that in a compact
+     * world the Regions on the path are still made as they're reached.
      * 
-     * @param regionToRemove Region to remove from the world.
-     */    
-    public void removeRegion(Region regionToRemove)
+     * @param region The region we're looking to find a path to.
+     * 
+     * @param pathToFill The path to put all the Regions in, from the
+     * root of the world to the region argument.
+     * 
+     * @return pathToFill, for convenience.
+     */
+    public RegionPath getPathFromRoot(Region region, RegionPath pathToFill)
     {
-        allRegions.remove(regionToRemove.getId());
-        Region parentOfRegionToRemove = regionToRemove.getParentRegion();
-        if (parentOfRegionToRemove != null)
+        // WE KNOW THE LENGTH FROM THE CACHED DEPTH
+        int pathLength = getDepth(region) + 1;
+        pathToFill.reset(pathLength);
+        
+        // SO WE CAN FILL IT FROM THE BACK WHILE WALKING UP
+        Region regionToAdd = region;
+        for (int i = pathLength - 1; i >= 0; i--)
         {
-            parentOfRegionToRemove.removeSubRegion(regionToRemove);
+            pathToFill.set(i, regionToAdd);
+            regionToAdd = regionToAdd.getParentRegion();
         }
+        return pathToFill;
     }
 
     /**
-     * Empties the world of all regions spare one, a new one that will be
-     * the root world region with worldName as its name.
+     * This method fills pathToFill with the sequence of nodes, in order,
+     * from the region provided to the root of the world, allocating
+     * nothing as long as pathToFill is big enough, other than the Regions
+     * of a compact world.
      * 
-     * @param worldName The name of the new empty world we are resetting to.
+     * @param region The region we're looking to find a path from.
+     * 
+     * @param pathToFill The path to put all the Regions in, from region
+     * to the root of the world.
+     * 
+     * @return pathToFill, for convenience.
      */
-    public void reset(String worldName)
+    public RegionPath getPathToRoot(Region region, RegionPath pathToFill)
     {
-        // GET RID OF ALL REGIONS0
-        allRegions.clear();
-        
-        // AND NOW MAKE OUR ROOT WORLD REGION
-        world = new Region(worldName, worldName, RegionType.WORLD);
-        allRegions.put(worldName, world); 
-    }    
- 
-    // FILE READING/WRITING METHODS - NOTE THAT THESE FUNCTION 
-    // IMPLEMENTATIONS WOULD BE PROVIDED BY THE IMPORT/EXPORT PLUGIN
+        int pathLength = getDepth(region) + 1;
+        pathToFill.reset(pathLength);
+        Region regionToAdd = region;
+        for (int i = 0; i < pathLength; i++)
+        {
+            pathToFill.set(i, regionToAdd);
+            regionToAdd = regionToAdd.getParentRegion();
+        }
+        return pathToFill;
+    }
 
     /**
-     * Loads the contents of fileToLoad into this world.
+     * Tests to see if the testRegion argument is part of the current
+     * world or not.
      * 
-     * @param fileToLoad XML file that describes a world.
+     * @param testRegion The region to test.
      * 
-     * @return true if the world loaded successfully, false otherwise.
+     * @return true if testRegion is in the current world, false otherwise.
      */
-    public boolean load(File fileToLoad)
+    public boolean hasRegion(Region testRegion)
     {
-        return worldImporterExporter.loadWorld(fileToLoad, this);
-    } 
+        return (allRegions.containsKey(testRegion.getId()));
+    }
 
+    // MUTATOR METHODS
+    
     /**
-     * Saves the current world to the fileToSave file.
+     * Mutator method for setting the root of the world.
      * 
-     * @param fileToSave XML file to write this world to.
+     * @param initRoot The region that will become the root of the world.
+     * All other regions will be descendant regions of this region.
+     */
+    public void setRoot(Region initRoot)
+    {
+        lockForWriting();
+        try
+        {
+            // PUT THE ROOT IN THE LIST WITH ALL THE OTHER REGIONS
+            putRegion(initRoot);
+
+            // AND MAKE IT THE ROOT
+            world = initRoot;
+            intervalIndex.invalidate();
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Replaces all the regions in this world with editable copies of those
+     * in a version, for when a variant of the world is to be worked on or
+     * saved.
      * 
-     * @return true if the world saved successfully, false otherwise.
+     * @param versionToUse The version of the world to load.
      */
-    public boolean save(File fileToSave)
+    public void useVersion(WorldVersion versionToUse)
     {
-        return worldImporterExporter.saveWorld(fileToSave, this);
+        lockForWriting();
+        try
+        {
+            clearRegions();
+
+            // FIRST MAKE ALL THE REGIONS
+            HashMap<String, Region> newRegions = new HashMap(versionToUse.size() * 2);
+            for (Region versionRegion : versionToUse.getAllRegions())
+            {
+                Region region = new Region(versionRegion.getId(),
+                                           versionRegion.getName(),
+                                           versionRegion.getType());
+                region.setCapital(versionRegion.getCapital());
+                newRegions.put(region.getId(), region);
+                addRegion(region);
+            }
+
+            // THEN CONNECT THEM, ONE PARENT AT A TIME
+            for (Region versionRegion : versionToUse.getAllRegions())
+            {
+                if (versionRegion.hasSubRegions())
+                {
+                    Region region = newRegions.get(versionRegion.getId());
+                    ArrayList<Region> subRegions = new ArrayList();
+                    Iterator<Region> it = versionRegion.getSubRegions();
+                    while (it.hasNext())
+                    {
+                        Region subRegion = newRegions.get(it.next().getId());
+                        subRegion.setParentRegion(region);
+                        subRegions.add(subRegion);
+                    }
+                    region.addSubRegions(subRegions);
+                }
+            }
+            Region versionWorld = versionToUse.getWorld();
+            if (versionWorld != null)
+            {
+                setRoot(newRegions.get(versionWorld.getId()));
+            }
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Replaces all the regions in this world with those of loadedWorld,
+     * which is left empty. Nothing is copied: the regions, along with the
+     * index they're kept in, are simply handed over, so a world can be
+     * loaded on the side, where a bad file can't leave this one half
+     * loaded, and then swapped in. Note that this world then keeps its
+     * regions in whatever kind of RegionIndex loadedWorld did, and that
+     * they're sorted again if loadedWorld sorted names for another locale.
+     *
+     * @param loadedWorld The world whose regions this one should have.
+     *
+     * @throws IllegalArgumentException If loadedWorld is compact or is
+     * this world.
+     *
+     * @throws IllegalStateException If either world is in a transaction.
+     */
+    public void takeRegionsFrom(WorldDataManager loadedWorld)
+    {
+        if ((loadedWorld == this) || (loadedWorld.regionStore != null))
+        {
+            throw new IllegalArgumentException("Only another editable world's regions can be taken");
+        }
+        lockForWriting();
+        loadedWorld.lockForWriting();
+        try
+        {
+            if (loadedWorld.transaction != null)
+            {
+                throw new IllegalStateException("A world's regions can't be taken during a transaction");
+            }
+            clearRegions();
+
+            // OUR EMPTY INDEXES GO TO THE LOADED WORLD AND ITS FULL ONES
+            // COME TO US
+            RegionIndex emptyRegions = allRegions;
+            RegionTypeIndex emptyTypeIndex = typeIndex;
+            allRegions = loadedWorld.allRegions;
+            typeIndex = loadedWorld.typeIndex;
+            world = loadedWorld.world;
+            loadedWorld.allRegions = emptyRegions;
+            loadedWorld.typeIndex = emptyTypeIndex;
+            loadedWorld.world = null;
+            loadedWorld.nameIndex = null;
+            loadedWorld.intervalIndex.invalidate();
+            loadedWorld.dropLiveVersion();
+
+            // AND THE REGIONS ARE NOW OURS. WE GO THROUGH THEM BY TYPE SINCE
+            // THAT DOESN'T SORT THEM ALL BY ID FIRST
+            boolean resort = (nameLocale == null) ? (loadedWorld.nameLocale != null) : !nameLocale.equals(loadedWorld.nameLocale);
+            for (RegionType type : RegionType.values())
+            {
+                for (Region region : typeIndex.getRegions(type))
+                {
+                    region.setWorldDataManager(this);
+                    if (resort)
+                    {
+                        region.sortSubRegions();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            loadedWorld.unlockForWriting();
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Mutator method for setting the locale whose order names are sorted
+     * in, so that, for example, accented names sort next to unaccented
+     * ones rather than after Z. Every region's sub regions are sorted
+     * again, and from then on kept, in the new order, as are the regions
+     * found by the name searches. Note that the sub regions of a compact
+     * world keep the order they were packed in.
+     * 
+     * @param initNameLocale The locale to sort names for, or null to sort
+     * them by char, which is how a world starts out.
+     * 
+     * @throws IllegalStateException If a transaction is under way.
+     */
+    public void setNameLocale(Locale initNameLocale)
+    {
+        lockForWriting();
+        try
+        {
+            if (transaction != null)
+            {
+                throw new IllegalStateException("A world's name order can't be changed during a transaction");
+            }
+            nameLocale = initNameLocale;
+            nameOrder = (nameLocale == null) ? Region.NAME_ORDER : Region.getCollationOrder(nameLocale);
+            if (regionStore == null)
+            {
+                for (Region region : allRegions.values())
+                {
+                    region.sortSubRegions();
+                }
+            }
+            nameIndex = null;
+            dropLiveVersion();
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Mutator method for turning concurrent mode on or off. When it's
+     * turned on, a version of the world is made, which from then on is
+     * kept up to date as the world changes, and a first snapshot is made
+     * from it right away.
+     * 
+     * @param initConcurrent true if this world will be shared between
+     * threads, false otherwise.
+     */
+    public void setConcurrent(boolean initConcurrent)
+    {
+        lockForWriting();
+        try
+        {
+            concurrent = initConcurrent;
+            dropLiveVersion();
+            snapshotLock.lock();
+            try
+            {
+                snapshotSource = null;
+                snapshotMadeFrom = null;
+                snapshot = null;
+                if (concurrent)
+                {
+                    publishSnapshotSource();
+                    snapshot = makeSnapshot(snapshotSource);
+                    snapshotMadeFrom = snapshotSource;
+                }
+            }
+            finally
+            {
+                snapshotLock.unlock();
+            }
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Waits until no other thread is changing this world and then keeps
+     * it from doing so, until unlockForWriting is called. Every change to
+     * the world, including changes made to its regions, takes this lock
+     * by itself, so it's only needed to make several changes as one edit,
+     * which listeners then hear about together and readers never see half
+     * of. Note that it may be locked more than once by the same thread, as
+     * long as it's unlocked as many times.
+     */
+    public void lockForWriting()
+    {
+        writeLock.lock();
+    }
+
+    /**
+     * Lets other threads change this world again. When the last lock is
+     * released, the listeners hear about the changes, and in concurrent
+     * mode the version of the world is brought up to date and left for the
+     * next reader to make a snapshot from. That only touches the regions
+     * that changed, so it costs O(log n) for each of them, and nothing is
+     * ever copied here.
+     */
+    public void unlockForWriting()
+    {
+        List<WorldChangeEvent> changes = null;
+        try
+        {
+            if (writeLock.getHoldCount() == 1)
+            {
+                numWrites++;
+                if (concurrent)
+                {
+                    publishSnapshotSource();
+                }
+                changes = takePendingChanges();
+            }
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+        
+        // LISTENERS HEAR ABOUT THE EDIT ONCE IT'S DONE, SO THEY'RE FREE
+        // TO MAKE EDITS OF THEIR OWN
+        if (changes != null)
+        {
+            notifyChangeListeners(changes);
+        }
+    }
+
+    /**
+     * Starts a transaction, which locks the world for writing until it's
+     * committed or rolled back. All the changes made to the world and its
+     * regions in the meantime are kept or undone together. Note that,
+     * until the transaction is committed, sub regions may not be in order
+     * by name, and that the world can't be cleared, reset, or loaded.
+     * 
+     * @throws IllegalStateException If a transaction is already under way.
+     */
+    public void beginTransaction()
+    {
+        lockForWriting();
+        if (transaction != null)
+        {
+            unlockForWriting();
+            throw new IllegalStateException("A transaction is already under way");
+        }
+        transaction = new WorldTransaction(world, pendingChanges.size());
+        
+        // CHANGES FROM BEFORE MUST NOT BE MERGED WITH CHANGES THAT
+        // MAY BE ROLLED BACK
+        latestChanges.clear();
+    }
+
+    /**
+     * Keeps all the changes made since beginTransaction, sorting the sub
+     * regions of every region whose children or their names changed, and
+     * then unlocks the world.
+     * 
+     * @throws IllegalStateException If this thread has no transaction
+     * under way.
+     */
+    public void commitTransaction()
+    {
+        checkTransaction();
+        try
+        {
+            for (Region parent : transaction.getChangedParents())
+            {
+                parent.sortSubRegions();
+            }
+        }
+        finally
+        {
+            transaction = null;
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Undoes all the changes made since beginTransaction, and then unlocks
+     * the world. Listeners never hear about the undone changes.
+     * 
+     * @throws IllegalStateException If this thread has no transaction
+     * under way.
+     */
+    public void rollbackTransaction()
+    {
+        checkTransaction();
+        try
+        {
+            transaction.rollback(allRegions);
+            world = transaction.getSavedWorld();
+            
+            // THE INDEXES ARE SIMPLY REBUILT, SINCE ROLLING BACK IS RARE
+            typeIndex.clear();
+            for (Region region : allRegions.values())
+            {
+                typeIndex.add(region);
+            }
+            nameIndex = null;
+            intervalIndex.invalidate();
+            
+            // AND THE UNDONE CHANGES NEVER HAPPENED
+            int numPendingChanges = transaction.getSavedNumPendingChanges();
+            pendingChanges.subList(numPendingChanges, pendingChanges.size()).clear();
+            latestChanges.clear();
+        }
+        finally
+        {
+            transaction = null;
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Makes all the changes done by edits as one transaction, which is
+     * committed if edits finishes and rolled back if it throws.
+     * 
+     * @param edits Makes the changes to this world.
+     */
+    public void batch(Runnable edits)
+    {
+        beginTransaction();
+        boolean committed = false;
+        try
+        {
+            edits.run();
+            committed = true;
+            commitTransaction();
+        }
+        finally
+        {
+            if (!committed)
+            {
+                rollbackTransaction();
+            }
+        }
+    }
+
+    /**
+     * Private helper method that makes sure the current thread is the
+     * one with a transaction under way.
+     */
+    private void checkTransaction()
+    {
+        if ((transaction == null) || !writeLock.isHeldByCurrentThread())
+        {
+            throw new IllegalStateException("No transaction is under way");
+        }
+    }
+
+    /**
+     * Registers listener to be told about all changes to this world.
+     * 
+     * @param listener The object to notify of changes.
+     */
+    public void addWorldChangeListener(WorldChangeListener listener)
+    {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Stops telling listener about changes to this world.
+     * 
+     * @param listener The object to stop notifying.
+     */
+    public void removeWorldChangeListener(WorldChangeListener listener)
+    {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Mutator method for setting the file reader/writer. Note that
+     * WorldImporterExporter is an interface, so a concrete 
+     * implementation of XML file reading and writing of a world
+     * must be provided by some other class.
+     * 
+     * @param wie The XML region file reader/writer object.
+     */
+    public void setWorldImporterExporter(WorldImporterExporter wie)
+    {
+        worldImporterExporter = wie;
+    }
+    
+    // ADDITIONAL SERVICE METHODS
+    
+    /**
+     * Adds a region to this world, which includes hooking up the linkage
+     * between the parent and child nodes.
+     * 
+     * @param regionToAdd The node to add to this world.
+     */
+    public void addRegion(Region regionToAdd, Region parentRegion)
+    {
+        lockForWriting();
+        try
+        {
+            putRegion(regionToAdd);
+            if (parentRegion != null)
+            {
+                parentRegion.addSubRegion(regionToAdd);
+                regionToAdd.setParentRegion(parentRegion);
+            }
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+     
+    /**
+     * Adds many regions to this world as children of the same parent,
+     * which includes hooking up the linkage between the parent and child
+     * nodes. The parent's list of sub regions is sorted only once, so
+     * this should be preferred to repeated addRegion calls when loading.
+     * 
+     * @param regionsToAdd The nodes to add to this world.
+     * 
+     * @param parentRegion The region that all of them belong to.
+     */
+    public void addRegions(Collection<Region> regionsToAdd, Region parentRegion)
+    {
+        lockForWriting();
+        try
+        {
+            for (Region regionToAdd : regionsToAdd)
+            {
+                putRegion(regionToAdd);
+                if (parentRegion != null)
+                {
+                    regionToAdd.setParentRegion(parentRegion);
+                }
+            }
+            if (parentRegion != null)
+            {
+                parentRegion.addSubRegions(regionsToAdd);
+            }
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+     
+    /**
+     * Adds a region to this world to the list of all regions, but does
+     * not add it to the world. That must be done by hooking up the
+     * parent and child nodes separately.
+     * 
+     * @param regionToAdd Region to add to the list of all regions.
+     */
+    public void addRegion(Region regionToAdd)
+    {
+        lockForWriting();
+        try
+        {
+            putRegion(regionToAdd);
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+  
+    /**
+     * Removes all of the regions from the world.
+     */
+    public void clearRegions()
+    {
+        lockForWriting();
+        try
+        {
+            if (transaction != null)
+            {
+                throw new IllegalStateException("A world can't be replaced during a transaction");
+            }
+
+            // A NEW WORLD IS ALWAYS EDITABLE
+            releaseRegionStore();
+            allRegions.clear();
+            world = null;
+            dropLiveVersion();
+            typeIndex.clear();
+            nameIndex = null;
+            intervalIndex.invalidate();
+            fireChange(WorldChangeType.WORLD_REPLACED, null, null, null);
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Packs the whole world into a compact, read-only RegionStore, which
+     * takes far less memory than keeping a Region object for each region.
+     * All the Region objects are released, and from here on regions are
+     * provided as views that are made when asked for and can be thrown
+     * away. Note that each view is still about as big as an empty Region,
+     * so holding on to lots of them gives back much of what compacting
+     * saves. Also note that any attempt to change the world will throw an
+     * UnsupportedOperationException until it is cleared or reset.
+     */
+    public void compact()
+    {
+        lockForWriting();
+        try
+        {
+            if ((regionStore == null) && (world != null))
+            {
+                useRegionStore(ArrayRegionStore.pack(world, allRegions.values()));
+            }
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Makes storeToUse the storage for the whole world, replacing
+     * whatever regions are currently in it. Note that, as with a
+     * compacted world, the world will then be read-only until it
+     * is cleared or reset.
+     * 
+     * @param storeToUse The store containing all the regions of the world.
+     */
+    public void useRegionStore(RegionStore storeToUse)
+    {
+        lockForWriting();
+        try
+        {
+            // LET GO OF ALL THE CURRENT REGIONS
+            clearRegions();
+            editableRegions = allRegions;
+
+            // AND FROM NOW ON GET EVERYTHING FROM THE STORE
+            regionStore = storeToUse;
+            allRegions = new CompactRegionIndex(regionStore);
+            world = new CompactRegion(regionStore, RegionStore.ROOT_REGION);
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Private helper method that goes back to storing Region objects
+     * if the world had been compacted.
+     */
+    private void releaseRegionStore()
+    {
+        if (regionStore != null)
+        {
+            allRegions = editableRegions;
+            editableRegions = null;
+            regionStore = null;
+            world = null;
+        }
+    }
+ 
+    /**
+     * Removes the regionToRemove argument from this world. Note that
+     * this method removes the region from the list of all regions
+     * and decouples it from its parent region, but leaves its sub
+     * regions in the world. To remove them too use removeSubtree.
+     * 
+     * @param regionToRemove Region to remove from the world.
+     */    
+    public void removeRegion(Region regionToRemove)
+    {
+        lockForWriting();
+        try
+        {
+            boolean wasInWorld = isInWorld(regionToRemove);
+            if (transaction != null)
+            {
+                transaction.saveRegion(regionToRemove, wasInWorld);
+                saveParentSubRegions(regionToRemove);
+            }
+            if (wasInWorld)
+            {
+                typeIndex.remove(regionToRemove);
+                if (nameIndex != null)
+                {
+                    nameIndex.remove(regionToRemove);
+                }
+            }
+            if (wasInWorld)
+            {
+                liveVersionChanging(regionToRemove);
+            }
+            allRegions.remove(regionToRemove.getId());
+            Region parentOfRegionToRemove = regionToRemove.getParentRegion();
+            if (parentOfRegionToRemove != null)
+            {
+                parentOfRegionToRemove.removeSubRegion(regionToRemove);
+            }
+            regionToRemove.setWorldDataManager(null);
+            if (wasInWorld)
+            {
+                fireChange(WorldChangeType.REGION_REMOVED, regionToRemove, parentOfRegionToRemove, null);
+            }
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Moves regionToMove, along with all its descendants, to be a child
+     * of newParent. Only the two parents' lists of sub regions change, so
+     * this is quick no matter how big the subtree is. Note that moving a
+     * subtree, as opposed to a single region, means the ancestry numbering
+     * is redone the next time an ancestry query is made.
+     * 
+     * @param regionToMove The region to move.
+     * 
+     * @param newParent The region it will belong to.
+     * 
+     * @throws IllegalArgumentException If newParent is null, if either
+     * region isn't in this world, or if newParent is regionToMove or one
+     * of its descendants.
+     */
+    public void moveRegion(Region regionToMove, Region newParent)
+    {
+        if (newParent == null)
+        {
+            throw new IllegalArgumentException("A region can't be moved out of the world");
+        }
+        
+        lockForWriting();
+        try
+        {
+            // MOVING A REGION OF ANOTHER WORLD, OR TO ONE, WOULD LEAVE IT IN
+            // ONE WORLD'S INDICES BUT THE OTHER'S TREE. A COMPACT WORLD'S
+            // REGIONS REFUSE TO BE MOVED BY THEMSELVES
+            if ((regionStore == null) && (!isInWorld(regionToMove) || !isInWorld(newParent)))
+            {
+                throw new IllegalArgumentException("Only regions of this world can be moved within it");
+            }
+            
+            // A REGION CAN'T BE MOVED INSIDE ITSELF, WHICH WE CHECK WHILE
+            // LOCKED SO NO OTHER WRITER CAN CHANGE THE ANSWER
+            Region ancestor = newParent;
+            while (ancestor != null)
+            {
+                if (ancestor == regionToMove)
+                {
+                    throw new IllegalArgumentException(newParent + " is inside of " + regionToMove);
+                }
+                ancestor = ancestor.getParentRegion();
+            }
+            
+            Region oldParent = regionToMove.getParentRegion();
+            if (oldParent == newParent)
+            {
+                return;
+            }
+            if (oldParent != null)
+            {
+                saveParentSubRegions(regionToMove);
+                oldParent.removeSubRegion(regionToMove);
+            }
+            regionToMove.setParentRegion(newParent);
+            newParent.addSubRegion(regionToMove);
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Removes subtreeRoot and all of its descendants from this world,
+     * taking each one out of the list of all regions and the secondary
+     * indices as the subtree is walked. Only subtreeRoot is decoupled
+     * from its parent, in both directions, so the removed regions keep
+     * their links to each other, but nothing in the world refers to any
+     * of them anymore and they don't refer to it. Nothing happens if
+     * subtreeRoot isn't in this world.
+     * 
+     * @param subtreeRoot The top region of the subtree to remove.
+     */
+    public void removeSubtree(Region subtreeRoot)
+    {
+        lockForWriting();
+        try
+        {
+            // ANOTHER WORLD'S REGION, OR ONE ALREADY GONE, ISN'T OURS TO CUT LOOSE
+            if (!isInWorld(subtreeRoot))
+            {
+                return;
+            }
+            
+            // WALK THE SUBTREE, TAKING REGIONS OUT OF THE WORLD AS WE GO
+            ArrayList<Region> regionsToVisit = new ArrayList();
+            ArrayList<Region> removedRegions = new ArrayList();
+            regionsToVisit.add(subtreeRoot);
+            while (!regionsToVisit.isEmpty())
+            {
+                Region region = regionsToVisit.remove(regionsToVisit.size() - 1);
+                if (!isInWorld(region))
+                {
+                    // IT'S ALREADY GONE, AND SO ARE ITS DESCENDANTS
+                    continue;
+                }
+                if (transaction != null)
+                {
+                    transaction.saveRegion(region, true);
+                }
+                liveVersionChanging(region);
+                allRegions.remove(region.getId());
+                typeIndex.remove(region);
+                if (nameIndex != null)
+                {
+                    nameIndex.remove(region);
+                }
+                region.setWorldDataManager(null);
+                removedRegions.add(region);
+                
+                Iterator<Region> it = region.getSubRegions();
+                while (it.hasNext())
+                {
+                    regionsToVisit.add(it.next());
+                }
+            }
+            
+            // NOW THAT NONE OF THEM ARE IN THE WORLD, CUT THE SUBTREE LOOSE
+            Region parentOfSubtree = subtreeRoot.getParentRegion();
+            if (parentOfSubtree != null)
+            {
+                saveParentSubRegions(subtreeRoot);
+                parentOfSubtree.removeSubRegion(subtreeRoot);
+            }
+            if (subtreeRoot == world)
+            {
+                world = null;
+            }
+            intervalIndex.invalidate();
+            
+            for (Region removedRegion : removedRegions)
+            {
+                fireChange(WorldChangeType.REGION_REMOVED, removedRegion, removedRegion.getParentRegion(), null);
+            }
+            
+            // SO HOLDING ON TO THE SUBTREE DOESN'T KEEP THE REST OF THE WORLD
+            // AROUND. A ROLLBACK PUTS THIS BACK TOO
+            subtreeRoot.setParentRegion(null);
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Empties the world of all regions spare one, a new one that will be
+     * the root world region with worldName as its name.
+     * 
+     * @param worldName The name of the new empty world we are resetting to.
+     */
+    public void reset(String worldName)
+    {
+        lockForWriting();
+        try
+        {
+            // GET RID OF ALL REGIONS0
+            clearRegions();
+
+            // AND NOW MAKE OUR ROOT WORLD REGION
+            world = new Region(worldName, worldName, RegionType.WORLD);
+            putRegion(world);
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    }    
+    
+    // METHODS CALLED BY REGIONS OF THIS WORLD WHEN THEY CHANGE
+    
+    /**
+     * Called by a region of this world just before its name, capital,
+     * type, or parent is changed.
+     * 
+     * @param region The region that's about to change.
+     */
+    void regionChanging(Region region)
+    {
+        liveVersionChanging(region);
+        if (transaction != null)
+        {
+            transaction.saveRegion(region, isInWorld(region));
+        }
+    }
+
+    /**
+     * Called by a region of this world just before it gains or loses
+     * child regions.
+     * 
+     * @param parentRegion The region whose children are about to change.
+     * 
+     * @return true if a transaction is under way, in which case the
+     * region's children will be sorted when it's committed, false if
+     * the region should keep them sorted itself.
+     */
+    boolean subRegionsChanging(Region parentRegion)
+    {
+        if (transaction != null)
+        {
+            transaction.saveSubRegions(parentRegion);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Called by a region of this world when it gets a new child region.
+     * 
+     * @param parentRegion The region the child was added to.
+     * 
+     * @param subRegion The new child region.
+     */
+    void subRegionAdded(Region parentRegion, Region subRegion)
+    {
+        if (isInWorld(parentRegion))
+        {
+            liveVersionChanging(subRegion);
+            if (transaction != null)
+            {
+                intervalIndex.invalidate();
+            }
+            else
+            {
+                intervalIndex.subRegionAdded(parentRegion, subRegion);
+            }
+            if (isInWorld(subRegion))
+            {
+                fireChange(WorldChangeType.REGION_MOVED, subRegion, null, parentRegion);
+            }
+        }
+    }
+
+    /**
+     * Called by a region of this world when it gets many new child
+     * regions at once.
+     * 
+     * @param parentRegion The region the children were added to.
+     * 
+     * @param subRegions The new child regions.
+     */
+    void subRegionsAdded(Region parentRegion, Collection<Region> subRegions)
+    {
+        if (isInWorld(parentRegion))
+        {
+            intervalIndex.invalidate();
+            for (Region subRegion : subRegions)
+            {
+                liveVersionChanging(subRegion);
+            }
+            if (!changeListeners.isEmpty())
+            {
+                for (Region subRegion : subRegions)
+                {
+                    if (isInWorld(subRegion))
+                    {
+                        fireChange(WorldChangeType.REGION_MOVED, subRegion, null, parentRegion);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by a region of this world when one of its child regions
+     * is taken away.
+     * 
+     * @param parentRegion The region the child was removed from.
+     * 
+     * @param subRegion The removed child region.
+     */
+    void subRegionRemoved(Region parentRegion, Region subRegion)
+    {
+        if (isInWorld(parentRegion))
+        {
+            liveVersionChanging(subRegion);
+            if (transaction != null)
+            {
+                intervalIndex.invalidate();
+            }
+            else
+            {
+                intervalIndex.subRegionRemoved(parentRegion, subRegion);
+            }
+            
+            // A REGION THAT'S BEING REMOVED FROM THE WORLD IS ALREADY GONE
+            if (isInWorld(subRegion))
+            {
+                fireChange(WorldChangeType.REGION_MOVED, subRegion, parentRegion, null);
+            }
+        }
+    }
+
+    /**
+     * Called by a region of this world when its type is changed.
+     * 
+     * @param region The region whose type changed.
+     * 
+     * @param oldType The type it used to have.
+     */
+    void regionTypeChanged(Region region, RegionType oldType)
+    {
+        if (isInWorld(region))
+        {
+            typeIndex.typeChanged(region, oldType);
+            fireChange(WorldChangeType.REGION_RETYPED, region, oldType, region.getType());
+        }
+    }
+
+    /**
+     * Called by a region of this world when its name is changed.
+     * 
+     * @param region The region that changed.
+     * 
+     * @param oldName The name it used to have.
+     */
+    void regionRenamed(Region region, String oldName)
+    {
+        if (isInWorld(region))
+        {
+            // ITS PARENT WILL NEED TO PUT IT IN ITS NEW PLACE
+            if ((transaction != null) && (region.getParentRegion() != null))
+            {
+                transaction.saveSubRegions(region.getParentRegion());
+            }
+            if (nameIndex != null)
+            {
+                nameIndex.regionRenamed(region, oldName);
+            }
+            fireChange(WorldChangeType.REGION_RENAMED, region, oldName, region.getName());
+        }
+    }
+
+    /**
+     * Called by a region of this world when its capital is changed.
+     * 
+     * @param region The region that changed.
+     * 
+     * @param oldCapital The capital it used to have.
+     */
+    void regionCapitalChanged(Region region, String oldCapital)
+    {
+        if (isInWorld(region))
+        {
+            if (nameIndex != null)
+            {
+                nameIndex.textChanged(region, oldCapital, region.getCapital());
+            }
+            fireChange(WorldChangeType.CAPITAL_CHANGED, region, oldCapital, region.getCapital());
+        }
+    }
+
+    /**
+     * Private helper method for recording a change to the world, which is
+     * passed on to the listeners right away unless it's part of an edit,
+     * in which case it waits for the edit to be done. Note that a change
+     * to a region that already has a change of the same kind waiting is
+     * merged into that one.
+     */
+    private void fireChange(WorldChangeType type, Region region, Object oldValue, Object newValue)
+    {
+        if (changeListeners.isEmpty())
+        {
+            return;
+        }
+        
+        // ONCE THE WHOLE WORLD IS REPLACED, NOTHING ELSE IN THE BATCH MATTERS
+        if (!pendingChanges.isEmpty()
+                && (pendingChanges.get(0).getType() == WorldChangeType.WORLD_REPLACED))
+        {
+            return;
+        }
+        if (type == WorldChangeType.WORLD_REPLACED)
+        {
+            pendingChanges.clear();
+            latestChanges.clear();
+            pendingChanges.add(new WorldChangeEvent(type, null, null, null));
+        }
+        else
+        {
+            Integer latestIndex = latestChanges.get(region);
+            WorldChangeEvent latest = (latestIndex == null) ? null : pendingChanges.get(latestIndex);
+            if ((latest != null)
+                    && (latest.getType() == type)
+                    && (type != WorldChangeType.REGION_ADDED)
+                    && (type != WorldChangeType.REGION_REMOVED))
+            {
+                // LIKE A REGION BEING RENAMED TWICE
+                pendingChanges.set(latestIndex, new WorldChangeEvent(type, region, latest.getOldValue(), newValue));
+            }
+            else if ((latest != null)
+                    && (latest.getType() == WorldChangeType.REGION_ADDED)
+                    && (type == WorldChangeType.REGION_MOVED))
+            {
+                // LIKE A NEW REGION BEING PUT IN ITS PARENT
+                pendingChanges.set(latestIndex, new WorldChangeEvent(latest.getType(), region, null, newValue));
+            }
+            else
+            {
+                latestChanges.put(region, pendingChanges.size());
+                pendingChanges.add(new WorldChangeEvent(type, region, oldValue, newValue));
+            }
+        }
+        
+        // A CHANGE MADE OUTSIDE OF AN EDIT IS A BATCH ALL BY ITSELF
+        if (!writeLock.isHeldByCurrentThread())
+        {
+            notifyChangeListeners(takePendingChanges());
+        }
+    }
+
+    /**
+     * Private helper method for getting the current batch of changes and
+     * starting a new one.
+     */
+    private List<WorldChangeEvent> takePendingChanges()
+    {
+        if (pendingChanges.isEmpty())
+        {
+            return null;
+        }
+        List<WorldChangeEvent> changes = Collections.unmodifiableList(new ArrayList(pendingChanges));
+        pendingChanges.clear();
+        latestChanges.clear();
+        return changes;
+    }
+
+    /**
+     * Private helper method for telling all the listeners about a batch
+     * of changes. Listeners may come and go while being told.
+     */
+    private void notifyChangeListeners(List<WorldChangeEvent> changes)
+    {
+        if (changes == null)
+        {
+            return;
+        }
+        ArrayList<WorldChangeListener> listenersToNotify = new ArrayList(changeListeners);
+        for (WorldChangeListener listener : listenersToNotify)
+        {
+            listener.worldChanged(changes);
+        }
+    }
+
+    /**
+     * Private helper method for getting the index of names and capitals,
+     * building it if this is the first time it's needed.
+     */
+    private RegionNameIndex getNameIndex()
+    {
+        RegionNameIndex index = nameIndex;
+        if (index == null)
+        {
+            index = new RegionNameIndex(allRegions.values(), nameOrder);
+            nameIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Private helper method for leaving what the next snapshot is to be
+     * made from, which must be done while holding the write lock. The
+     * version of the world is brought up to date with the regions that
+     * changed since it was last, unless the whole world changed. A
+     * compacted world can't change, so its store is simply shared with
+     * the snapshot instead.
+     */
+    private void publishSnapshotSource()
+    {
+        SnapshotSource source = snapshotSource;
+        if (regionStore != null)
+        {
+            dropLiveVersion();
+            if ((source == null) || (source.store != regionStore))
+            {
+                snapshotSource = new SnapshotSource(null, regionStore, nameOrder, nameLocale, worldImporterExporter);
+            }
+            return;
+        }
+        if (liveVersionStale)
+        {
+            liveVersion = WorldVersion.of(world, allRegions.values(), nameLocale);
+        }
+        else if (!liveVersionChanges.isEmpty())
+        {
+            liveVersion = liveVersion.withChanges(liveVersionChanges, allRegions, world);
+            if (liveVersion == null)
+            {
+                liveVersion = WorldVersion.of(world, allRegions.values(), nameLocale);
+            }
+        }
+        liveVersionChanges.clear();
+        liveVersionStale = false;
+        if ((source == null) || (source.version != liveVersion))
+        {
+            snapshotSource = new SnapshotSource(liveVersion, null, nameOrder, nameLocale, worldImporterExporter);
+        }
+    }
+
+    /**
+     * Private helper method for making a snapshot, a compact, read-only
+     * world, from what the writer left for it. This is done by readers,
+     * without the write lock, which is safe since nothing in the source
+     * ever changes.
+     */
+    private static WorldDataManager makeSnapshot(SnapshotSource source)
+    {
+        WorldDataManager newSnapshot = new WorldDataManager();
+        newSnapshot.setWorldImporterExporter(source.worldImporterExporter);
+        newSnapshot.nameLocale = source.nameLocale;
+        newSnapshot.nameOrder = source.nameOrder;
+        RegionStore snapshotStore = source.store;
+        if ((snapshotStore == null) && (source.version.getWorld() != null))
+        {
+            snapshotStore = ArrayRegionStore.pack(source.version.getWorld(), source.version.getAllRegions());
+        }
+        if (snapshotStore != null)
+        {
+            newSnapshot.useRegionStore(snapshotStore);
+        }
+        return newSnapshot;
+    }
+
+    /**
+     * Private helper method called before a region is added, removed, or
+     * changed, or its place in the world changes, so that the version kept
+     * in concurrent mode can be brought up to date when the world is
+     * unlocked.
+     */
+    private void liveVersionChanging(Region region)
+    {
+        if (concurrent && !liveVersionStale)
+        {
+            liveVersionChanges.add(region.getId());
+        }
+    }
+
+    /**
+     * Private helper method for throwing away the version kept in
+     * concurrent mode, when the whole world changes, so that a new one is
+     * made when the world is unlocked.
+     */
+    private void dropLiveVersion()
+    {
+        liveVersion = null;
+        liveVersionChanges.clear();
+        liveVersionStale = true;
+    }
+
+    /**
+     * Private helper method for putting a region in the list of all
+     * regions and the secondary indices, replacing any other region
+     * that had the same id.
+     */
+    private void putRegion(Region region)
+    {
+        if (transaction != null)
+        {
+            Region regionToReplace = allRegions.get(region.getId());
+            if ((regionToReplace != null) && (regionToReplace != region))
+            {
+                transaction.saveRegion(regionToReplace, true);
+            }
+            transaction.saveRegion(region, regionToReplace == region);
+        }
+        liveVersionChanging(region);
+        Region replacedRegion = allRegions.put(region.getId(), region);
+        region.setWorldDataManager(this);
+        if (replacedRegion == region)
+        {
+            // IT'S ALREADY INDEXED
+            return;
+        }
+        fireChange(WorldChangeType.REGION_ADDED, region, null, region.getParentRegion());
+        if (replacedRegion != null)
+        {
+            typeIndex.remove(replacedRegion);
+            if (nameIndex != null)
+            {
+                nameIndex.remove(replacedRegion);
+            }
+        }
+        typeIndex.add(region);
+        if (nameIndex != null)
+        {
+            nameIndex.add(region);
+        }
+    }
+
+    /**
+     * Private helper method called before region is taken out of its
+     * parent's sub regions, so that a transaction can put them back. The
+     * parent may have been removed from the world already, in which case
+     * it doesn't tell us itself, but a rollback may still bring it back.
+     */
+    private void saveParentSubRegions(Region region)
+    {
+        if ((transaction != null) && (region.getParentRegion() != null))
+        {
+            transaction.saveSubRegions(region.getParentRegion());
+        }
+    }
+
+    /**
+     * Private helper method for telling if region is currently part of
+     * this world, as opposed to a region that has since been removed.
+     */
+    private boolean isInWorld(Region region)
+    {
+        return (regionStore == null) && (allRegions.get(region.getId()) == region);
+    }
+
+    /**
+     * Private helper method for finding a region's index in the region
+     * store of a compact world.
+     */
+    private int getStoreIndex(Region region)
+    {
+        if ((region instanceof CompactRegion)
+                && (((CompactRegion)region).getStore() == regionStore))
+        {
+            return ((CompactRegion)region).getIndex();
+        }
+        return regionStore.findRegion(region.getId());
+    }
+ 
+    // FILE READING/WRITING METHODS - NOTE THAT THESE FUNCTION 
+    // IMPLEMENTATIONS WOULD BE PROVIDED BY THE IMPORT/EXPORT PLUGIN
+
+    /**
+     * Loads the contents of fileToLoad into this world.
+     * 
+     * @param fileToLoad XML file that describes a world.
+     * 
+     * @return true if the world loaded successfully, false otherwise.
+     */
+    public boolean load(File fileToLoad)
+    {
+        lockForWriting();
+        try
+        {
+            return worldImporterExporter.loadWorld(fileToLoad, this);
+        }
+        finally
+        {
+            unlockForWriting();
+        }
+    } 
+
+    /**
+     * Saves the current world to the fileToSave file.
+     * 
+     * @param fileToSave XML file to write this world to.
+     * 
+     * @return true if the world saved successfully, false otherwise.
+     */
+    public boolean save(File fileToSave)
+    {
+        return worldImporterExporter.saveWorld(fileToSave, this);
+    }
+
+    /**
+     * Opens a world previously saved with saveMapped, memory-mapping it
+     * rather than loading it. Regions are then read straight out of the
+     * file as they are used, so even worlds far larger than the heap can
+     * be opened almost instantly. Note that the world is read-only until
+     * it is cleared or reset.
+     * 
+     * @param fileToOpen Region store file that describes a world.
+     * 
+     * @return true if the world opened successfully, false otherwise.
+     */
+    public boolean loadMapped(File fileToOpen)
+    {
+        try
+        {
+            useRegionStore(MappedRegionStore.open(fileToOpen));
+            return true;
+        }
+        catch(IOException ioe)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Saves the current world to the fileToSave file as a region store,
+     * which can later be opened with loadMapped. If the save fails,
+     * whatever was in fileToSave before is left as it was.
+     * 
+     * @param fileToSave Region store file to write this world to.
+     * 
+     * @return true if the world saved successfully, false otherwise,
+     * including when there's no world to save.
+     */
+    public boolean saveMapped(File fileToSave)
+    {
+        if (world == null)
+        {
+            return false;
+        }
+        try
+        {
+            RegionStore storeToSave = regionStore;
+            if (storeToSave == null)
+            {
+                storeToSave = ArrayRegionStore.pack(world, allRegions.values());
+            }
+            MappedRegionStore.write(storeToSave, fileToSave);
+            return true;
+        }
+        catch(IOException | IllegalStateException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Everything a reader needs to make a snapshot of the world as it was
+     * when the writer last unlocked it, none of which ever changes. It
+     * holds either a version of the world or, if the world is compact,
+     * the store the snapshot shares with it.
+     */
+    private static final class SnapshotSource
+    {
+        final WorldVersion version;
+        final RegionStore store;
+        final Comparator<Region> nameOrder;
+        final Locale nameLocale;
+        final WorldImporterExporter worldImporterExporter;
+
+        SnapshotSource(WorldVersion initVersion, RegionStore initStore, Comparator<Region> initNameOrder,
+                       Locale initNameLocale, WorldImporterExporter initWorldImporterExporter)
+        {
+            version = initVersion;
+            store = initStore;
+            nameOrder = initNameOrder;
+            nameLocale = initNameLocale;
+            worldImporterExporter = initWorldImporterExporter;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A WorldTransaction keeps track of what a world looked like before a
+ * group of changes was made to it, so that the whole group can either be
+ * kept or undone. Rather than logging every change, it saves each region
+ * and each list of sub regions the first time the transaction touches
+ * them, which keeps rolling back cheap even when the same regions are
+ * changed over and over. The saved lists of sub regions also tell us
+ * which parents need their children sorted when the changes are kept.
+ *
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+class WorldTransaction
+{
+    // EVERY REGION THE TRANSACTION HAS CHANGED, AS IT WAS BEFOREHAND
+    private IdentityHashMap<Region, SavedRegion> savedRegions;
+
+    // EVERY PARENT WHOSE CHILDREN HAVE CHANGED, WITH ITS CHILDREN
+    // AS THEY WERE BEFOREHAND
+    private IdentityHashMap<Region, ArrayList<Region>> savedSubRegions;
+
+    // THE ROOT OF THE WORLD BEFOREHAND
+    private Region savedWorld;
+
+    // HOW MANY CHANGES WERE WAITING FOR LISTENERS BEFOREHAND
+    private int savedNumPendingChanges;
+
+    /**
+     * Constructor for starting a transaction on a world.
+     *
+     * @param initWorld The root of the world as it is now.
+     *
+     * @param initNumPendingChanges How many changes are already waiting
+     * to be sent to listeners.
+     */
+    WorldTransaction(Region initWorld, int initNumPendingChanges)
+    {
+        savedRegions = new IdentityHashMap();
+        savedSubRegions = new IdentityHashMap();
+        savedWorld = initWorld;
+        savedNumPendingChanges = initNumPendingChanges;
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Accessor method for getting the root the world had when the
+     * transaction began.
+     */
+    Region getSavedWorld()                  { return savedWorld;                }
+
+    /**
+     * Accessor method for getting how many changes were waiting for
+     * listeners when the transaction began.
+     */
+    int getSavedNumPendingChanges()         { return savedNumPendingChanges;    }
+
+    /**
+     * Accessor method for getting all the parents whose children were
+     * changed by this transaction.
+     */
+    Iterable<Region> getChangedParents()    { return savedSubRegions.keySet();  }
+
+    // MUTATOR METHODS
+
+    /**
+     * Saves region as it is now, unless it was already saved, since only
+     * the way it was before the transaction matters.
+     *
+     * @param region The region that's about to change.
+     *
+     * @param inWorld true if the region is currently part of the world.
+     */
+    void saveRegion(Region region, boolean inWorld)
+    {
+        if (!savedRegions.containsKey(region))
+        {
+            savedRegions.put(region, new SavedRegion(region, inWorld));
+        }
+    }
+
+    /**
+     * Saves parent's list of sub regions as it is now, unless it was
+     * already saved.
+     *
+     * @param parent The region whose children are about to change.
+     */
+    void saveSubRegions(Region parent)
+    {
+        if (!savedSubRegions.containsKey(parent))
+        {
+            savedSubRegions.put(parent, parent.copySubRegions());
+        }
+    }
+
+    /**
+     * Puts every region and list of sub regions back the way it was
+     * before the transaction. Regions are put back in the world's list
+     * of all regions only after those that weren't in it are taken out,
+     * since a new region may have replaced an old one with the same id.
+     *
+     * @param allRegions The world's list of all its regions.
+     */
+    void rollback(RegionIndex allRegions)
+    {
+        for (Map.Entry<Region, SavedRegion> entry : savedRegions.entrySet())
+        {
+            Region region = entry.getKey();
+            SavedRegion saved = entry.getValue();
+            region.restore(saved.name, saved.capital, saved.type, saved.parentRegion, saved.worldDataManager);
+            if (!saved.inWorld && (allRegions.get(region.getId()) == region))
+            {
+                allRegions.remove(region.getId());
+            }
+        }
+        for (Map.Entry<Region, SavedRegion> entry : savedRegions.entrySet())
+        {
+            if (entry.getValue().inWorld)
+            {
+                Region region = entry.getKey();
+                allRegions.put(region.getId(), region);
+            }
+        }
+        for (Map.Entry<Region, ArrayList<Region>> entry : savedSubRegions.entrySet())
+        {
+            entry.getKey().restoreSubRegions(entry.getValue());
+        }
+    }
+
+    /**
+     * A SavedRegion is simply the data of a region at the time a
+     * transaction first changed it.
+     */
+    private static class SavedRegion
+    {
+        String name;
+        String capital;
+        RegionType type;
+        Region parentRegion;
+        WorldDataManager worldDataManager;
+        boolean inWorld;
+
+        /**
+         * Constructor for saving region as it is now.
+         */
+        SavedRegion(Region region, boolean initInWorld)
+        {
+            name = region.getName();
+            capital = region.getCapital();
+            type = region.getType();
+            parentRegion = region.getParentRegion();
+            worldDataManager = region.getWorldDataManager();
+            inWorld = initInWorld;
+        }
+    }
+}
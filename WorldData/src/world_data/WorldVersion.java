@@ -0,0 +1,637 @@
+package world_data;
+
+import java.text.Collator;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A WorldVersion is an immutable copy of a whole world. Nothing about a
+ * version ever changes, so it can be shared freely, and forking a world is
+ * just a matter of holding on to a version. Instead of changing a version,
+ * each of its with methods makes a new one with a single change made.
+ * 
+ * Versions are built on persistent data structures, so a new version
+ * shares almost everything with the one it came from. Regions are kept
+ * as immutable records in a PersistentHashMap by id, and each record only
+ * knows the ids of its parent and children, so a change copies the O(log n)
+ * map nodes on the way to the records it touches and nothing else. Each
+ * region's children are kept in a SubRegionTree, so even a change to a
+ * region with a huge number of children only copies O(log k) more. Many
+ * variants of one big world therefore take little more memory than the
+ * world itself, and a version is garbage as soon as nobody refers to it.
+ * 
+ * Regions are read out of a version as read-only Region views. Sub regions
+ * are kept in the name order of the world the version was made from.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public final class WorldVersion
+{
+    // HOW NAMES ARE SORTED WHEN THE WORLD HAS NO LOCALE
+    private static final Comparator<String> CHAR_ORDER = new Comparator<String>()
+    {
+        @Override
+        public int compare(String name1, String name2)
+        {
+            return name1.compareTo(name2);
+        }
+    };
+    
+    // EVERY REGION'S DATA, BY ID
+    private final PersistentHashMap<RegionRecord> records;
+    
+    // THE ID OF THE ROOT OF THE WORLD, null IF THERE ISN'T ONE
+    private final String worldId;
+    
+    // HOW NAMES ARE SORTED, EITHER CHAR_ORDER OR A Collator FOR THE
+    // WORLD'S LOCALE
+    private final Comparator nameOrder;
+    
+    // THE NUMBER THE NEXT REGION PUT AMONG ITS SIBLINGS GETS, WHICH IS
+    // BIGGER THAN ANY SO FAR SO IT GOES AFTER THOSE WITH THE SAME NAME
+    private final long nextSeq;
+
+    /**
+     * Private constructor, versions are made from worlds and from each other.
+     */
+    private WorldVersion(PersistentHashMap<RegionRecord> initRecords, String initWorldId,
+                         Comparator initNameOrder, long initNextSeq)
+    {
+        records = initRecords;
+        worldId = initWorldId;
+        nameOrder = initNameOrder;
+        nextSeq = initNextSeq;
+    }
+
+    /**
+     * Makes a version holding all of the regions provided, which is how
+     * a WorldDataManager makes a version of its world.
+     * 
+     * @param world The root of the world, may be null.
+     * 
+     * @param allRegions All the regions of the world.
+     * 
+     * @param nameLocale The locale names are sorted for in the world,
+     * null if they're sorted by char.
+     * 
+     * @return A version of the world.
+     */
+    static WorldVersion of(Region world, Collection<Region> allRegions, Locale nameLocale)
+    {
+        // FIRST NUMBER EVERY REGION AMONG ITS SIBLINGS, WHICH ARE ALREADY IN
+        // ORDER, AND MAKE THE TREES OF THEM
+        IdentityHashMap<Region, SubRegionTree> subRegionTrees = new IdentityHashMap();
+        IdentityHashMap<Region, Integer> seqs = new IdentityHashMap();
+        ArrayList<String> subRegionNames = new ArrayList();
+        ArrayList<String> subRegionIds = new ArrayList();
+        long newNextSeq = 0;
+        for (Region region : allRegions)
+        {
+            subRegionNames.clear();
+            subRegionIds.clear();
+            Iterator<Region> it = region.getSubRegions();
+            while (it.hasNext())
+            {
+                Region subRegion = it.next();
+                seqs.put(subRegion, subRegionIds.size());
+                subRegionNames.add(subRegion.getName());
+                subRegionIds.add(subRegion.getId());
+            }
+            subRegionTrees.put(region, SubRegionTree.of(subRegionNames, subRegionIds));
+            newNextSeq = Math.max(newNextSeq, subRegionIds.size());
+        }
+        
+        // THEN MAKE THEIR RECORDS
+        PersistentHashMap<RegionRecord> newRecords = PersistentHashMap.empty();
+        for (Region region : allRegions)
+        {
+            Region parent = region.getParentRegion();
+            Integer seq = seqs.get(region);
+            RegionRecord record = new RegionRecord(region.getId(),
+                                                   region.getName(),
+                                                   region.getType(),
+                                                   region.getCapital(),
+                                                   (parent == null) ? null : parent.getId(),
+                                                   (seq == null) ? 0 : seq,
+                                                   subRegionTrees.get(region));
+            newRecords = newRecords.put(record.id, record);
+        }
+        Comparator newNameOrder = (nameLocale == null) ? CHAR_ORDER : Collator.getInstance(nameLocale);
+        return new WorldVersion(newRecords, (world == null) ? null : world.getId(), newNameOrder, newNextSeq);
+    }
+
+    // ACCESSOR METHODS
+
+    /**
+     * Accessor method for getting the root of this version of the world.
+     * 
+     * @return The root region, or null if there is none.
+     */
+    public Region getWorld()
+    {
+        return (worldId == null) ? null : getRegion(worldId);
+    }
+
+    /**
+     * Accessor method for getting one of the regions in this version.
+     * 
+     * @param regionId The id of the region to get.
+     * 
+     * @return A read-only view of the region, or null if it's not here.
+     */
+    public Region getRegion(String regionId)
+    {
+        RegionRecord record = records.get(regionId);
+        return (record == null) ? null : new VersionRegion(this, record);
+    }
+
+    /**
+     * Tests to see if this version has a region with regionId as its id.
+     * 
+     * @param regionId The id to look for.
+     * 
+     * @return true if the region is in this version, false otherwise.
+     */
+    public boolean hasRegion(String regionId)
+    {
+        return records.containsKey(regionId);
+    }
+
+    /**
+     * Accessor method for getting how many regions are in this version.
+     * 
+     * @return The number of regions.
+     */
+    public int size()
+    {
+        return records.size();
+    }
+
+    /**
+     * Accessor method for getting all the regions in this version.
+     * 
+     * @return A read-only Collection of views of all the regions, in no
+     * particular order.
+     */
+    public Collection<Region> getAllRegions()
+    {
+        return new AbstractCollection<Region>()
+        {
+            @Override
+            public Iterator<Region> iterator()
+            {
+                final Iterator<RegionRecord> it = records.valuesIterator();
+                return new Iterator<Region>()
+                {
+                    @Override
+                    public boolean hasNext()    { return it.hasNext();                          }
+
+                    @Override
+                    public Region next()        { return new VersionRegion(WorldVersion.this, it.next()); }
+
+                    @Override
+                    public void remove()        { throw new UnsupportedOperationException(); }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return records.size();
+            }
+        };
+    }
+
+    /**
+     * Accessor method for getting the data for one of the regions.
+     * 
+     * @param regionId The id of the region.
+     * 
+     * @return The region's record, or null if it's not here.
+     */
+    RegionRecord getRecord(String regionId)
+    {
+        return records.get(regionId);
+    }
+
+    // METHODS THAT MAKE NEW VERSIONS
+
+    /**
+     * Makes a version like this one but with a region renamed. Note that
+     * since sub regions are kept in order by name, its parent changes too.
+     * 
+     * @param regionId The id of the region to rename.
+     * 
+     * @param name The region's new name.
+     * 
+     * @return The new version.
+     * 
+     * @throws IllegalArgumentException If there's no such region.
+     */
+    public WorldVersion withName(String regionId, String name)
+    {
+        RegionRecord record = getExistingRecord(regionId);
+        RegionRecord renamed = new RegionRecord(record.id, name, record.type, record.capital,
+                                                record.parentId, nextSeq, record.subRegions);
+        PersistentHashMap<RegionRecord> newRecords = records.put(regionId, renamed);
+        
+        // MOVE IT TO ITS NEW PLACE AMONG ITS SIBLINGS
+        if (record.parentId != null)
+        {
+            RegionRecord parent = newRecords.get(record.parentId);
+            SubRegionTree siblings = parent.subRegions.remove(record.name, record.seq, nameOrder);
+            siblings = siblings.insert(name, renamed.seq, regionId, nameOrder);
+            newRecords = newRecords.put(parent.id, parent.withSubRegions(siblings));
+        }
+        return new WorldVersion(newRecords, worldId, nameOrder, nextSeq + 1);
+    }
+
+    /**
+     * Makes a version like this one but with a region's capital changed.
+     * 
+     * @param regionId The id of the region to change.
+     * 
+     * @param capital The region's new capital, null for none.
+     * 
+     * @return The new version.
+     * 
+     * @throws IllegalArgumentException If there's no such region.
+     */
+    public WorldVersion withCapital(String regionId, String capital)
+    {
+        RegionRecord record = getExistingRecord(regionId);
+        RegionRecord changed = new RegionRecord(record.id, record.name, record.type, capital,
+                                                record.parentId, record.seq, record.subRegions);
+        return new WorldVersion(records.put(regionId, changed), worldId, nameOrder, nextSeq);
+    }
+
+    /**
+     * Makes a version like this one but with a region's type changed.
+     * 
+     * @param regionId The id of the region to change.
+     * 
+     * @param type The region's new type.
+     * 
+     * @return The new version.
+     * 
+     * @throws IllegalArgumentException If there's no such region.
+     */
+    public WorldVersion withType(String regionId, RegionType type)
+    {
+        RegionRecord record = getExistingRecord(regionId);
+        RegionRecord changed = new RegionRecord(record.id, record.name, type, record.capital,
+                                                record.parentId, record.seq, record.subRegions);
+        return new WorldVersion(records.put(regionId, changed), worldId, nameOrder, nextSeq);
+    }
+
+    /**
+     * Makes a version like this one but with a new region in it. Note
+     * that a WORLD region without a parent becomes the root.
+     * 
+     * @param regionId The new region's id, which no region here may have.
+     * 
+     * @param name The new region's name.
+     * 
+     * @param type The new region's type.
+     * 
+     * @param capital The new region's capital, null for none.
+     * 
+     * @param parentId The id of the region it goes in, null for none.
+     * 
+     * @return The new version.
+     * 
+     * @throws IllegalArgumentException If the id is taken or the parent
+     * isn't here.
+     */
+    public WorldVersion withRegion(String regionId, String name, RegionType type, String capital, String parentId)
+    {
+        if (records.containsKey(regionId))
+        {
+            throw new IllegalArgumentException("Region already in world: " + regionId);
+        }
+        RegionRecord record = new RegionRecord(regionId, name, type, capital, parentId,
+                                               nextSeq, SubRegionTree.EMPTY);
+        PersistentHashMap<RegionRecord> newRecords = records.put(regionId, record);
+        String newWorldId = worldId;
+        if (parentId != null)
+        {
+            RegionRecord parent = getExistingRecord(parentId);
+            SubRegionTree siblings = parent.subRegions.insert(name, record.seq, regionId, nameOrder);
+            newRecords = newRecords.put(parentId, parent.withSubRegions(siblings));
+        }
+        else if (type == RegionType.WORLD)
+        {
+            newWorldId = regionId;
+        }
+        return new WorldVersion(newRecords, newWorldId, nameOrder, nextSeq + 1);
+    }
+
+    /**
+     * Makes a version like this one but without a region and everything
+     * inside it.
+     * 
+     * @param regionId The id of the region to take out.
+     * 
+     * @return The new version.
+     * 
+     * @throws IllegalArgumentException If there's no such region.
+     */
+    public WorldVersion withoutRegion(String regionId)
+    {
+        RegionRecord record = getExistingRecord(regionId);
+        PersistentHashMap<RegionRecord> newRecords = records;
+        
+        // TAKE IT OUT OF ITS PARENT
+        if (record.parentId != null)
+        {
+            RegionRecord parent = newRecords.get(record.parentId);
+            newRecords = newRecords.put(parent.id, parent.withSubRegions(parent.subRegions.remove(record.name, record.seq, nameOrder)));
+        }
+        
+        // AND TAKE OUT IT AND ALL ITS DESCENDANTS
+        ArrayList<String> idsToRemove = new ArrayList();
+        idsToRemove.add(regionId);
+        while (!idsToRemove.isEmpty())
+        {
+            String idToRemove = idsToRemove.remove(idsToRemove.size() - 1);
+            RegionRecord recordToRemove = records.get(idToRemove);
+            Iterator<String> it = recordToRemove.subRegions.idsIterator();
+            while (it.hasNext())
+            {
+                idsToRemove.add(it.next());
+            }
+            newRecords = newRecords.remove(idToRemove);
+        }
+        return new WorldVersion(newRecords, regionId.equals(worldId) ? null : worldId, nameOrder, nextSeq);
+    }
+
+    /**
+     * Makes a version like this one but with a region, and everything
+     * inside it, moved to a different parent.
+     * 
+     * @param regionId The id of the region to move.
+     * 
+     * @param parentId The id of the region to move it into, null to
+     * leave it without a parent.
+     * 
+     * @return The new version.
+     * 
+     * @throws IllegalArgumentException If either region isn't here, or
+     * the new parent is inside the region being moved.
+     */
+    public WorldVersion withParent(String regionId, String parentId)
+    {
+        RegionRecord record = getExistingRecord(regionId);
+        
+        // A REGION CAN'T GO INSIDE ITSELF
+        String ancestorId = parentId;
+        while (ancestorId != null)
+        {
+            if (ancestorId.equals(regionId))
+            {
+                throw new IllegalArgumentException("Region cannot be moved inside itself: " + regionId);
+            }
+            ancestorId = getExistingRecord(ancestorId).parentId;
+        }
+        
+        PersistentHashMap<RegionRecord> newRecords = records;
+        if (record.parentId != null)
+        {
+            RegionRecord oldParent = newRecords.get(record.parentId);
+            newRecords = newRecords.put(oldParent.id, oldParent.withSubRegions(oldParent.subRegions.remove(record.name, record.seq, nameOrder)));
+        }
+        RegionRecord moved = new RegionRecord(record.id, record.name, record.type, record.capital,
+                                              parentId, nextSeq, record.subRegions);
+        newRecords = newRecords.put(regionId, moved);
+        if (parentId != null)
+        {
+            RegionRecord newParent = newRecords.get(parentId);
+            newRecords = newRecords.put(parentId, newParent.withSubRegions(newParent.subRegions.insert(moved.name, moved.seq, regionId, nameOrder)));
+        }
+        return new WorldVersion(newRecords, worldId, nameOrder, nextSeq + 1);
+    }
+
+    /**
+     * Makes a version like this one but brought up to date with the world
+     * it was made from, which is how a WorldDataManager in concurrent mode
+     * keeps a version of itself without copying the whole world after each
+     * edit. Only the regions whose ids are in changedIds are looked at, so
+     * this costs O(log n) for each of them, plus the number of siblings
+     * with the same name, which are kept in the same order as the world
+     * has them.
+     *
+     * @param changedIds The ids of every region that was added, removed,
+     * or changed since this version was made, or whose parent or children
+     * changed, in the order they changed.
+     *
+     * @param allRegions All the regions of the world as it is now.
+     *
+     * @param world The root of the world as it is now, may be null.
+     *
+     * @return The new version, or null if the changes can't be made one
+     * region at a time, in which case a new version must be made with of.
+     */
+    WorldVersion withChanges(Collection<String> changedIds, RegionIndex allRegions, Region world)
+    {
+        // FIRST UPDATE THE RECORDS, TAKING THOSE THAT MOVE OUT OF THEIR
+        // PARENTS, TO BE PUT BACK ONCE ALL THE PARENTS ARE UP TO DATE
+        PersistentHashMap<RegionRecord> newRecords = records;
+        ArrayList<Region> regionsToPlace = new ArrayList();
+        for (String id : changedIds)
+        {
+            Region region = allRegions.get(id);
+            RegionRecord record = newRecords.get(id);
+            if (region == null)
+            {
+                if (record != null)
+                {
+                    newRecords = detach(newRecords, record).remove(id);
+                }
+                continue;
+            }
+            Region parent = region.getParentRegion();
+            String parentId = (parent == null) ? null : parent.getId();
+            if (record == null)
+            {
+                // A REGION THAT COMES WITH CHILDREN ALREADY IS TOO MUCH
+                // WORK TO FIGURE OUT HERE
+                if (region.hasSubRegions())
+                {
+                    return null;
+                }
+                record = new RegionRecord(id, region.getName(), region.getType(), region.getCapital(),
+                                          parentId, 0, SubRegionTree.EMPTY);
+                regionsToPlace.add(region);
+            }
+            else if (!record.name.equals(region.getName())
+                    || ((record.parentId == null) ? (parentId != null) : !record.parentId.equals(parentId)))
+            {
+                newRecords = detach(newRecords, record);
+                record = new RegionRecord(id, region.getName(), region.getType(), region.getCapital(),
+                                          parentId, 0, record.subRegions);
+                regionsToPlace.add(region);
+            }
+            else
+            {
+                // IT STAYS WHERE IT IS AMONG ITS SIBLINGS
+                record = new RegionRecord(id, region.getName(), region.getType(), region.getCapital(),
+                                          parentId, record.seq, record.subRegions);
+            }
+            newRecords = newRecords.put(id, record);
+        }
+
+        // THEN PUT THEM IN THEIR PARENTS, NOW THAT ALL THE PARENTS ARE HERE
+        long newNextSeq = nextSeq;
+        for (Region region : regionsToPlace)
+        {
+            RegionRecord record = newRecords.get(region.getId()).withSeq(newNextSeq++);
+            newRecords = newRecords.put(record.id, record);
+            RegionRecord parent = (record.parentId == null) ? null : newRecords.get(record.parentId);
+            if (parent != null)
+            {
+                SubRegionTree siblings = parent.subRegions.insert(record.name, record.seq, record.id, nameOrder);
+                newRecords = newRecords.put(parent.id, parent.withSubRegions(siblings));
+            }
+        }
+        
+        // SIBLINGS WITH THE SAME NAME GO IN WHATEVER ORDER THE WORLD HAS
+        // THEM IN, WHICH AFTER A TRANSACTION ISN'T NECESSARILY THE ORDER
+        // THEY CHANGED IN, SO THOSE THAT AREN'T ARE NUMBERED AGAIN
+        for (String id : changedIds)
+        {
+            Region region = allRegions.get(id);
+            Region parent = (region == null) ? null : region.getParentRegion();
+            RegionRecord parentRecord = (parent == null) ? null : newRecords.get(parent.getId());
+            if (parentRecord == null)
+            {
+                continue;
+            }
+            List<Region> namesakes = parent.getSubRegionsNamedLike(region);
+            if ((namesakes.size() > 1) && !isInSeqOrder(newRecords, namesakes, parentRecord.id))
+            {
+                SubRegionTree siblings = parentRecord.subRegions;
+                for (Region namesake : namesakes)
+                {
+                    RegionRecord record = newRecords.get(namesake.getId());
+                    if ((record != null) && parentRecord.id.equals(record.parentId))
+                    {
+                        siblings = siblings.remove(record.name, record.seq, nameOrder);
+                        record = record.withSeq(newNextSeq++);
+                        siblings = siblings.insert(record.name, record.seq, record.id, nameOrder);
+                        newRecords = newRecords.put(record.id, record);
+                    }
+                }
+                newRecords = newRecords.put(parentRecord.id, parentRecord.withSubRegions(siblings));
+            }
+        }
+        return new WorldVersion(newRecords, (world == null) ? null : world.getId(), nameOrder, newNextSeq);
+    }
+
+    // PRIVATE HELPER METHODS
+
+    /**
+     * Takes record out of its parent's sub regions, if its parent is here.
+     */
+    private PersistentHashMap<RegionRecord> detach(PersistentHashMap<RegionRecord> fromRecords, RegionRecord record)
+    {
+        RegionRecord parent = (record.parentId == null) ? null : fromRecords.get(record.parentId);
+        if (parent == null)
+        {
+            return fromRecords;
+        }
+        SubRegionTree siblings = parent.subRegions.remove(record.name, record.seq, nameOrder);
+        return (siblings == parent.subRegions) ? fromRecords : fromRecords.put(parent.id, parent.withSubRegions(siblings));
+    }
+
+    /**
+     * Tests to see if those of regions that are in parentId here are
+     * numbered in the order they're listed in.
+     */
+    private static boolean isInSeqOrder(PersistentHashMap<RegionRecord> fromRecords, List<Region> regions, String parentId)
+    {
+        long lastSeq = -1;
+        for (Region region : regions)
+        {
+            RegionRecord record = fromRecords.get(region.getId());
+            if ((record != null) && parentId.equals(record.parentId))
+            {
+                if (record.seq <= lastSeq)
+                {
+                    return false;
+                }
+                lastSeq = record.seq;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the record for regionId, which must be in this version.
+     */
+    private RegionRecord getExistingRecord(String regionId)
+    {
+        RegionRecord record = records.get(regionId);
+        if (record == null)
+        {
+            throw new IllegalArgumentException("Region not in world: " + regionId);
+        }
+        return record;
+    }
+
+    /**
+     * All the data for one region in a version, which like the version
+     * itself never changes. Its parent and sub regions are kept by id so
+     * that changing one region doesn't mean copying the regions around it.
+     */
+    static final class RegionRecord
+    {
+        final String id;
+        final String name;
+        final RegionType type;
+        final String capital;
+        final String parentId;
+        
+        // WHERE IT GOES AMONG ITS SIBLINGS WITH THE SAME NAME
+        final long seq;
+        
+        // IN ORDER BY NAME, JUST LIKE A Region's SUB REGIONS
+        final SubRegionTree subRegions;
+
+        RegionRecord(String initId, String initName, RegionType initType, String initCapital,
+                     String initParentId, long initSeq, SubRegionTree initSubRegions)
+        {
+            id = initId;
+            name = initName;
+            type = initType;
+            capital = initCapital;
+            parentId = initParentId;
+            seq = initSeq;
+            subRegions = initSubRegions;
+        }
+
+        /**
+         * Makes a record like this one but with different sub regions.
+         */
+        RegionRecord withSubRegions(SubRegionTree newSubRegions)
+        {
+            return new RegionRecord(id, name, type, capital, parentId, seq, newSubRegions);
+        }
+
+        /**
+         * Makes a record like this one but in a different place among
+         * its siblings with the same name.
+         */
+        RegionRecord withSeq(long newSeq)
+        {
+            return new RegionRecord(id, name, type, capital, parentId, newSeq, subRegions);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package world_data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * This program checks saving worlds with saveMapped and opening them with
+ * loadMapped. A world must come back just as it was saved, a world with
+ * nothing in it must not be saved, a truncated or damaged file must be
+ * rejected rather than read past its end, and a save must never destroy
+ * the file it replaces, even while that file is open. It prints what went
+ * wrong and exits with a non-zero status if anything did.
+ *
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class MappedStoreCheck
+{
+    // WHERE THE NAME OF THE FIRST REGION IS IN A STORE FILE, WHICH IS
+    // THE HEADER AND THEN THE NAME FIELD OF THE FIRST RECORD
+    private static final int FIRST_NAME_FIELD = 32 + 12;
+
+    // HOW MANY THINGS WE'VE SEEN GO WRONG
+    private static int numFailures = 0;
+
+    /**
+     * Runs all the checks.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        File storeFile = File.createTempFile("MappedStoreCheck", ".wrld");
+        try
+        {
+            checkRoundTrip(storeFile);
+            checkNothingToSave(storeFile);
+            checkTruncated(storeFile);
+            checkDamagedString(storeFile);
+            checkSaveOverOpenFile(storeFile);
+        }
+        finally
+        {
+            storeFile.delete();
+        }
+        if (numFailures > 0)
+        {
+            System.out.println(numFailures + " FAILURES");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Saves a world and opens it again, checking every region.
+     */
+    private static void checkRoundTrip(File storeFile)
+    {
+        WorldDataManager world = makeWorld("World");
+        check(world.saveMapped(storeFile), "saving a world");
+        WorldDataManager mapped = new WorldDataManager();
+        check(mapped.loadMapped(storeFile), "opening a saved world");
+        checkSame(world, mapped, "after a round trip");
+    }
+
+    /**
+     * A fresh world and a cleared one have nothing to save, which must
+     * be reported rather than thrown, and must leave the file alone.
+     */
+    private static void checkNothingToSave(File storeFile)
+    {
+        long length = storeFile.length();
+        check(!new WorldDataManager().saveMapped(storeFile), "saving a fresh world");
+        WorldDataManager cleared = makeWorld("World");
+        cleared.clearRegions();
+        check(!cleared.saveMapped(storeFile), "saving a cleared world");
+        check(storeFile.length() == length, "keeping the file when there's nothing to save");
+        WorldDataManager mapped = new WorldDataManager();
+        check(mapped.loadMapped(storeFile), "opening the file after not saving");
+    }
+
+    /**
+     * Cuts copies of a saved file short in various places, none of which
+     * may open.
+     */
+    private static void checkTruncated(File storeFile) throws IOException
+    {
+        makeWorld("World").saveMapped(storeFile);
+        long length = storeFile.length();
+        long[] cuts = { 0, 20, 200, length / 2, length - 1 };
+        File truncatedFile = File.createTempFile("MappedStoreCheck", ".wrld");
+        try
+        {
+            for (long cut : cuts)
+            {
+                copy(storeFile, truncatedFile, cut);
+                WorldDataManager world = makeWorld("Before");
+                check(!world.loadMapped(truncatedFile), "opening a file cut to " + cut + " of " + length + " bytes");
+                check(world.getWorld().getName().equals("Before"), "keeping the world after a bad file");
+            }
+        }
+        finally
+        {
+            truncatedFile.delete();
+        }
+    }
+
+    /**
+     * Points a region's name past the end of the strings, which must be
+     * caught when it's read rather than read from somewhere else.
+     */
+    private static void checkDamagedString(File storeFile) throws IOException
+    {
+        makeWorld("World").saveMapped(storeFile);
+        try (RandomAccessFile file = new RandomAccessFile(storeFile, "rw"))
+        {
+            file.seek(FIRST_NAME_FIELD);
+            file.writeInt(Integer.MAX_VALUE - 1);
+        }
+        WorldDataManager mapped = new WorldDataManager();
+        check(mapped.loadMapped(storeFile), "opening a file with a damaged string");
+        try
+        {
+            mapped.getWorld().getName();
+            check(false, "reading a damaged string");
+        }
+        catch(IllegalStateException ise)
+        {
+            // THAT'S WHAT SHOULD HAPPEN
+        }
+    }
+
+    /**
+     * Saves one world over the file another is open on, which must not
+     * disturb the one that's open.
+     */
+    private static void checkSaveOverOpenFile(File storeFile)
+    {
+        WorldDataManager first = makeWorld("First");
+        first.saveMapped(storeFile);
+        WorldDataManager mapped = new WorldDataManager();
+        mapped.loadMapped(storeFile);
+        WorldDataManager second = makeWorld("Second");
+        check(second.saveMapped(storeFile), "saving over an open file");
+        checkSame(first, mapped, "after saving over its file");
+        WorldDataManager reopened = new WorldDataManager();
+        check(reopened.loadMapped(storeFile), "opening the new file");
+        checkSame(second, reopened, "after saving over a file");
+    }
+
+    /**
+     * Makes a small world whose root is named rootName.
+     */
+    private static WorldDataManager makeWorld(String rootName)
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset(rootName);
+        Region root = world.getWorld();
+        Region europe = addRegion(world, new Region("Europe", "Europe", RegionType.CONTINENT), root);
+        Region germany = addRegion(world, new Region("DE", "Germany", RegionType.NATION, "Berlin"), europe);
+        addRegion(world, new Region("FR", "France", RegionType.NATION, "Paris"), europe);
+        addRegion(world, new Region("BY", "Bavaria", RegionType.STATE, "Munich"), germany);
+        addRegion(world, new Region("Asia", "Asia", RegionType.CONTINENT), root);
+        return world;
+    }
+
+    private static Region addRegion(WorldDataManager world, Region region, Region parent)
+    {
+        world.addRegion(region, parent);
+        return region;
+    }
+
+    /**
+     * Makes sure world2 has all of world1's regions, just as they are.
+     */
+    private static void checkSame(WorldDataManager world1, WorldDataManager world2, String when)
+    {
+        check(world1.getAllRegions().size() == world2.getAllRegions().size(), "the number of regions " + when);
+        for (Region region1 : world1.getAllRegions())
+        {
+            Region region2 = world2.getRegion(region1.getId());
+            if (region2 == null)
+            {
+                check(false, region1.getId() + " is missing " + when);
+                continue;
+            }
+            Region parent1 = region1.getParentRegion();
+            Region parent2 = region2.getParentRegion();
+            check(region1.getName().equals(region2.getName())
+                    && region1.getType() == region2.getType()
+                    && same(region1.getCapital(), region2.getCapital())
+                    && same((parent1 == null) ? null : parent1.getId(), (parent2 == null) ? null : parent2.getId()),
+                  region1.getId() + " changed " + when);
+        }
+    }
+
+    private static boolean same(String text1, String text2)
+    {
+        return (text1 == null) ? (text2 == null) : text1.equals(text2);
+    }
+
+    /**
+     * Copies the first length bytes of source to destination.
+     */
+    private static void copy(File source, File destination, long length) throws IOException
+    {
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             RandomAccessFile out = new RandomAccessFile(destination, "rw"))
+        {
+            byte[] bytes = new byte[(int)length];
+            in.readFully(bytes);
+            out.setLength(0);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Counts and prints a failure if ok is false.
+     */
+    private static void check(boolean ok, String what)
+    {
+        if (!ok)
+        {
+            System.out.println("WRONG: " + what);
+            numFailures++;
+        }
+    }
+}
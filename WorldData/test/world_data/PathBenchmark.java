@@ -0,0 +1,190 @@
+package world_data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * This program times getting the paths from the root to regions and from
+ * regions to the root, comparing the methods that make a new LinkedList
+ * every time with the ones that fill a RegionPath that's reused. For each
+ * it reports how long a call takes and, where the JVM can tell us, how
+ * many bytes a call allocates. It does so for a world of Regions and then
+ * again once the world has been compacted.
+ *
+ * Usage: PathBenchmark [numRegions] [numCalls]
+ *
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class PathBenchmark
+{
+    // WHAT WE DO IF WE'RE NOT TOLD OTHERWISE
+    private static final int DEFAULT_NUM_REGIONS = 100000;
+    private static final int DEFAULT_NUM_CALLS = 5000000;
+
+    // HOW MANY TIMES EACH TEST IS RUN, THE FIRST ONES ARE WARMUP
+    private static final int NUM_RUNS = 5;
+
+    // THE TESTS PUT THEIR ANSWERS HERE SO THE CALLS CAN'T BE OPTIMIZED AWAY
+    private static volatile int sink;
+
+    /**
+     * Runs all the timings.
+     *
+     * @param args Optionally, the number of regions and how many paths
+     * to get in each test.
+     */
+    public static void main(String[] args)
+    {
+        int numRegions = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_NUM_REGIONS;
+        int numCalls = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_NUM_CALLS;
+        WorldDataManager world = makeWorld(numRegions);
+        System.out.println(numRegions + " REGIONS, " + numCalls + " CALLS PER TEST");
+        runTests(world, numCalls, "REGIONS");
+        world.compact();
+        runTests(world, numCalls, "COMPACT");
+    }
+
+    /**
+     * Runs each of the four tests NUM_RUNS times and prints the last run.
+     */
+    private static void runTests(WorldDataManager world, int numCalls, String mode)
+    {
+        Region[] regions = pickRegions(world, numCalls);
+        for (int run = 1; run <= NUM_RUNS; run++)
+        {
+            boolean last = (run == NUM_RUNS);
+            if (last)
+            {
+                System.out.println(mode + ", RUN " + run + " OF " + NUM_RUNS);
+            }
+            for (int test = 0; test < 4; test++)
+            {
+                long startBytes = getAllocatedBytes();
+                long startTime = System.nanoTime();
+                String name = runTest(world, regions, test);
+                long nanos = System.nanoTime() - startTime;
+                long bytes = getAllocatedBytes() - startBytes;
+                if (last)
+                {
+                    report(name, nanos, bytes, regions.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the path for every region using one of the four methods.
+     */
+    private static String runTest(WorldDataManager world, Region[] regions, int test)
+    {
+        int answer = 0;
+        RegionPath path = new RegionPath();
+        if (test == 0)
+        {
+            for (Region region : regions)
+            {
+                LinkedList<Region> list = world.getPathFromRoot(region);
+                answer += list.size() + list.getLast().getType().ordinal();
+            }
+            sink = answer;
+            return "getPathFromRoot LinkedList";
+        }
+        else if (test == 1)
+        {
+            for (Region region : regions)
+            {
+                world.getPathFromRoot(region, path);
+                answer += path.size() + path.getLast().getType().ordinal();
+            }
+            sink = answer;
+            return "getPathFromRoot RegionPath";
+        }
+        else if (test == 2)
+        {
+            for (Region region : regions)
+            {
+                LinkedList<Region> list = world.getPathToRoot(region);
+                answer += list.size() + list.getLast().getType().ordinal();
+            }
+            sink = answer;
+            return "getPathToRoot LinkedList";
+        }
+        for (Region region : regions)
+        {
+            world.getPathToRoot(region, path);
+            answer += path.size() + path.getLast().getType().ordinal();
+        }
+        sink = answer;
+        return "getPathToRoot RegionPath";
+    }
+
+    /**
+     * Picks numCalls regions of world at random, always the same ones, so
+     * the tests don't pay for picking them.
+     */
+    private static Region[] pickRegions(WorldDataManager world, int numCalls)
+    {
+        ArrayList<Region> allRegions = new ArrayList(world.getAllRegions());
+        Random random = new Random(4);
+        Region[] regions = new Region[numCalls];
+        for (int i = 0; i < numCalls; i++)
+        {
+            regions[i] = allRegions.get(random.nextInt(allRegions.size()));
+        }
+        return regions;
+    }
+
+    /**
+     * Gets how many bytes this thread has allocated so far, or -1 if the
+     * JVM can't tell us.
+     */
+    private static long getAllocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Prints how long one of the tests took per call, and how much it
+     * allocated per call.
+     */
+    private static void report(String test, long nanos, long bytes, int numCalls)
+    {
+        String allocated = (bytes < 0) ? "unknown" : String.valueOf(bytes / numCalls);
+        System.out.println("    " + test + ": " + (nanos / numCalls) + " ns/call, "
+                + allocated + " bytes/call");
+    }
+
+    /**
+     * Makes a world of numRegions regions, with continents, nations,
+     * states, and counties, always the same one.
+     */
+    private static WorldDataManager makeWorld(int numRegions)
+    {
+        Random random = new Random(2);
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        ArrayList<Region> regions = new ArrayList();
+        regions.add(world.getWorld());
+        RegionType[] types = RegionType.values();
+        for (int i = 1; i < numRegions; i++)
+        {
+            // EACH REGION GOES IN ONE OF THE FIRST FEW, SO THE TREE STAYS BUSHY
+            Region parent = regions.get(random.nextInt(Math.min(regions.size(), 1 + (i / 20))));
+            int typeIndex = Math.min(parent.getType().ordinal() + 1, types.length - 1);
+            Region region = new Region("R" + i, "R" + random.nextInt(1000000), types[typeIndex]);
+            world.addRegion(region, parent);
+            regions.add(region);
+        }
+        return world;
+    }
+}
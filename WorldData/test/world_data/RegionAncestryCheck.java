@@ -0,0 +1,243 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * This program checks the ancestry queries of a WorldDataManager, like
+ * lowestCommonAncestor and treeDistance, against answers found the slow
+ * way by walking parent links, while regions are moved around the world.
+ * Moving regions is what reuses their numbering records, so it's where
+ * stale jump tables would show up. It also checks that regions can't be
+ * moved between worlds, or into a world they were never added to, and
+ * that removing a subtree only ever cuts loose one of the world's own. It prints what went wrong and exits
+ * with a non-zero status if any answer is wrong.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class RegionAncestryCheck
+{
+    // HOW MANY WRONG ANSWERS WE'VE SEEN
+    private static int numFailures = 0;
+
+    /**
+     * Runs all the checks.
+     * 
+     * @param args Not used.
+     */
+    public static void main(String[] args)
+    {
+        checkLeafMove();
+        checkRandomMoves(new Random(7), 400);
+        checkForeignMoves();
+        checkRemoveSubtree();
+        if (numFailures > 0)
+        {
+            System.out.println(numFailures + " FAILURES");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Moves a single leaf whose jump table has already been built to a
+     * different part of the world, then asks about it.
+     */
+    private static void checkLeafMove()
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        Region root = world.getWorld();
+        Region europe = addRegion(world, "Europe", RegionType.CONTINENT, root);
+        Region africa = addRegion(world, "Africa", RegionType.CONTINENT, root);
+        Region germany = addRegion(world, "DE", RegionType.NATION, europe);
+        Region france = addRegion(world, "FR", RegionType.NATION, europe);
+        Region algeria = addRegion(world, "DZ", RegionType.NATION, africa);
+        Region bavaria = addRegion(world, "BY", RegionType.STATE, germany);
+
+        // BUILD THE JUMP TABLES WHERE BAVARIA STARTS OUT
+        check(world.lowestCommonAncestor(bavaria, france) == europe, "LCA(BY, FR) before the move");
+        check(world.treeDistance(bavaria, algeria) == 5, "treeDistance(BY, DZ) before the move");
+
+        world.moveRegion(bavaria, algeria);
+        check(world.lowestCommonAncestor(bavaria, france) == root, "LCA(BY, FR) after the move");
+        check(world.lowestCommonAncestor(bavaria, algeria) == algeria, "LCA(BY, DZ) after the move");
+        check(world.treeDistance(bavaria, algeria) == 1, "treeDistance(BY, DZ) after the move");
+        check(world.treeDistance(bavaria, france) == 5, "treeDistance(BY, FR) after the move");
+        check(world.getDepth(bavaria) == 3, "depth(BY) after the move");
+    }
+
+    /**
+     * Builds a random world, then over and over moves a random region,
+     * leaf or not, and checks queries about random pairs of regions.
+     */
+    private static void checkRandomMoves(Random random, int numMoves)
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        ArrayList<Region> regions = new ArrayList();
+        regions.add(world.getWorld());
+        for (int i = 0; i < 300; i++)
+        {
+            Region parent = regions.get(random.nextInt(regions.size()));
+            regions.add(addRegion(world, "R" + i, RegionType.STATE, parent));
+        }
+        
+        for (int move = 0; move < numMoves; move++)
+        {
+            // ASK FIRST SO THE TABLES ARE BUILT BEFORE THE MOVE
+            checkRandomPairs(world, regions, random, 20, move);
+            
+            Region regionToMove = regions.get(1 + random.nextInt(regions.size() - 1));
+            Region newParent = regions.get(random.nextInt(regions.size()));
+            if (!isAncestorTheSlowWay(regionToMove, newParent))
+            {
+                world.moveRegion(regionToMove, newParent);
+            }
+        }
+        checkRandomPairs(world, regions, random, 200, numMoves);
+    }
+
+    /**
+     * Tries moving regions of one world into another, and a region that
+     * was never added into a world, neither of which may change anything.
+     */
+    private static void checkForeignMoves()
+    {
+        WorldDataManager worldA = new WorldDataManager();
+        worldA.reset("A");
+        Region x = addRegion(worldA, "X", RegionType.NATION, worldA.getWorld());
+        WorldDataManager worldB = new WorldDataManager();
+        worldB.reset("B");
+        Region y = addRegion(worldB, "Y", RegionType.NATION, worldB.getWorld());
+        Region stray = new Region("Stray", "Stray", RegionType.NATION);
+        
+        check(!moves(worldA, x, worldB.getWorld()), "moving X to B's root through A");
+        check(!moves(worldB, x, worldB.getWorld()), "moving A's X to B's root through B");
+        check(!moves(worldA, x, y), "moving X under B's Y");
+        check(!moves(worldA, stray, worldA.getWorld()), "moving a region that was never added");
+        check(x.getParentRegion() == worldA.getWorld(), "X stays under A's root");
+        check(worldB.getRegion("X") == null, "B never hears of X");
+        check(worldA.getPathFromRoot(x).size() == 2, "X's path stays in A");
+        check(stray.getParentRegion() == null, "the stray region stays loose");
+        check((worldA.getAllRegions().size() == 2) && (worldB.getAllRegions().size() == 2),
+              "neither world gains or loses regions");
+    }
+
+    /**
+     * Removes a subtree of one world through another, which must do
+     * nothing, and then through its own, which must cut it loose from
+     * the world in both directions.
+     */
+    private static void checkRemoveSubtree()
+    {
+        WorldDataManager worldA = new WorldDataManager();
+        worldA.reset("A");
+        WorldDataManager worldC = new WorldDataManager();
+        worldC.reset("C");
+        Region z = addRegion(worldC, "Z", RegionType.NATION, worldC.getWorld());
+        Region zz = addRegion(worldC, "ZZ", RegionType.STATE, z);
+        
+        worldA.removeSubtree(z);
+        check(worldC.getRegion("Z") == z, "C keeps Z after A removes it");
+        check(z.getParentRegion() == worldC.getWorld(), "Z stays under C's root after A removes it");
+        check(worldC.getWorld().hasSubRegions(), "C's root keeps Z after A removes it");
+        
+        worldC.removeSubtree(z);
+        check((worldC.getRegion("Z") == null) && (worldC.getRegion("ZZ") == null), "C lets go of Z and ZZ");
+        check(!worldC.getWorld().hasSubRegions(), "C's root lets go of Z");
+        check(z.getParentRegion() == null, "Z lets go of C's root");
+        check(zz.getParentRegion() == z, "ZZ stays under Z");
+    }
+
+    /**
+     * Tries moving regionToMove under newParent, telling if it was allowed.
+     */
+    private static boolean moves(WorldDataManager world, Region regionToMove, Region newParent)
+    {
+        try
+        {
+            world.moveRegion(regionToMove, newParent);
+            return true;
+        }
+        catch(IllegalArgumentException iae)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks the queries on numPairs random pairs of regions.
+     */
+    private static void checkRandomPairs(WorldDataManager world, ArrayList<Region> regions,
+                                         Random random, int numPairs, int move)
+    {
+        for (int i = 0; i < numPairs; i++)
+        {
+            Region region1 = regions.get(random.nextInt(regions.size()));
+            Region region2 = regions.get(random.nextInt(regions.size()));
+            Region expectedAncestor = lowestCommonAncestorTheSlowWay(region1, region2);
+            int expectedDistance = depthTheSlowWay(region1) + depthTheSlowWay(region2)
+                    - (2 * depthTheSlowWay(expectedAncestor));
+            String pair = "(" + region1.getId() + ", " + region2.getId() + ") after move " + move;
+            check(world.lowestCommonAncestor(region1, region2) == expectedAncestor, "LCA" + pair);
+            check(world.treeDistance(region1, region2) == expectedDistance, "treeDistance" + pair);
+            check(world.getDepth(region1) == depthTheSlowWay(region1), "depth" + pair);
+            check(world.isAncestor(region1, region2) == isAncestorTheSlowWay(region1, region2), "isAncestor" + pair);
+        }
+    }
+
+    // HELPER METHODS
+
+    private static Region addRegion(WorldDataManager world, String id, RegionType type, Region parent)
+    {
+        Region region = new Region(id, id, type);
+        world.addRegion(region, parent);
+        return region;
+    }
+
+    private static int depthTheSlowWay(Region region)
+    {
+        int depth = 0;
+        for (Region walker = region.getParentRegion(); walker != null; walker = walker.getParentRegion())
+        {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static boolean isAncestorTheSlowWay(Region ancestor, Region descendant)
+    {
+        for (Region walker = descendant; walker != null; walker = walker.getParentRegion())
+        {
+            if (walker == ancestor)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Region lowestCommonAncestorTheSlowWay(Region region1, Region region2)
+    {
+        for (Region walker = region1; walker != null; walker = walker.getParentRegion())
+        {
+            if (isAncestorTheSlowWay(walker, region2))
+            {
+                return walker;
+            }
+        }
+        return null;
+    }
+
+    private static void check(boolean passed, String what)
+    {
+        if (!passed)
+        {
+            numFailures++;
+            System.out.println("WRONG: " + what);
+        }
+    }
+}
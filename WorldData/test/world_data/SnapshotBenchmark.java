@@ -0,0 +1,184 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This program times a world in concurrent mode being read by several
+ * threads through its snapshots while another thread keeps editing it,
+ * renaming two of its regions at a time. For each number of readers it
+ * reports how many lookups the readers managed, how many edits the writer
+ * managed and how long the slowest of them took, and how many snapshots
+ * were actually made, which is at most one per edit since they're only
+ * made when a reader asks for one. Readers make them without the write
+ * lock, so the slowest edit shouldn't grow with the number of readers.
+ * 
+ * Usage: SnapshotBenchmark [numRegions] [maxReaders] [secondsPerTest]
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class SnapshotBenchmark
+{
+    // WHAT WE DO IF WE'RE NOT TOLD OTHERWISE
+    private static final int DEFAULT_NUM_REGIONS = 100000;
+    private static final int DEFAULT_MAX_READERS = 8;
+    private static final int DEFAULT_SECONDS_PER_TEST = 3;
+    
+    // HOW MANY LOOKUPS A READER MAKES IN EACH SNAPSHOT IT GETS
+    private static final int LOOKUPS_PER_SNAPSHOT = 100;
+    
+    // READERS PUT THEIR ANSWERS HERE SO THE LOOKUPS CAN'T BE OPTIMIZED AWAY
+    private static volatile int sink;
+
+    /**
+     * Runs all the timings.
+     * 
+     * @param args Optionally, the number of regions, the most readers to
+     * try, and how long to run each test.
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        int numRegions = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_NUM_REGIONS;
+        int maxReaders = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_MAX_READERS;
+        long millisPerTest = 1000L * ((args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_SECONDS_PER_TEST);
+        
+        WorldDataManager world = makeWorld(numRegions);
+        world.setConcurrent(true);
+        System.out.println(numRegions + " REGIONS, " + Runtime.getRuntime().availableProcessors() + " PROCESSORS");
+        
+        // FIRST THE WRITER ALL BY ITSELF, THEN WITH MORE AND MORE READERS
+        runTest(world, 0, millisPerTest);
+        for (int numReaders = 1; numReaders <= maxReaders; numReaders *= 2)
+        {
+            runTest(world, numReaders, millisPerTest);
+        }
+    }
+
+    /**
+     * Runs one writer and numReaders readers against world for
+     * millisPerTest milliseconds and prints how they did.
+     */
+    private static void runTest(final WorldDataManager world, int numReaders, final long millisPerTest)
+            throws InterruptedException
+    {
+        final ArrayList<Region> regions = new ArrayList(world.getAllRegions());
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicLong numLookups = new AtomicLong(0);
+        final AtomicLong numEdits = new AtomicLong(0);
+        final AtomicLong slowestEdit = new AtomicLong(0);
+        final IdentityHashMap<WorldDataManager, Boolean> snapshotsSeen = new IdentityHashMap();
+        
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Random random = new Random(1);
+                long edits = 0;
+                long slowest = 0;
+                while (!done.get())
+                {
+                    // EACH EDIT RENAMES TWO REGIONS, WHICH READERS SEE TOGETHER
+                    long startTime = System.nanoTime();
+                    world.lockForWriting();
+                    try
+                    {
+                        regions.get(random.nextInt(regions.size())).setName("R" + random.nextInt(1000000));
+                        regions.get(random.nextInt(regions.size())).setName("R" + random.nextInt(1000000));
+                    }
+                    finally
+                    {
+                        world.unlockForWriting();
+                    }
+                    slowest = Math.max(slowest, System.nanoTime() - startTime);
+                    edits++;
+                }
+                numEdits.set(edits);
+                slowestEdit.set(slowest);
+            }
+        };
+        Thread[] readers = new Thread[numReaders];
+        for (int i = 0; i < numReaders; i++)
+        {
+            final int seed = i;
+            readers[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random(seed);
+                    IdentityHashMap<WorldDataManager, Boolean> seen = new IdentityHashMap();
+                    long lookups = 0;
+                    int answer = 0;
+                    while (!done.get())
+                    {
+                        WorldDataManager snapshot = world.getSnapshot();
+                        seen.put(snapshot, Boolean.TRUE);
+                        for (int j = 0; j < LOOKUPS_PER_SNAPSHOT; j++)
+                        {
+                            String id = regions.get(random.nextInt(regions.size())).getId();
+                            Region region = snapshot.getRegion(id);
+                            answer += snapshot.getDepth(region) + region.getName().length();
+                        }
+                        lookups += LOOKUPS_PER_SNAPSHOT;
+                    }
+                    sink = answer;
+                    numLookups.addAndGet(lookups);
+                    synchronized (snapshotsSeen)
+                    {
+                        snapshotsSeen.putAll(seen);
+                    }
+                }
+            };
+        }
+        
+        writer.start();
+        for (Thread reader : readers)
+        {
+            reader.start();
+        }
+        Thread.sleep(millisPerTest);
+        done.set(true);
+        writer.join();
+        for (Thread reader : readers)
+        {
+            reader.join();
+        }
+        
+        double seconds = millisPerTest / 1000.0;
+        System.out.println("    " + numReaders + " readers: "
+                + (long)(numLookups.get() / seconds) + " lookups/s, "
+                + (long)(numEdits.get() / seconds) + " edits/s, "
+                + (slowestEdit.get() / 1000) + " us slowest edit, "
+                + snapshotsSeen.size() + " snapshots");
+    }
+
+    /**
+     * Makes a world of numRegions regions, with continents, nations,
+     * states, and counties, always the same one.
+     */
+    private static WorldDataManager makeWorld(int numRegions)
+    {
+        Random random = new Random(2);
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        ArrayList<Region> regions = new ArrayList();
+        regions.add(world.getWorld());
+        RegionType[] types = RegionType.values();
+        for (int i = 1; i < numRegions; i++)
+        {
+            // EACH REGION GOES IN ONE OF THE FIRST FEW, SO THE TREE STAYS BUSHY
+            Region parent = regions.get(random.nextInt(Math.min(regions.size(), 1 + (i / 20))));
+            int typeIndex = Math.min(parent.getType().ordinal() + 1, types.length - 1);
+            Region region = new Region("R" + i, "R" + random.nextInt(1000000), types[typeIndex]);
+            world.addRegion(region, parent);
+            regions.add(region);
+        }
+        return world;
+    }
+}
@@ -0,0 +1,172 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This program times finding regions by misspelled names, the way a user
+ * would type them, in a big world whose names are made of syllables, so
+ * lots of them start the same way. Every search is for a real name or
+ * capital with one or two typos, and it reports how long the median
+ * search and the 99th percentile search take, along with the slowest.
+ *
+ * Usage: SpellingBenchmark [numRegions] [numSearches] [maxDistance]
+ *
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class SpellingBenchmark
+{
+    // WHAT WE DO IF WE'RE NOT TOLD OTHERWISE
+    private static final int DEFAULT_NUM_REGIONS = 1000000;
+    private static final int DEFAULT_NUM_SEARCHES = 2000;
+    private static final int DEFAULT_MAX_DISTANCE = 2;
+
+    // HOW MANY REGIONS EACH SEARCH ASKS FOR
+    private static final int MAX_MATCHES = 10;
+
+    // HOW MANY TIMES THE SEARCHES ARE RUN, THE FIRST ONES ARE WARMUP
+    private static final int NUM_RUNS = 3;
+
+    // WHAT THE NAMES ARE MADE OF
+    private static final String[] SYLLABLES = {
+        "a", "ba", "bel", "bur", "ca", "cha", "da", "del", "do", "e",
+        "fa", "gan", "gra", "ha", "i", "ka", "ki", "la", "land", "li",
+        "ma", "mar", "mo", "na", "nia", "no", "o", "pa", "po", "ra",
+        "ri", "ro", "sa", "san", "sta", "ta", "ter", "to", "u", "va",
+        "ve", "vi", "wa", "zan", "zi"
+    };
+
+    // THE SEARCHES PUT THEIR ANSWERS HERE SO THE CALLS CAN'T BE OPTIMIZED AWAY
+    private static volatile int sink;
+
+    /**
+     * Runs all the timings.
+     *
+     * @param args Optionally, the number of regions, how many searches
+     * to time, and how many typos a match may have.
+     */
+    public static void main(String[] args)
+    {
+        int numRegions = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_NUM_REGIONS;
+        int numSearches = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_NUM_SEARCHES;
+        int maxDistance = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MAX_DISTANCE;
+        Random random = new Random(6);
+        WorldDataManager world = makeWorld(numRegions, random);
+        String[] searches = makeSearches(world, numSearches, random);
+        System.out.println(numRegions + " REGIONS, " + numSearches + " SEARCHES, UP TO "
+                + maxDistance + " TYPOS, " + MAX_MATCHES + " MATCHES");
+        long startTime = System.nanoTime();
+        world.findRegionsBySpelling(searches[0], maxDistance, MAX_MATCHES);
+        System.out.println("    building the index: " + ((System.nanoTime() - startTime) / 1000000) + " ms");
+        for (int run = 1; run <= NUM_RUNS; run++)
+        {
+            long[] nanos = new long[searches.length];
+            int answer = 0;
+            for (int i = 0; i < searches.length; i++)
+            {
+                startTime = System.nanoTime();
+                List<Region> matches = world.findRegionsBySpelling(searches[i], maxDistance, MAX_MATCHES);
+                nanos[i] = System.nanoTime() - startTime;
+                answer += matches.size();
+            }
+            sink = answer;
+            if (run == NUM_RUNS)
+            {
+                Arrays.sort(nanos);
+                System.out.println("RUN " + run + " OF " + NUM_RUNS + ", " + answer + " MATCHES IN ALL");
+                System.out.println("    p50: " + micros(nanos[nanos.length / 2]) + " us, p99: "
+                        + micros(nanos[(nanos.length * 99) / 100]) + " us, slowest: "
+                        + micros(nanos[nanos.length - 1]) + " us");
+            }
+        }
+    }
+
+    private static long micros(long nanos)
+    {
+        return nanos / 1000;
+    }
+
+    /**
+     * Picks numSearches names and capitals of world at random and puts
+     * one or two typos in each, always the same ones.
+     */
+    private static String[] makeSearches(WorldDataManager world, int numSearches, Random random)
+    {
+        ArrayList<Region> allRegions = new ArrayList(world.getAllRegions());
+        String[] searches = new String[numSearches];
+        for (int i = 0; i < numSearches; i++)
+        {
+            Region region = allRegions.get(random.nextInt(allRegions.size()));
+            String text = ((region.getCapital() != null) && random.nextBoolean()) ? region.getCapital() : region.getName();
+            int numTypos = 1 + random.nextInt(2);
+            for (int j = 0; j < numTypos; j++)
+            {
+                text = addTypo(text, random);
+            }
+            searches[i] = text;
+        }
+        return searches;
+    }
+
+    /**
+     * Inserts, deletes, or replaces one letter of text at random.
+     */
+    private static String addTypo(String text, Random random)
+    {
+        int at = random.nextInt(text.length());
+        char letter = (char)('a' + random.nextInt(26));
+        int typo = random.nextInt(3);
+        if ((typo == 0) && (text.length() > 1))
+        {
+            return text.substring(0, at) + text.substring(at + 1);
+        }
+        else if (typo == 1)
+        {
+            return text.substring(0, at) + letter + text.substring(at);
+        }
+        return text.substring(0, at) + letter + text.substring(at + 1);
+    }
+
+    /**
+     * Makes a name of two to four syllables.
+     */
+    private static String makeName(Random random)
+    {
+        StringBuilder name = new StringBuilder();
+        int numSyllables = 2 + random.nextInt(3);
+        for (int i = 0; i < numSyllables; i++)
+        {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name.toString();
+    }
+
+    /**
+     * Makes a world of numRegions regions, with continents, nations,
+     * states, and counties, half of them with capitals.
+     */
+    private static WorldDataManager makeWorld(int numRegions, Random random)
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        ArrayList<Region> regions = new ArrayList();
+        regions.add(world.getWorld());
+        RegionType[] types = RegionType.values();
+        for (int i = 1; i < numRegions; i++)
+        {
+            // EACH REGION GOES IN ONE OF THE FIRST FEW, SO THE TREE STAYS BUSHY
+            Region parent = regions.get(random.nextInt(Math.min(regions.size(), 1 + (i / 20))));
+            int typeIndex = Math.min(parent.getType().ordinal() + 1, types.length - 1);
+            String capital = random.nextBoolean() ? makeName(random) : null;
+            Region region = new Region("R" + i, makeName(random), types[typeIndex], capital);
+            world.addRegion(region, parent);
+            regions.add(region);
+        }
+        return world;
+    }
+}
@@ -0,0 +1,158 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * This program times attaching many child regions to one parent, which is
+ * what loading a world with a very large region, like a state with tens of
+ * thousands of counties, comes down to. It compares the way children used
+ * to be added, appending each one and then sorting them all again, with
+ * adding them one at a time by binary search and with adding them all at
+ * once, which is what the loaders do.
+ * 
+ * Usage: SubRegionInsertBenchmark [numChildren]
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class SubRegionInsertBenchmark
+{
+    // HOW MANY CHILDREN TO ADD IF WE'RE NOT TOLD
+    private static final int DEFAULT_NUM_CHILDREN = 100000;
+    
+    // HOW MANY TIMES EACH TEST IS RUN, THE FIRST ONES ARE WARMUP
+    private static final int NUM_RUNS = 3;
+    
+    // HOW MANY CHILDREN ARE RENAMED WHEN TIMING setName
+    private static final int NUM_RENAMES = 10000;
+
+    /**
+     * Runs all the timings.
+     * 
+     * @param args Optionally, the number of children to add.
+     */
+    public static void main(String[] args)
+    {
+        int numChildren = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_NUM_CHILDREN;
+        for (int run = 1; run <= NUM_RUNS; run++)
+        {
+            System.out.println("RUN " + run + " OF " + NUM_RUNS + ", " + numChildren + " CHILDREN");
+
+            // THE OLD WAY TAKES MINUTES FOR A BIG REGION, SO ONCE IS PLENTY
+            if (run == 1)
+            {
+                report("sort after every add", timeSortAfterEveryAdd(numChildren));
+            }
+            report("addRegion one at a time", timeAddOneAtATime(numChildren));
+            report("addRegions all at once", timeAddAllAtOnce(numChildren));
+            report(NUM_RENAMES + " renames", timeRenames(numChildren));
+        }
+    }
+
+    /**
+     * Times adding the children the way it used to be done, appending
+     * each one and then sorting the whole list again.
+     */
+    private static long timeSortAfterEveryAdd(int numChildren)
+    {
+        ArrayList<Region> children = makeChildren(numChildren);
+        long startTime = System.nanoTime();
+        ArrayList<Region> subRegions = new ArrayList();
+        for (Region child : children)
+        {
+            subRegions.add(child);
+            Collections.sort(subRegions);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Times adding the children to a world one at a time, each of which
+     * is put in its place by a binary search.
+     */
+    private static long timeAddOneAtATime(int numChildren)
+    {
+        ArrayList<Region> children = makeChildren(numChildren);
+        long startTime = System.nanoTime();
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        Region parent = world.getWorld();
+        for (Region child : children)
+        {
+            world.addRegion(child, parent);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Times adding the children to a world all at once, which sorts them
+     * only the one time.
+     */
+    private static long timeAddAllAtOnce(int numChildren)
+    {
+        ArrayList<Region> children = makeChildren(numChildren);
+        long startTime = System.nanoTime();
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        world.addRegions(children, world.getWorld());
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Times renaming some of the children once they've all been added,
+     * each of which moves the child to its new place among the others.
+     */
+    private static long timeRenames(int numChildren)
+    {
+        ArrayList<Region> children = makeChildren(numChildren);
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        world.addRegions(children, world.getWorld());
+        Random random = new Random(11);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < NUM_RENAMES; i++)
+        {
+            Region child = children.get(random.nextInt(children.size()));
+            child.setName(randomName(random));
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Makes numChildren counties with random names, always the same ones.
+     */
+    private static ArrayList<Region> makeChildren(int numChildren)
+    {
+        Random random = new Random(3);
+        ArrayList<Region> children = new ArrayList(numChildren);
+        for (int i = 0; i < numChildren; i++)
+        {
+            children.add(new Region("C" + i, randomName(random), RegionType.COUNTY));
+        }
+        return children;
+    }
+
+    /**
+     * Makes a name of eight random capital letters.
+     */
+    private static String randomName(Random random)
+    {
+        char[] name = new char[8];
+        for (int i = 0; i < name.length; i++)
+        {
+            name[i] = (char)('A' + random.nextInt(26));
+        }
+        return new String(name);
+    }
+
+    /**
+     * Prints how long one of the tests took.
+     */
+    private static void report(String test, long nanos)
+    {
+        System.out.println("    " + test + ": " + (nanos / 1000000) + " ms");
+    }
+}
@@ -0,0 +1,555 @@
+package world_data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This program checks that every region keeps its sub regions in order by
+ * name while they're added, removed, and renamed, both on their own and
+ * in transactions, and that they can still be found and removed after
+ * being renamed. That includes worlds that sort names for a locale, and
+ * versions of a world, which must keep the same order as the world does
+ * when the same edits are made to both, including the one a world in
+ * concurrent mode keeps up to date for its snapshots, and the name index,
+ * which must find the same regions as one made from scratch after edits
+ * in transactions. It prints what went wrong and exits with a non-zero
+ * status if anything is out of order.
+ * 
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class SubRegionOrderCheck
+{
+    // HOW MANY THINGS WE'VE SEEN GO WRONG
+    private static int numFailures = 0;
+
+    /**
+     * Runs all the checks.
+     * 
+     * @param args Not used.
+     */
+    public static void main(String[] args)
+    {
+        checkRenames(new Random(5), false);
+        checkRenames(new Random(5), true);
+        checkRollback();
+        checkRegionWithoutWorld();
+        checkNameLocale();
+        checkOrderedViews();
+        checkVersionEdits(new Random(7));
+        checkConcurrentVersion(new Random(11));
+        checkNameIndex(new Random(13));
+        if (numFailures > 0)
+        {
+            System.out.println(numFailures + " FAILURES");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Renames lots of the children of one region, either one at a time or
+     * in a single transaction, checking they stay in order.
+     */
+    private static void checkRenames(Random random, boolean inTransaction)
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        Region parent = world.getWorld();
+        ArrayList<Region> children = new ArrayList();
+        for (int i = 0; i < 200; i++)
+        {
+            Region child = new Region("C" + i, randomName(random), RegionType.CONTINENT);
+            world.addRegion(child, parent);
+            children.add(child);
+        }
+        String when = inTransaction ? " in a transaction" : "";
+        if (inTransaction)
+        {
+            world.beginTransaction();
+        }
+        for (int i = 0; i < 500; i++)
+        {
+            children.get(random.nextInt(children.size())).setName(randomName(random));
+            if (!inTransaction)
+            {
+                checkSorted(parent, "after a rename");
+            }
+        }
+        if (inTransaction)
+        {
+            world.commitTransaction();
+        }
+        checkSorted(parent, "after renames" + when);
+
+        // A RENAMED CHILD MUST STILL BE FOUND WHERE ITS NEW NAME SAYS
+        for (int i = 0; i < 100; i++)
+        {
+            Region child = children.remove(random.nextInt(children.size()));
+            world.removeRegion(child);
+            check(!contains(parent, child), "removed " + child.getId() + " after renames" + when);
+        }
+        checkSorted(parent, "after removals");
+    }
+
+    /**
+     * Renames children in a transaction that's rolled back, which must
+     * leave them as they were.
+     */
+    private static void checkRollback()
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        Region parent = world.getWorld();
+        Region asia = new Region("AS", "Asia", RegionType.CONTINENT);
+        Region europe = new Region("EU", "Europe", RegionType.CONTINENT);
+        world.addRegion(asia, parent);
+        world.addRegion(europe, parent);
+        world.beginTransaction();
+        asia.setName("Zealandia");
+        world.rollbackTransaction();
+        checkSorted(parent, "after a rollback");
+        check(asia.getName().equals("Asia"), "Asia's name after a rollback");
+        europe.setName("Arctic");
+        checkSorted(parent, "after a rename following a rollback");
+    }
+
+    /**
+     * Renames the children of a region that isn't in any world.
+     */
+    private static void checkRegionWithoutWorld()
+    {
+        Region parent = new Region("W", "World", RegionType.WORLD);
+        Region[] children = new Region[3];
+        for (int i = 0; i < children.length; i++)
+        {
+            children[i] = new Region("C" + i, "" + (char)('A' + i), RegionType.CONTINENT);
+            parent.addSubRegion(children[i]);
+            children[i].setParentRegion(parent);
+        }
+        children[0].setName("Z");
+        checkSorted(parent, "after renaming a child of a region without a world");
+    }
+
+    /**
+     * Sorts a world's names for a locale, after which accented names
+     * go with the unaccented ones rather than after Z, both among sub
+     * regions and in versions of the world.
+     */
+    private static void checkNameLocale()
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        Region parent = world.getWorld();
+        String[] names = { "Zambia", "Éire", "Egypt", "Ecuador", "Yemen" };
+        for (int i = 0; i < names.length; i++)
+        {
+            world.addRegion(new Region("C" + i, names[i], RegionType.NATION), parent);
+        }
+        List<Region> byName = parent.getSubRegionsByName();
+        check(byName.get(4).getName().equals("Éire"), "Éire is last by char");
+        world.setNameLocale(Locale.ENGLISH);
+        checkSorted(parent, "after setting the locale");
+        byName = parent.getSubRegionsByName();
+        check(byName.get(2).getName().equals("Éire"), "Éire is after Egypt in English");
+        
+        world.addRegion(new Region("C5", "Estonia", RegionType.NATION), parent);
+        world.getRegion("C4").setName("Ålesund");
+        checkSorted(parent, "after adding and renaming in English");
+        byName = parent.getSubRegionsByName();
+        check(byName.get(0).getName().equals("Ålesund"), "Ålesund is first in English");
+        check(world.findRegionsByPrefix("e", 10).size() == 4, "finding the E names in English");
+        
+        WorldVersion version = world.getVersion().withName("C0", "Ézé");
+        Iterator<Region> it = version.getWorld().getSubRegions();
+        Region previous = null;
+        while (it.hasNext())
+        {
+            Region subRegion = it.next();
+            check((previous == null) || (world.getNameOrder().compare(previous, subRegion) <= 0),
+                    previous + " is before " + subRegion + " in a version");
+            previous = subRegion;
+        }
+        
+        world.setNameLocale(null);
+        checkSorted(parent, "after going back to char order");
+    }
+
+    /**
+     * Gets the sub regions in several orders, making sure only the
+     * region's own orders are kept and that they're let go of when the
+     * children change.
+     */
+    private static void checkOrderedViews()
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        Region parent = world.getWorld();
+        world.addRegion(new Region("B", "Alpha", RegionType.CONTINENT), parent);
+        world.addRegion(new Region("A", "Beta", RegionType.CONTINENT), parent);
+        Comparator<Region> byCapital = new Comparator<Region>()
+        {
+            @Override
+            public int compare(Region region1, Region region2)
+            {
+                return String.valueOf(region1.getCapital()).compareTo(String.valueOf(region2.getCapital()));
+            }
+        };
+        List<Region> byId = parent.getSubRegionsById();
+        check(byId.get(0).getId().equals("A"), "sorting by id");
+        check(parent.getSubRegionsById() == byId, "keeping the id order");
+        check(parent.getSubRegionsInOrder(byCapital) != parent.getSubRegionsInOrder(byCapital),
+                "not keeping some other order");
+        world.getRegion("A").setName("Aardvark");
+        check(parent.getSubRegionsById() != byId, "letting go of the id order after a rename");
+    }
+
+    /**
+     * Makes the same renames, additions, and removals to a world and to a
+     * version of it, checking that the version's children stay in the
+     * same order as the world's.
+     */
+    private static void checkVersionEdits(Random random)
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        Region parent = world.getWorld();
+        ArrayList<Region> children = new ArrayList();
+        for (int i = 0; i < 200; i++)
+        {
+            Region child = new Region("C" + i, randomName(random), RegionType.CONTINENT);
+            world.addRegion(child, parent);
+            children.add(child);
+        }
+        WorldVersion version = world.getVersion();
+        check(world.getVersion() == version, "reusing a version of an unchanged world");
+        int nextId = children.size();
+        for (int i = 0; i < 1000; i++)
+        {
+            int edit = random.nextInt(4);
+            if ((edit == 0) && !children.isEmpty())
+            {
+                Region child = children.remove(random.nextInt(children.size()));
+                world.removeRegion(child);
+                version = version.withoutRegion(child.getId());
+            }
+            else if (edit == 1)
+            {
+                Region child = new Region("C" + nextId++, randomName(random), RegionType.CONTINENT);
+                world.addRegion(child, parent);
+                children.add(child);
+                version = version.withRegion(child.getId(), child.getName(), child.getType(), null, parent.getId());
+            }
+            else if (!children.isEmpty())
+            {
+                Region child = children.get(random.nextInt(children.size()));
+                String name = randomName(random);
+                child.setName(name);
+                version = version.withName(child.getId(), name);
+            }
+            if (!sameOrder(parent, version.getRegion(parent.getId())))
+            {
+                check(false, "the version's order after edit " + i);
+                return;
+            }
+        }
+        check(world.getVersion() != version, "making a new version of a changed world");
+    }
+
+    /**
+     * Makes all kinds of edits to a world in concurrent mode, one at a time
+     * and in transactions, checking after each that the version it keeps
+     * up to date, and the snapshot made from it, are just like a version
+     * made from scratch.
+     */
+    private static void checkConcurrentVersion(Random random)
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        ArrayList<Region> regions = new ArrayList();
+        regions.add(world.getWorld());
+        for (int i = 1; i < 300; i++)
+        {
+            Region region = new Region("R" + i, randomName(random), RegionType.CONTINENT);
+            world.addRegion(region, regions.get(random.nextInt(regions.size())));
+            regions.add(region);
+        }
+        world.setConcurrent(true);
+        int nextId = regions.size();
+        for (int i = 0; i < 600; i++)
+        {
+            int edit = random.nextInt(8);
+            if (edit == 7)
+            {
+                world.beginTransaction();
+                for (int j = 0; j < 10; j++)
+                {
+                    nextId = editAtRandom(world, regions, random, random.nextInt(7), nextId);
+                }
+                if (random.nextBoolean())
+                {
+                    world.commitTransaction();
+                }
+                else
+                {
+                    world.rollbackTransaction();
+                    regions.clear();
+                    regions.addAll(world.getAllRegions());
+                }
+            }
+            else
+            {
+                nextId = editAtRandom(world, regions, random, edit, nextId);
+            }
+            WorldVersion expected = WorldVersion.of(world.getWorld(), world.getAllRegions(), world.getNameLocale());
+            WorldVersion version = world.getVersion();
+            WorldDataManager snapshot = world.getSnapshot();
+            check(version.size() == expected.size(), "the number of regions in the version after edit " + i);
+            check(snapshot.getAllRegions().size() == expected.size(), "the number of regions in the snapshot after edit " + i);
+            for (Region region : expected.getAllRegions())
+            {
+                if (!sameRegion(region, version.getRegion(region.getId()))
+                        || !sameRegion(region, snapshot.getRegion(region.getId())))
+                {
+                    check(false, region.getId() + " after edit " + i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes all kinds of edits to a world whose name index is already
+     * built, in transactions that are committed or rolled back, checking
+     * after each that searches find just what an index made from scratch
+     * would, including searches made partway through a transaction.
+     */
+    private static void checkNameIndex(Random random)
+    {
+        WorldDataManager world = new WorldDataManager();
+        world.reset("World");
+        ArrayList<Region> regions = new ArrayList();
+        regions.add(world.getWorld());
+        for (int i = 1; i < 300; i++)
+        {
+            Region region = new Region("R" + i, randomName(random), RegionType.CONTINENT);
+            world.addRegion(region, regions.get(random.nextInt(regions.size())));
+            regions.add(region);
+        }
+        world.findRegionsByPrefix("A", 1);
+        int nextId = regions.size();
+        for (int i = 0; i < 200; i++)
+        {
+            world.beginTransaction();
+            for (int j = 0; j < 10; j++)
+            {
+                nextId = editAtRandom(world, regions, random, random.nextInt(7), nextId);
+            }
+            checkSameMatches(world, "partway through transaction " + i);
+            if (random.nextBoolean())
+            {
+                world.commitTransaction();
+            }
+            else
+            {
+                world.rollbackTransaction();
+                regions.clear();
+                regions.addAll(world.getAllRegions());
+            }
+            checkSameMatches(world, "after transaction " + i);
+        }
+    }
+
+    /**
+     * Makes sure world's searches find the same regions as searches of
+     * an index made from scratch.
+     */
+    private static void checkSameMatches(WorldDataManager world, String when)
+    {
+        RegionNameIndex expected = new RegionNameIndex(world.getAllRegions(), world.getNameOrder());
+        for (char letter = 'A'; letter <= 'F'; letter++)
+        {
+            String prefix = String.valueOf(letter);
+            check(sameRegions(expected.findRegions(prefix, Integer.MAX_VALUE),
+                              world.findRegionsByPrefix(prefix, Integer.MAX_VALUE)),
+                  "regions starting with " + prefix + " " + when);
+            String spelling = prefix + prefix + prefix;
+            check(sameRegions(expected.findRegionsBySpelling(spelling, 1, Integer.MAX_VALUE),
+                              world.findRegionsBySpelling(spelling, 1, Integer.MAX_VALUE)),
+                  "regions spelled like " + spelling + " " + when);
+        }
+    }
+
+    /**
+     * Tests to see if two lists have the same regions, in any order.
+     */
+    private static boolean sameRegions(List<Region> regions1, List<Region> regions2)
+    {
+        IdentityHashMap<Region, Boolean> found = new IdentityHashMap();
+        for (Region region : regions1)
+        {
+            found.put(region, Boolean.TRUE);
+        }
+        for (Region region : regions2)
+        {
+            if (found.remove(region) == null)
+            {
+                return false;
+            }
+        }
+        return found.isEmpty();
+    }
+
+    /**
+     * Makes one edit to a random region of world, adding any new region
+     * to regions, and returns the next id to use.
+     */
+    private static int editAtRandom(WorldDataManager world, ArrayList<Region> regions, Random random, int edit, int nextId)
+    {
+        Region region = regions.get(random.nextInt(regions.size()));
+        if (region == world.getWorld())
+        {
+            edit = 0;
+        }
+        if (edit == 0)
+        {
+            Region newRegion = new Region("R" + nextId++, randomName(random), RegionType.NATION);
+            world.addRegion(newRegion, region);
+            regions.add(newRegion);
+        }
+        else if (edit == 1)
+        {
+            world.removeRegion(region);
+            regions.remove(region);
+        }
+        else if (edit == 2)
+        {
+            world.removeSubtree(region);
+            regions.clear();
+            regions.addAll(world.getAllRegions());
+        }
+        else if (edit == 3)
+        {
+            Region newParent = regions.get(random.nextInt(regions.size()));
+            if (!world.isAncestor(region, newParent) && (region != newParent))
+            {
+                world.moveRegion(region, newParent);
+            }
+        }
+        else if (edit == 4)
+        {
+            region.setCapital(randomName(random));
+        }
+        else if (edit == 5)
+        {
+            region.setType(RegionType.STATE);
+        }
+        else
+        {
+            region.setName(randomName(random));
+        }
+        return nextId;
+    }
+
+    /**
+     * Tests to see if actual is just like expected, including its parent
+     * and the order of its children.
+     */
+    private static boolean sameRegion(Region expected, Region actual)
+    {
+        if (actual == null)
+        {
+            return false;
+        }
+        Region expectedParent = expected.getParentRegion();
+        Region actualParent = actual.getParentRegion();
+        return expected.getName().equals(actual.getName())
+                && (expected.getType() == actual.getType())
+                && ((expected.getCapital() == null) ? (actual.getCapital() == null) : expected.getCapital().equals(actual.getCapital()))
+                && ((expectedParent == null) ? (actualParent == null) : ((actualParent != null) && expectedParent.getId().equals(actualParent.getId())))
+                && sameOrder(expected, actual);
+    }
+
+    /**
+     * Tests to see if two regions have the same children in the same order.
+     */
+    private static boolean sameOrder(Region parent1, Region parent2)
+    {
+        Iterator<Region> it1 = parent1.getSubRegions();
+        Iterator<Region> it2 = parent2.getSubRegions();
+        while (it1.hasNext() && it2.hasNext())
+        {
+            if (!it1.next().getId().equals(it2.next().getId()))
+            {
+                return false;
+            }
+        }
+        return !it1.hasNext() && !it2.hasNext();
+    }
+
+    /**
+     * Tests to see if child is one of parent's sub regions.
+     */
+    private static boolean contains(Region parent, Region child)
+    {
+        Iterator<Region> it = parent.getSubRegions();
+        while (it.hasNext())
+        {
+            if (it.next() == child)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes sure parent's sub regions are in order by name.
+     */
+    private static void checkSorted(Region parent, String when)
+    {
+        Iterator<Region> it = parent.getSubRegions();
+        Region previous = null;
+        while (it.hasNext())
+        {
+            Region subRegion = it.next();
+            if ((previous != null) && (previous.compareTo(subRegion) > 0))
+            {
+                check(false, previous.getName() + " is before " + subRegion.getName() + " " + when);
+                return;
+            }
+            previous = subRegion;
+        }
+    }
+
+    /**
+     * Makes a name of three random capital letters, so some are the same.
+     */
+    private static String randomName(Random random)
+    {
+        char[] name = new char[3];
+        for (int i = 0; i < name.length; i++)
+        {
+            name[i] = (char)('A' + random.nextInt(6));
+        }
+        return new String(name);
+    }
+
+    /**
+     * Counts and prints a failure if ok is false.
+     */
+    private static void check(boolean ok, String what)
+    {
+        if (!ok)
+        {
+            System.out.println("WRONG: " + what);
+            numFailures++;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package world_io;
+
+import java.util.HashMap;
+
+/**
+ * This class makes sure that equal ids, names, and capitals read while
+ * loading a world all end up as the same String, rather than each
+ * attribute the parser hands us getting its own copy. Many regions share
+ * names, many capitals have the name of their region, and many ids are
+ * the region's name, so this keeps a loaded world from holding the same
+ * text over and over. A new pool is used for each load, so nothing is kept
+ * once the world is done loading.
+ *
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+final class RegionStringPool
+{
+    // EACH STRING WE'VE SEEN, MAPPED TO ITSELF
+    private HashMap<String, String> strings;
+
+    /**
+     * Constructor for making an empty pool.
+     */
+    RegionStringPool()
+    {
+        strings = new HashMap();
+    }
+
+    /**
+     * Gets the one String in this pool equal to text, adding text if
+     * there isn't one yet.
+     *
+     * @param text The text read from the file, which may be null.
+     *
+     * @return The pooled String equal to text, or null if text is.
+     */
+    String intern(String text)
+    {
+        if (text == null)
+        {
+            return null;
+        }
+        String pooled = strings.get(text);
+        if (pooled == null)
+        {
+            strings.put(text, text);
+            return text;
+        }
+        return pooled;
+    }
+}
@@ -0,0 +1,509 @@
+package world_io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import world_data.Region;
+import world_data.RegionType;
+import world_data.WorldDataManager;
+import world_data.WorldImporterExporter;
+
+/**
+ * This class serves as a plugin for reading and writing worlds to and
+ * from compact binary files, for when XML is too slow or too big. A file
+ * is laid out as follows, with every number written as a varint, meaning
+ * 7 bits per byte with the high bit set on all but the last byte:
+ *
+ *   - the 4 bytes WRLD followed by the format version
+ *   - the number of distinct Strings, then each one as its length and
+ *     its chars, so each id, name, or capital is only stored once
+ *   - the number of regions, then one record per region, being its type
+ *     and whether it has a capital packed together, the String numbers of
+ *     its id, name, and capital, and the record number of its parent plus
+ *     one, with 0 meaning no parent
+ *   - a 4 byte CRC32 of everything before it
+ *
+ * Regions are written parents first, with each region's children in the
+ * order they're kept in, so every parent is made before its children and
+ * loading takes a single pass. Loading reads and checks the whole file
+ * before touching the world, so a damaged file leaves the world as it was.
+ *
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class WorldBinaryIO implements WorldImporterExporter
+{
+    // EVERY FILE STARTS WITH THESE
+    private static final byte[] MAGIC = {'W', 'R', 'L', 'D'};
+
+    // THE NEWEST FORMAT WE KNOW, TO BE BUMPED WHENEVER THE LAYOUT CHANGES
+    public static final int FORMAT_VERSION = 1;
+
+    // HOW MUCH OF THE FILE WE WRITE AT A TIME
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    // SIZE OF THE CHECKSUM AT THE END OF THE FILE
+    private static final int CHECKSUM_BYTES = 4;
+
+    // THE LOW BIT OF A REGION'S FLAGS SAYS IF IT HAS A CAPITAL,
+    // THE REST ARE ITS TYPE
+    private static final int HAS_CAPITAL_FLAG = 1;
+    private static final int TYPE_SHIFT = 1;
+
+    // STANDS FOR A REGION WITH NO PARENT
+    private static final int NO_PARENT = 0;
+
+    // ALL THE REGION TYPES, BY ORDINAL
+    private static final RegionType[] REGION_TYPES = RegionType.values();
+
+    /**
+     * Default constructor, there's nothing to set up since binary files
+     * don't need a schema.
+     */
+    public WorldBinaryIO() {}
+
+    /**
+     * Reads the geographic data found in regionsFile into worldToLoad.
+     *
+     * @param regionsFile The binary file to load the data from.
+     *
+     * @param worldToLoad The world to fill with the data from the file.
+     *
+     * @return true if the world loads successfully, false otherwise.
+     */
+    @Override
+    public boolean loadWorld(File regionsFile, WorldDataManager worldToLoad)
+    {
+        Region[] regions;
+        int[] parents;
+        try
+        {
+            // THE WHOLE FILE IS READ AND CHECKED BEFORE THE WORLD IS CHANGED
+            WorldReader reader = new WorldReader(Files.readAllBytes(regionsFile.toPath()));
+            reader.readHeader();
+
+            String[] strings = new String[reader.readCount()];
+            for (int i = 0; i < strings.length; i++)
+            {
+                strings[i] = reader.readString();
+            }
+
+            int numRegions = reader.readCount();
+            regions = new Region[numRegions];
+            parents = new int[numRegions];
+            HashSet<String> ids = new HashSet();
+            for (int i = 0; i < numRegions; i++)
+            {
+                int flags = reader.readVarint();
+                int typeOrdinal = flags >>> TYPE_SHIFT;
+                if (typeOrdinal >= REGION_TYPES.length)
+                {
+                    throw new IOException("Unknown region type: " + typeOrdinal);
+                }
+                RegionType regionType = REGION_TYPES[typeOrdinal];
+                String id = reader.readIndexed(strings);
+                if (!ids.add(id))
+                {
+                    throw new IOException("Region " + id + " is listed twice");
+                }
+                String name = reader.readIndexed(strings);
+                if ((flags & HAS_CAPITAL_FLAG) != 0)
+                {
+                    // MAKE A REGION WITH A CAPITAL
+                    String capital = reader.readIndexed(strings);
+                    regions[i] = new Region(id, name, regionType, capital);
+                }
+                else
+                {
+                    // MAKE A REGION WITHOUT A CAPITAL
+                    regions[i] = new Region(id, name, regionType);
+                }
+
+                // PARENTS ALWAYS COME BEFORE THEIR CHILDREN
+                parents[i] = reader.readVarint();
+                if (parents[i] > i)
+                {
+                    throw new IOException("Region " + id + " comes before its parent");
+                }
+            }
+            reader.readEnd();
+        }
+        catch(IOException | RuntimeException e)
+        {
+            // WORLD DIDN'T LOAD PROPERLY
+            return false;
+        }
+
+        // EMPTY THE REGIONS LIST
+        worldToLoad.clearRegions();
+
+        // PUT ALL THE REGIONS IN THE WORLD
+        for (Region regionToAdd : regions)
+        {
+            worldToLoad.addRegion(regionToAdd);
+            if (regionToAdd.getType() == RegionType.WORLD)
+            {
+                worldToLoad.setRoot(regionToAdd);
+            }
+        }
+
+        // AND THEN HOOK THEM UP, GATHERING EACH PARENT'S CHILDREN SO IT
+        // ONLY SORTS ONE TIME
+        ArrayList<Region>[] subRegions = new ArrayList[regions.length];
+        Region[] worldRegions = new Region[regions.length];
+        for (int i = 0; i < regions.length; i++)
+        {
+            worldRegions[i] = worldToLoad.getRegion(regions[i].getId());
+            if (parents[i] != NO_PARENT)
+            {
+                int parent = parents[i] - 1;
+                worldRegions[i].setParentRegion(worldRegions[parent]);
+                if (subRegions[parent] == null)
+                {
+                    subRegions[parent] = new ArrayList();
+                }
+                subRegions[parent].add(worldRegions[i]);
+            }
+        }
+        for (int i = 0; i < regions.length; i++)
+        {
+            if (subRegions[i] != null)
+            {
+                worldRegions[i].addSubRegions(subRegions[i]);
+            }
+        }
+        // WORLD LOADED PROPERLY
+        return true;
+    }
+
+    /**
+     * This method saves the world currently being edited to the worldFile
+     * in our binary format.
+     *
+     * @param worldFile The file to write the world to.
+     *
+     * @param worldToSave The world to save.
+     *
+     * @return true if the file is successfully saved, false otherwise. It's
+     * possible that another program could lock out ours from writing to it,
+     * so we need to let the caller know when this happens.
+     */
+    @Override
+    public boolean saveWorld(File worldFile, WorldDataManager worldToSave)
+    {
+        // FIRST PUT THE REGIONS IN THE ORDER WE'LL WRITE THEM
+        ArrayList<Region> regions = new ArrayList(worldToSave.getAllRegions().size());
+        HashMap<String, Integer> regionNumbers = new HashMap();
+        for (Region region : worldToSave.getAllRegions())
+        {
+            Region parent = region.getParentRegion();
+            if ((parent == null) || (worldToSave.getRegion(parent.getId()) == null))
+            {
+                addSubtree(region, worldToSave, regions, regionNumbers);
+            }
+        }
+
+        // ANY REGION NOT REACHED FROM A ROOT IS LISTED BY ITS PARENT WITHOUT
+        // BEING ONE OF ITS SUB REGIONS, SO IT'S SAVED ON ITS OWN
+        for (Region region : worldToSave.getAllRegions())
+        {
+            if (!regionNumbers.containsKey(region.getId()))
+            {
+                addSubtree(region, worldToSave, regions, regionNumbers);
+            }
+        }
+
+        // THEN GATHER ALL THEIR DISTINCT TEXT
+        ArrayList<String> strings = new ArrayList();
+        HashMap<String, Integer> stringNumbers = new HashMap();
+        for (Region region : regions)
+        {
+            addString(region.getId(), strings, stringNumbers);
+            addString(region.getName(), strings, stringNumbers);
+            if (region.hasCapital())
+            {
+                addString(region.getCapital(), strings, stringNumbers);
+            }
+        }
+
+        try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(worldFile), WRITE_BUFFER_SIZE))
+        {
+            CheckedOutputStream out = new CheckedOutputStream(fileOut, new CRC32());
+
+            // THE HEADER
+            out.write(MAGIC);
+            writeVarint(out, FORMAT_VERSION);
+
+            // THE STRING TABLE
+            writeVarint(out, strings.size());
+            for (String text : strings)
+            {
+                writeString(out, text);
+            }
+
+            // THE REGIONS
+            writeVarint(out, regions.size());
+            for (int i = 0; i < regions.size(); i++)
+            {
+                Region region = regions.get(i);
+                boolean hasCapital = region.hasCapital();
+                writeVarint(out, (region.getType().ordinal() << TYPE_SHIFT) | (hasCapital ? HAS_CAPITAL_FLAG : 0));
+                writeVarint(out, stringNumbers.get(region.getId()));
+                writeVarint(out, stringNumbers.get(region.getName()));
+                if (hasCapital)
+                {
+                    writeVarint(out, stringNumbers.get(region.getCapital()));
+                }
+
+                // ONLY A REGION SAVED ON ITS OWN CAN HAVE A PARENT THAT COMES
+                // AFTER IT, AND IT WASN'T ONE OF THAT PARENT'S SUB REGIONS
+                Region parent = region.getParentRegion();
+                Integer parentNumber = (parent == null) ? null : regionNumbers.get(parent.getId());
+                boolean hasParent = (parentNumber != null) && (parentNumber < i);
+                writeVarint(out, hasParent ? (parentNumber + 1) : NO_PARENT);
+            }
+
+            // AND THE CHECKSUM, WHICH ISN'T PART OF WHAT IT CHECKS
+            int checksum = (int)out.getChecksum().getValue();
+            fileOut.write(checksum >>> 24);
+            fileOut.write(checksum >>> 16);
+            fileOut.write(checksum >>> 8);
+            fileOut.write(checksum);
+            return true;
+        }
+        catch(IOException ioe)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Private helper method that numbers subtreeRoot and all the regions
+     * in the world below it, parents before children, skipping any that
+     * are already numbered. It doesn't recurse, so deep worlds are fine.
+     */
+    private void addSubtree(Region subtreeRoot, WorldDataManager world,
+                            ArrayList<Region> regions, HashMap<String, Integer> regionNumbers)
+    {
+        ArrayList<Region> stack = new ArrayList();
+        ArrayList<Region> children = new ArrayList();
+        stack.add(subtreeRoot);
+        while (!stack.isEmpty())
+        {
+            Region region = stack.remove(stack.size() - 1);
+            if (regionNumbers.containsKey(region.getId()))
+            {
+                continue;
+            }
+            regionNumbers.put(region.getId(), regions.size());
+            regions.add(region);
+
+            // PUSH THE CHILDREN BACKWARDS SO THE FIRST ONE COMES OFF FIRST
+            children.clear();
+            Iterator<Region> subRegionsIt = region.getSubRegions();
+            while (subRegionsIt.hasNext())
+            {
+                Region subRegion = subRegionsIt.next();
+                if (world.getRegion(subRegion.getId()) != null)
+                {
+                    children.add(subRegion);
+                }
+            }
+            for (int i = children.size() - 1; i >= 0; i--)
+            {
+                stack.add(children.get(i));
+            }
+        }
+    }
+
+    /**
+     * Private helper method that gives text a number in the string table,
+     * unless it already has one.
+     */
+    private void addString(String text, ArrayList<String> strings, HashMap<String, Integer> stringNumbers)
+    {
+        if (!stringNumbers.containsKey(text))
+        {
+            stringNumbers.put(text, strings.size());
+            strings.add(text);
+        }
+    }
+
+    /**
+     * Private helper method that writes text as its length followed by
+     * each of its chars, all as varints, so ASCII takes one byte per char.
+     */
+    private void writeString(OutputStream out, String text) throws IOException
+    {
+        int length = text.length();
+        writeVarint(out, length);
+        for (int i = 0; i < length; i++)
+        {
+            writeVarint(out, text.charAt(i));
+        }
+    }
+
+    /**
+     * Private helper method that writes a non-negative int 7 bits at a
+     * time, low bits first, setting the high bit of every byte but the last.
+     */
+    private void writeVarint(OutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7f) != 0)
+        {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * A WorldReader reads the parts of a binary world file from the bytes
+     * of the file, complaining about anything that's out of place.
+     */
+    private static class WorldReader
+    {
+        private byte[] data;
+        private int position;
+
+        // WHERE THE CHECKSUM STARTS
+        private int end;
+
+        /**
+         * Constructor for reading the file whose contents are initData.
+         */
+        WorldReader(byte[] initData)
+        {
+            data = initData;
+            position = 0;
+            end = data.length - CHECKSUM_BYTES;
+        }
+
+        /**
+         * Reads and checks the start of the file, first making sure it's
+         * all there by checking its checksum.
+         */
+        void readHeader() throws IOException
+        {
+            if (end < MAGIC.length)
+            {
+                throw new IOException("Not a world file");
+            }
+            for (int i = 0; i < MAGIC.length; i++)
+            {
+                if (data[i] != MAGIC[i])
+                {
+                    throw new IOException("Not a world file");
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, end);
+            int checksum = ((data[end] & 0xff) << 24)
+                    | ((data[end + 1] & 0xff) << 16)
+                    | ((data[end + 2] & 0xff) << 8)
+                    | (data[end + 3] & 0xff);
+            if (checksum != (int)crc.getValue())
+            {
+                throw new IOException("World file is damaged");
+            }
+            position = MAGIC.length;
+            int version = readVarint();
+            if (version > FORMAT_VERSION)
+            {
+                throw new IOException("Unsupported world file version: " + version);
+            }
+        }
+
+        /**
+         * Reads a non-negative int written by writeVarint.
+         */
+        int readVarint() throws IOException
+        {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7)
+            {
+                if (position >= end)
+                {
+                    throw new IOException("World file is truncated");
+                }
+                int b = data[position++];
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    if (value < 0)
+                    {
+                        throw new IOException("Malformed number in world file");
+                    }
+                    return value;
+                }
+            }
+            throw new IOException("Malformed number in world file");
+        }
+
+        /**
+         * Reads a count of things, each of which takes at least one byte,
+         * so a damaged count can't make us allocate too much.
+         */
+        int readCount() throws IOException
+        {
+            int count = readVarint();
+            if (count > (end - position))
+            {
+                throw new IOException("World file is truncated");
+            }
+            return count;
+        }
+
+        /**
+         * Reads a String written by writeString.
+         */
+        String readString() throws IOException
+        {
+            char[] chars = new char[readCount()];
+            for (int i = 0; i < chars.length; i++)
+            {
+                int c = readVarint();
+                if (c > Character.MAX_VALUE)
+                {
+                    throw new IOException("Malformed char in world file");
+                }
+                chars[i] = (char)c;
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Reads a String number and returns that String.
+         */
+        String readIndexed(String[] strings) throws IOException
+        {
+            int index = readVarint();
+            if (index >= strings.length)
+            {
+                throw new IOException("Unknown string in world file: " + index);
+            }
+            return strings[index];
+        }
+
+        /**
+         * Makes sure everything before the checksum has been read.
+         */
+        void readEnd() throws IOException
+        {
+            if (position != end)
+            {
+                throw new IOException("Unexpected data in world file");
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package world_io;
 
 import java.awt.HeadlessException;
 import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
 import javax.xml.parsers.DocumentBuilder;
@@ -39,7 +41,16 @@ public class WorldIO implements WorldImporterExporter
     private XMLUtilities xmlUtil;
     
     // THIS IS THE SCHEMA WE'LL USE
-    private File worldSchema;
+    private URL worldSchema;
+
+    /**
+     * Constructor for making an importer/exporter that uses the schema
+     * bundled with this library.
+     */
+    public WorldIO()
+    {
+        this(WorldIO.class.getResource(WORLD_REGIONS_SCHEMA));
+    }
 
     /**
      * Constructor for making our importer/exporter. Note that it
@@ -47,12 +58,57 @@ public class WorldIO implements WorldImporterExporter
      * sets up the schema for use.
      */
     public WorldIO(File initWorldSchema)
+    {
+        this(toURL(initWorldSchema));
+    }
+
+    /**
+     * Constructor for making an importer/exporter that uses the schema
+     * found at initWorldSchema, which may be a classpath resource.
+     */
+    public WorldIO(URL initWorldSchema)
     {
         xmlUtil = new XMLUtilities();
         
         // WE'LL USE THE SCHEMA FILE TO VALIDATE THE XML FILES
         worldSchema = initWorldSchema;
     }
+
+    /**
+     * Accessor method for the XML utility this importer/exporter uses, so
+     * subclasses can share it.
+     * 
+     * @return The XML utility.
+     */
+    protected XMLUtilities getXMLUtilities()
+    {
+        return xmlUtil;
+    }
+
+    /**
+     * Accessor method for the schema world files are validated against.
+     * 
+     * @return The location of the schema, which may be a classpath resource.
+     */
+    protected URL getWorldSchema()
+    {
+        return worldSchema;
+    }
+
+    /**
+     * Helper method for turning a schema file into a URL.
+     */
+    static URL toURL(File schemaFile)
+    {
+        try
+        {
+            return schemaFile.toURI().toURL();
+        }
+        catch(MalformedURLException murle)
+        {
+            throw new IllegalArgumentException("Invalid schema file: " + schemaFile, murle);
+        }
+    }
     
     /**
      * Reads the geographic data found in regionsFile into worldToLoad.
@@ -71,7 +127,7 @@ public class WorldIO implements WorldImporterExporter
         {
             // FIRST LOAD ALL THE XML INTO A TREE
             Document doc = xmlUtil.loadXMLDocument( regionsFile.getAbsolutePath(), 
-                                                    worldSchema.getAbsolutePath());
+                                                    worldSchema);
             
             // THEN LET'S LOAD THE LIST OF ALL THE REGIONS
             loadRegionsList(doc, worldToLoad);
@@ -97,7 +153,8 @@ public class WorldIO implements WorldImporterExporter
      * and load it into the world.
      * 
      * @param world The data manager for all the regions. We'll load
-     * the data in the doc into this object.
+     * the data in the doc into this object. Equal ids, names, and
+     * capitals are all given the same String.
      */
     private void loadRegionsList(   Document doc,
                                     WorldDataManager world)
@@ -110,13 +167,14 @@ public class WorldIO implements WorldImporterExporter
         
         // AND THEN GO THROUGH AND ADD ALL THE LISTED REGIONS
         ArrayList<Node> regionsList = xmlUtil.getChildNodesWithName(regionsListNode, REGION_NODE);
+        RegionStringPool strings = new RegionStringPool();
         for (int i = 0; i < regionsList.size(); i++)
         {
             // GET THEIR DATA FROM THE DOC
             Node regionNode = regionsList.get(i);
             NamedNodeMap regionAttributes = regionNode.getAttributes();
-            String id = regionAttributes.getNamedItem(ID_ATTRIBUTE).getNodeValue();
-            String name = regionAttributes.getNamedItem(NAME_ATTRIBUTE).getNodeValue();
+            String id = strings.intern(regionAttributes.getNamedItem(ID_ATTRIBUTE).getNodeValue());
+            String name = strings.intern(regionAttributes.getNamedItem(NAME_ATTRIBUTE).getNodeValue());
             String type = regionAttributes.getNamedItem(TYPE_ATTRIBUTE).getNodeValue();
             RegionType regionType = RegionType.valueOf(type);
             
@@ -125,7 +183,7 @@ public class WorldIO implements WorldImporterExporter
             if (capitalNode != null)
             {
                 // MAKE A REGION WITH A CAPITAL
-                String capital = capitalNode.getNodeValue();
+                String capital = strings.intern(capitalNode.getNodeValue());
                 regionToAdd = new Region(id, name, regionType, capital);
             }
             else
@@ -170,6 +228,7 @@ public class WorldIO implements WorldImporterExporter
             // AND PARENTS TO CHILDREN
             ArrayList<Node> subRegionNodes = xmlUtil.getChildNodesWithName(regionNode, SUB_REGION_NODE);
             int numSubRegions = subRegionNodes.size();
+            ArrayList<Region> subRegions = new ArrayList(numSubRegions);
             for (int j = 0; j < numSubRegions; j++)
             {
                 Node subRegionNode = subRegionNodes.get(j);
@@ -177,9 +236,12 @@ public class WorldIO implements WorldImporterExporter
                 Node subRegionIdNode = subRegionAttributes.getNamedItem(ID_ATTRIBUTE);
                 String subRegionID = subRegionIdNode.getNodeValue();
                 Region subRegion = world.getRegion(subRegionID);
-                region.addSubRegion(subRegion);
+                subRegions.add(subRegion);
                 subRegion.setParentRegion(region);
             }
+            
+            // ADD THEM ALL AT ONCE SO THE PARENT ONLY SORTS ONE TIME
+            region.addSubRegions(subRegions);
         }        
     }   
     
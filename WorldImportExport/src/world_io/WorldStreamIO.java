@@ -0,0 +1,489 @@
+package world_io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Iterator;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+import world_data.HashRegionIndex;
+import world_data.Region;
+import world_data.RegionType;
+import world_data.WorldDataManager;
+import static world_io.WorldIOSettings.*;
+
+/**
+ * This class serves as a plugin for reading and writing worlds to and
+ * from XML files using WorldSchema.xsd, just like WorldIO, except that it
+ * reads and writes files as streams rather than going through a Document.
+ * The file is validated against the schema as it's read, so it's only
+ * read once, and each region is put in a world on the side as soon as its
+ * element is read, so nothing but the regions themselves is kept while
+ * loading. Likewise each region is written out as soon as we get to it.
+ * That makes this the one to use for worlds too big to fit in memory twice.
+ *
+ * Files are written exactly as WorldIO's Transformer writes them, with the
+ * same indentation, attribute order, and escaping, so either class can be
+ * used to save a world without the file changing.
+ *
+ * @author  Richard McKenna
+ *          Debugging Enterprises
+ * @version 1.0
+ */
+public class WorldStreamIO extends WorldIO
+{
+    // HOW MUCH OF THE FILE WE READ OR WRITE AT A TIME
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    // THIS STARTS EVERY FILE WE WRITE
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+    private static final String XML_ENCODING = "UTF-8";
+
+    // ABOUT HOW MUCH OF A FILE EACH REGION TAKES UP, COUNTING BOTH ITS
+    // ELEMENT AND ITS MAPPING, SO WE CAN GUESS HOW MANY THERE ARE
+    private static final int BYTES_PER_REGION = 160;
+
+    // CHARS BELOW THIS ARE WRITTEN AS CHARACTER REFERENCES
+    private static final char FIRST_PRINTABLE_CHAR = ' ';
+
+    // WE TURN THESE OFF SINCE WORLD FILES HAVE NO DTD OR EXTERNAL ENTITIES
+    private static final String EXTERNAL_GENERAL_ENTITIES_FEATURE = "http://xml.org/sax/features/external-general-entities";
+    private static final String EXTERNAL_PARAMETER_ENTITIES_FEATURE = "http://xml.org/sax/features/external-parameter-entities";
+    private static final String LOAD_EXTERNAL_DTD_FEATURE = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+    /**
+     * Constructor for making an importer/exporter that uses the schema
+     * bundled with this library.
+     */
+    public WorldStreamIO()
+    {
+        this(WorldIO.class.getResource(WORLD_REGIONS_SCHEMA));
+    }
+
+    /**
+     * Constructor for making an importer/exporter that uses the schema
+     * found in initWorldSchema.
+     *
+     * @param initWorldSchema The schema to validate world files against.
+     */
+    public WorldStreamIO(File initWorldSchema)
+    {
+        this(toURL(initWorldSchema));
+    }
+
+    /**
+     * Constructor for making our importer/exporter. Note that it sets up
+     * the schema for use.
+     *
+     * @param initWorldSchema The schema to validate world files against,
+     * which may be a classpath resource.
+     */
+    public WorldStreamIO(URL initWorldSchema)
+    {
+        super(initWorldSchema);
+    }
+
+    /**
+     * Reads the geographic data found in regionsFile into worldToLoad,
+     * one element at a time. Note that the file is validated as it's
+     * read into a new world, which only replaces the one in worldToLoad
+     * once the whole file has been read and found to be valid.
+     *
+     * @param regionsFile The XML file to load the data from.
+     *
+     * @param worldToLoad The world to fill with the data from the
+     * XML file.
+     *
+     * @return true if the world loads successfully, false otherwise.
+     */
+    @Override
+    public boolean loadWorld(File regionsFile, WorldDataManager worldToLoad)
+    {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(regionsFile), READ_BUFFER_SIZE))
+        {
+            // THE PARSER CHECKS THE FILE AGAINST THE SCHEMA AS IT GOES
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setSchema(getXMLUtilities().getSchema(getWorldSchema()));
+            factory.setFeature(EXTERNAL_GENERAL_ENTITIES_FEATURE, false);
+            factory.setFeature(EXTERNAL_PARAMETER_ENTITIES_FEATURE, false);
+            factory.setFeature(LOAD_EXTERNAL_DTD_FEATURE, false);
+            SAXParser parser = factory.newSAXParser();
+
+            // READ THE REGIONS AND THEIR MAPPINGS INTO A WORLD OF THEIR OWN,
+            // WITH ROOM FOR ABOUT AS MANY REGIONS AS THE FILE HAS
+            WorldDataManager loadedWorld = new WorldDataManager(
+                    new HashRegionIndex((int)Math.min(regionsFile.length() / BYTES_PER_REGION, Integer.MAX_VALUE / 4)));
+            loadedWorld.setNameLocale(worldToLoad.getNameLocale());
+            parser.parse(in, new WorldHandler(loadedWorld));
+
+            // AND ONLY NOW THAT WE KNOW IT'S ALL GOOD, SWAP THEM IN
+            worldToLoad.takeRegionsFrom(loadedWorld);
+        }
+        catch(Exception e)
+        {
+            // WORLD DIDN'T LOAD PROPERLY
+            return false;
+        }
+        // WORLD LOADED PROPERLY
+        return true;
+    }
+
+    /**
+     * This method saves the world currently being edited to the worldFile,
+     * writing each region as we get to it rather than building a Document
+     * first. Note that it will be saved as an .xml file, which is an
+     * XML-format that will conform to the WorldRegions.xsd schema.
+     *
+     * @param worldFile The file to write the world to.
+     *
+     * @param worldToSave The world to save.
+     *
+     * @return true if the file is successfully saved, false otherwise. It's
+     * possible that another program could lock out ours from writing to it,
+     * so we need to let the caller know when this happens.
+     */
+    @Override
+    public boolean saveWorld(File worldFile, WorldDataManager worldToSave)
+    {
+        try (FileOutputStream out = new FileOutputStream(worldFile);
+             Writer writer = new BufferedWriter(Channels.newWriter(out.getChannel(), XML_ENCODING), WRITE_BUFFER_SIZE))
+        {
+            String lineSeparator = System.lineSeparator();
+            String indent = makeIndent(Integer.parseInt(XML_INDENT_VALUE));
+            String indent2 = indent + indent;
+            String indent3 = indent2 + indent;
+
+            // FIRST THE DECLARATION AND THE ROOT ELEMENT
+            writer.write(XML_DECLARATION);
+            writer.write(lineSeparator);
+            writer.write("<" + WORLD_REGIONS_NODE + ">");
+            writer.write(lineSeparator);
+
+            // THEN THE REGIONS LIST, WITH ALL THE REGIONS
+            boolean hasRegions = !worldToSave.getAllRegions().isEmpty();
+            writeStartTag(writer, indent, REGIONS_LIST_NODE, hasRegions, lineSeparator);
+            for (Region region : worldToSave.getAllRegions())
+            {
+                writer.write(indent2);
+                writer.write("<" + REGION_NODE);
+
+                // THE ATTRIBUTES GO IN ALPHABETICAL ORDER
+                if (region.hasCapital())
+                {
+                    writeAttribute(writer, CAPITAL_ATTRIBUTE, region.getCapital());
+                }
+                writeAttribute(writer, ID_ATTRIBUTE, region.getId());
+                writeAttribute(writer, NAME_ATTRIBUTE, region.getName());
+                writeAttribute(writer, TYPE_ATTRIBUTE, region.getType().toString());
+                writer.write("/>");
+                writer.write(lineSeparator);
+            }
+            writeEndTag(writer, indent, REGIONS_LIST_NODE, hasRegions, lineSeparator);
+
+            // AND NOW ALL THE CONNECTIONS
+            writeStartTag(writer, indent, REGIONS_MAPPINGS_NODE, hasRegions, lineSeparator);
+            for (Region region : worldToSave.getAllRegions())
+            {
+                writer.write(indent2);
+                writer.write("<" + REGION_NODE);
+                writeAttribute(writer, ID_ATTRIBUTE, region.getId());
+
+                Iterator<Region> subRegionsIt = region.getSubRegions();
+                if (!subRegionsIt.hasNext())
+                {
+                    writer.write("/>");
+                    writer.write(lineSeparator);
+                    continue;
+                }
+                writer.write(">");
+                writer.write(lineSeparator);
+                while (subRegionsIt.hasNext())
+                {
+                    Region subRegion = subRegionsIt.next();
+                    writer.write(indent3);
+                    writer.write("<" + SUB_REGION_NODE);
+                    writeAttribute(writer, ID_ATTRIBUTE, subRegion.getId());
+                    writer.write("/>");
+                    writer.write(lineSeparator);
+                }
+                writer.write(indent2);
+                writer.write("</" + REGION_NODE + ">");
+                writer.write(lineSeparator);
+            }
+            writeEndTag(writer, indent, REGIONS_MAPPINGS_NODE, hasRegions, lineSeparator);
+
+            writer.write("</" + WORLD_REGIONS_NODE + ">");
+            writer.write(lineSeparator);
+            return true;
+        }
+        catch(IOException ioe)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Private helper method for writing the start tag of an element that
+     * goes on its own line, which is all of it if it's empty.
+     */
+    private void writeStartTag(Writer writer, String indent, String elementName,
+                               boolean hasContent, String lineSeparator)
+            throws IOException
+    {
+        writer.write(indent);
+        writer.write("<" + elementName + (hasContent ? ">" : "/>"));
+        writer.write(lineSeparator);
+    }
+
+    /**
+     * Private helper method for writing the end tag of an element that
+     * goes on its own line, unless it was empty.
+     */
+    private void writeEndTag(Writer writer, String indent, String elementName,
+                             boolean hasContent, String lineSeparator)
+            throws IOException
+    {
+        if (hasContent)
+        {
+            writer.write(indent);
+            writer.write("</" + elementName + ">");
+            writer.write(lineSeparator);
+        }
+    }
+
+    /**
+     * Private helper method for writing an attribute, escaping its value
+     * the same way the Transformer does. Besides the markup chars, that
+     * means control chars and chars outside the Basic Multilingual Plane
+     * are written as character references, which also keeps tabs and line
+     * breaks from turning into spaces when the file is read back in.
+     *
+     * @throws IOException If the value has half of a surrogate pair
+     * without the other half, since that can't be written as UTF-8.
+     */
+    private void writeAttribute(Writer writer, String attributeName, String value)
+            throws IOException
+    {
+        writer.write(' ');
+        writer.write(attributeName);
+        writer.write("=\"");
+        int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            if (c == '&')
+            {
+                writer.write("&amp;");
+            }
+            else if (c == '<')
+            {
+                writer.write("&lt;");
+            }
+            else if (c == '>')
+            {
+                writer.write("&gt;");
+            }
+            else if (c == '"')
+            {
+                writer.write("&quot;");
+            }
+            else if (Character.isHighSurrogate(c))
+            {
+                if ((i + 1 == length) || !Character.isLowSurrogate(value.charAt(i + 1)))
+                {
+                    throw new IOException("Invalid UTF-16 surrogate in " + attributeName + ": " + value);
+                }
+                writer.write("&#" + Character.toCodePoint(c, value.charAt(i + 1)) + ";");
+                i++;
+            }
+            else if ((c < FIRST_PRINTABLE_CHAR) || Character.isLowSurrogate(c))
+            {
+                writer.write("&#" + (int)c + ";");
+            }
+            else
+            {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Private helper method for making a String of numSpaces spaces.
+     */
+    private static String makeIndent(int numSpaces)
+    {
+        StringBuilder indent = new StringBuilder(numSpaces);
+        for (int i = 0; i < numSpaces; i++)
+        {
+            indent.append(' ');
+        }
+        return indent.toString();
+    }
+
+    /**
+     * This reads through a world file once, as the parser validates it,
+     * putting each listed region in a world of its own and hooking each
+     * mapped region up to its sub regions as soon as they've been read.
+     * That world's index is how regions are found by id while reading, so
+     * nothing else is kept. Since it's not the world being loaded, a file
+     * that turns out to be invalid partway through leaves that one as it
+     * was.
+     */
+    private static class WorldHandler extends DefaultHandler
+    {
+        // WHERE THE REGIONS GO AS THEY'RE READ
+        private WorldDataManager world;
+
+        private boolean inRegionsList = false;
+        private boolean inRegionsMappings = false;
+
+        // THE MAPPED REGION WHOSE SUB REGIONS WE'RE READING, IF ANY, AND
+        // THEM SO FAR. THE LIST IS USED AGAIN FOR EACH MAPPED REGION
+        private Region mappedRegion = null;
+        private ArrayList<Region> subRegions = new ArrayList();
+        
+        // SO EQUAL IDS, NAMES, AND CAPITALS ARE ALL THE SAME String
+        private RegionStringPool strings = new RegionStringPool();
+
+        /**
+         * Constructor for reading regions into initWorld, which should
+         * be empty.
+         */
+        WorldHandler(WorldDataManager initWorld)
+        {
+            world = initWorld;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException
+        {
+            if (localName.equals(REGIONS_LIST_NODE))
+            {
+                inRegionsList = true;
+            }
+            else if (localName.equals(REGIONS_MAPPINGS_NODE))
+            {
+                inRegionsMappings = true;
+            }
+            else if (localName.equals(REGION_NODE) && inRegionsList)
+            {
+                loadRegion(attributes);
+            }
+            else if (localName.equals(REGION_NODE) && inRegionsMappings)
+            {
+                mappedRegion = getMappedRegion(attributes);
+            }
+            else if (localName.equals(SUB_REGION_NODE) && (mappedRegion != null))
+            {
+                subRegions.add(getMappedRegion(attributes));
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+        {
+            if (localName.equals(REGIONS_LIST_NODE))
+            {
+                inRegionsList = false;
+            }
+            else if (localName.equals(REGIONS_MAPPINGS_NODE))
+            {
+                inRegionsMappings = false;
+            }
+            else if (localName.equals(REGION_NODE) && (mappedRegion != null))
+            {
+                // HOOK THE PARENT UP TO ALL ITS CHILDREN AT ONCE SO IT
+                // ONLY SORTS ONE TIME
+                if (!subRegions.isEmpty())
+                {
+                    for (Region child : subRegions)
+                    {
+                        child.setParentRegion(mappedRegion);
+                    }
+                    mappedRegion.addSubRegions(subRegions);
+                    subRegions.clear();
+                }
+                mappedRegion = null;
+            }
+        }
+
+        /**
+         * Makes a region from the attributes of a region element, getting
+         * its strings from the pool, and puts it in the world.
+         */
+        private void loadRegion(Attributes attributes)
+        {
+            String id = strings.intern(attributes.getValue(ID_ATTRIBUTE));
+            String name = strings.intern(attributes.getValue(NAME_ATTRIBUTE));
+            String type = attributes.getValue(TYPE_ATTRIBUTE);
+            RegionType regionType = RegionType.valueOf(type);
+
+            Region regionToAdd;
+            String capital = strings.intern(attributes.getValue(CAPITAL_ATTRIBUTE));
+            if (capital != null)
+            {
+                // MAKE A REGION WITH A CAPITAL
+                regionToAdd = new Region(id, name, regionType, capital);
+            }
+            else
+            {
+                // MAKE A REGION WITHOUT A CAPITAL
+                regionToAdd = new Region(id, name, regionType);
+            }
+            if (regionType == RegionType.WORLD)
+            {
+                world.setRoot(regionToAdd);
+            }
+            else
+            {
+                world.addRegion(regionToAdd);
+            }
+        }
+
+        /**
+         * Gets the already listed region whose id is in attributes.
+         *
+         * @throws SAXException If no region with that id was listed.
+         */
+        private Region getMappedRegion(Attributes attributes) throws SAXException
+        {
+            String regionId = attributes.getValue(ID_ATTRIBUTE);
+            Region region = world.getRegion(regionId);
+            if (region == null)
+            {
+                throw new SAXException("Unknown region: " + regionId);
+            }
+            return region;
+        }
+
+        // THE SCHEMA'S ERRORS STOP THE PARSE RATHER THAN JUST BEING REPORTED
+
+        @Override
+        public void error(SAXParseException spe) throws SAXParseException
+        {
+            throw spe;
+        }
+
+        @Override
+        public void fatalError(SAXParseException spe) throws SAXParseException
+        {
+            throw spe;
+        }
+    }
+}
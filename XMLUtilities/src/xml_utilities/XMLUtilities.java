@@ -2,7 +2,13 @@ package xml_utilities;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -14,7 +20,9 @@ import javax.xml.validation.Validator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 /**
  * This class provides general purpose utilities for the loading and
@@ -24,6 +32,13 @@ import org.xml.sax.SAXException;
  * need to be extended a bit, with some more similar functionality
  * added.
  * 
+ * Compiled schemas are cached, shared by all XMLUtilities objects, and
+ * only recompiled when their file changes, so loading lots of XML files
+ * doesn't mean compiling the same schema over and over. Schemas may be
+ * files or classpath resources, like those bundled in a jar. Each cached
+ * schema also keeps the Validators it has made so they can be reused,
+ * one thread at a time.
+ * 
  * @author  Richard McKenna
  *          Debugging Enterprises
  * @version 1.0
@@ -33,6 +48,16 @@ public class XMLUtilities
     // THIS REFERENCES A STANDARD SCHEMA FORMAT. NOTE THIS IS NOT THE SCHEMA
     public static final String SCHEMA_STANDARD_SPEC_URL = "http://www.w3.org/2001/XMLSchema";     
 
+    // THIS MAKES ANY VALIDATION ERROR FOUND WHILE PARSING STOP THE PARSE
+    private static final ErrorHandler VALIDATION_ERROR_HANDLER = new ValidationErrorHandler();
+
+    // URL PROTOCOLS FOR SCHEMAS WE CAN CHECK FOR CHANGES
+    private static final String FILE_PROTOCOL = "file";
+    private static final String JAR_PROTOCOL = "jar";
+
+    // ALL THE SCHEMAS COMPILED SO FAR, BY URL
+    private static final ConcurrentHashMap<String, CachedSchema> SCHEMA_CACHE = new ConcurrentHashMap();
+
     /**
      * Default Constructor, no data needs to be initialized.
      */
@@ -57,25 +82,49 @@ public class XMLUtilities
     {
         try
         {
-            // 1. Lookup a factory for the W3C XML Schema language
-            SchemaFactory factory = 
-                    SchemaFactory.newInstance(SCHEMA_STANDARD_SPEC_URL);
-            
-            // 2. Compile the schema. 
-            // Here the schema is loaded from a java.io.File, but you could use 
-            // a java.net.URL or a javax.xml.transform.Source instead.
-            File schemaLocation = new File(xmlSchemaNameAndPath);
-            Schema schema = factory.newSchema(schemaLocation);
+            return validateXMLDoc(xmlDocNameAndPath, toURL(xmlSchemaNameAndPath));
+        }
+        catch (IOException ioe)
+        {
+            return false;
+        }
+    }    
+
+    /**
+     * This method validates the xmlDocNameAndPath doc against the schema
+     * found at xmlSchemaURL, which may be a classpath resource, and
+     * returns true if valid, false otherwise.
+     * 
+     * @param xmlDocNameAndPath XML Doc to validate
+     * 
+     * @param xmlSchemaURL XML Schema to use in validation
+     * 
+     * @return true if the xml doc is validate, false if it does not.
+     */
+    public boolean validateXMLDoc(  String xmlDocNameAndPath,
+                                    URL xmlSchemaURL)
+    {
+        try
+        {
+            // 1. & 2. Get the compiled schema
+            CachedSchema cachedSchema = getCachedSchema(xmlSchemaURL);
             
             // 3. Get a validator from the schema.
-            Validator validator = schema.newValidator();
-            
-            // 4. Parse the document you want to check.
-            Source source = new StreamSource(xmlDocNameAndPath);
-            
-            // 5. Check the document
-            validator.validate(source);
-            return true;
+            Validator validator = cachedSchema.takeValidator();
+            try
+            {
+                // 4. Parse the document you want to check.
+                Source source = new StreamSource(xmlDocNameAndPath);
+
+                // 5. Check the document
+                validator.validate(source);
+                return true;
+            }
+            finally
+            {
+                // SOMEONE ELSE CAN USE IT NOW
+                cachedSchema.returnValidator(validator);
+            }
         }
         // FOR ANY EXCEPTION THAT OCCURS WE'LL BLAME
         // IT ON AN INVALID XML FILE
@@ -89,7 +138,8 @@ public class XMLUtilities
      * This method reads in the xmlFile, validates it against the
      * schemaFile, and if valid, loads it into a WhitespaceFreeXMLDoc
      * and returns it, which helps because that's a much easier
-     * format for us to deal with.
+     * format for us to deal with. Validation is done by the parser
+     * while it builds the Document, so the file is only read once.
      * 
      * @param xmlFile Path and name of xml file to load.
      * 
@@ -103,19 +153,64 @@ public class XMLUtilities
     public Document loadXMLDocument(String xmlFile, String xsdFile)
             throws InvalidXMLFileFormatException
     {
-        // FIRST VALIDATE
-        boolean isValid = validateXMLDoc(xmlFile, xsdFile);
-        if (!isValid)
+        try
+        {
+            return loadXMLDocument(xmlFile, toURL(xsdFile));
+        }
+        catch(IOException ioe)
+        {
+            throw new InvalidXMLFileFormatException(xmlFile, xsdFile);
+        }
+    }
+
+    /**
+     * This method reads in the xmlFile, validates it against the schema
+     * found at xsdURL, which may be a classpath resource, and if valid,
+     * loads it into a Document and returns it.
+     * 
+     * @param xmlFile Path and name of xml file to load.
+     * 
+     * @param xsdURL Location of the schema to use for validation.
+     * 
+     * @return A normalized Document object fully loaded with the data found
+     * in the xmlFile.
+     * 
+     * @throws InvalidXMLFileFormatException Thrown if the xml file validation fails.
+     */
+    public Document loadXMLDocument(String xmlFile, URL xsdURL)
+            throws InvalidXMLFileFormatException
+    {
+        String xsdFile = xsdURL.toString();
+
+        // FIRST GET THE SCHEMA TO VALIDATE WITH
+        Schema schema;
+        try
+        {
+            schema = getSchema(xsdURL);
+        }
+        catch(SAXException se)
         {
             throw new InvalidXMLFileFormatException(xmlFile, xsdFile);
         }
         
-        // THIS IS JAVA API STUFF
+        // THIS IS JAVA API STUFF, GIVING THE PARSER THE SCHEMA
+        // MEANS IT VALIDATES AS IT GOES
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        dbf.setSchema(schema);
+        DocumentBuilder db;
+        try
+        {
+            db = dbf.newDocumentBuilder();
+        }
+        catch(ParserConfigurationException pce)
+        {
+            throw new InvalidXMLFileFormatException(xmlFile);
+        }
+        db.setErrorHandler(VALIDATION_ERROR_HANDLER);
         try
         {            
-            // FIRST RETRIEVE AND LOAD THE FILE INTO A TREE
-            DocumentBuilder db = dbf.newDocumentBuilder();
+            // RETRIEVE, VALIDATE, AND LOAD THE FILE INTO A TREE
             Document xmlDoc = db.parse(xmlFile);
             xmlDoc.getDocumentElement().normalize();
            
@@ -123,13 +218,95 @@ public class XMLUtilities
             return xmlDoc;
         }
         // THESE ARE XML-RELATED ERRORS THAT COULD HAPPEN DURING
-        // LOADING AND PARSING IF THE XML FILE IS NOT WELL FORMED
-        // OR IS NOW WHERE AND WHAT WE SAY IT IS
-        catch(ParserConfigurationException | SAXException | IOException pce)
+        // LOADING AND PARSING IF THE XML FILE IS NOT WELL FORMED,
+        // DOESN'T MATCH THE SCHEMA, OR IS NOW WHERE AND WHAT WE SAY IT IS
+        catch(SAXException | IOException e)
         {
-            throw new InvalidXMLFileFormatException(xmlFile);
+            throw new InvalidXMLFileFormatException(xmlFile, xsdFile);
         }           
     }   
+
+    /**
+     * This method gets the compiled form of the schema found at xsdURL,
+     * compiling it only if it hasn't been yet or if its file has changed
+     * since. Compiled schemas are thread-safe, so the one returned may
+     * be shared.
+     * 
+     * @param xsdURL Location of the schema, which may be a classpath
+     * resource.
+     * 
+     * @return The compiled schema.
+     * 
+     * @throws SAXException Thrown if the schema can't be read or isn't
+     * a valid schema.
+     */
+    public Schema getSchema(URL xsdURL) throws SAXException
+    {
+        return getCachedSchema(xsdURL).schema;
+    }
+
+    /**
+     * Private helper method for getting the cache entry for the schema
+     * found at xsdURL, compiling the schema if the entry is missing or
+     * out of date. Two threads may both end up compiling a schema the
+     * first time it's used, but that's harmless, the last one wins.
+     */
+    private CachedSchema getCachedSchema(URL xsdURL) throws SAXException
+    {
+        String key = xsdURL.toExternalForm();
+        CachedSchema cachedSchema = SCHEMA_CACHE.get(key);
+        if ((cachedSchema == null) || cachedSchema.isStale())
+        {
+            // 1. Lookup a factory for the W3C XML Schema language,
+            // WHICH ISN'T THREAD-SAFE SO WE NEED OUR OWN
+            SchemaFactory factory = 
+                    SchemaFactory.newInstance(SCHEMA_STANDARD_SPEC_URL);
+
+            // 2. Compile the schema, NOTING WHEN ITS FILE WAS LAST
+            // CHANGED FIRST, SO A CHANGE DURING COMPILING ISN'T MISSED
+            File sourceFile = getSourceFile(xsdURL);
+            long lastModified = (sourceFile == null) ? 0 : sourceFile.lastModified();
+            cachedSchema = new CachedSchema(factory.newSchema(xsdURL), sourceFile, lastModified);
+            SCHEMA_CACHE.put(key, cachedSchema);
+        }
+        return cachedSchema;
+    }
+
+    /**
+     * Private helper method for turning a schema's path into a URL.
+     */
+    private static URL toURL(String xsdFile) throws IOException
+    {
+        return new File(xsdFile).toURI().toURL();
+    }
+
+    /**
+     * Private helper method for finding the file a schema was loaded
+     * from, which is the jar file for a schema bundled in a jar, so we
+     * can tell when it changes. null is returned for schemas not loaded
+     * from files, which are never recompiled.
+     */
+    private static File getSourceFile(URL xsdURL)
+    {
+        try
+        {
+            if (FILE_PROTOCOL.equals(xsdURL.getProtocol()))
+            {
+                return new File(xsdURL.toURI());
+            }
+            else if (JAR_PROTOCOL.equals(xsdURL.getProtocol()))
+            {
+                // THIS DOESN'T ACTUALLY OPEN THE JAR
+                URLConnection connection = xsdURL.openConnection();
+                return getSourceFile(((JarURLConnection)connection).getJarFileURL());
+            }
+        }
+        catch(IOException | URISyntaxException | IllegalArgumentException e)
+        {
+            // WE JUST WON'T CHECK IT FOR CHANGES
+        }
+        return null;
+    }
     
     /**
      * This method extracts the data found in the doc argument that 
@@ -358,6 +535,87 @@ public class XMLUtilities
         return null;
     }
 
+    /**
+     * A CachedSchema is a compiled schema along with what we need to tell
+     * if it's out of date, and the Validators it has made that aren't
+     * currently in use. A Validator may only be used by one thread at a
+     * time, so each one is taken out of the pool while it's in use.
+     */
+    private static class CachedSchema
+    {
+        final Schema schema;
+        final File sourceFile;
+        final long lastModified;
+        final ConcurrentLinkedQueue<Validator> validators;
+
+        /**
+         * Constructor for caching a newly compiled schema.
+         */
+        CachedSchema(Schema initSchema, File initSourceFile, long initLastModified)
+        {
+            schema = initSchema;
+            sourceFile = initSourceFile;
+            lastModified = initLastModified;
+            validators = new ConcurrentLinkedQueue();
+        }
+
+        /**
+         * Tests to see if the schema's file has changed since it was
+         * compiled.
+         */
+        boolean isStale()
+        {
+            return (sourceFile != null) && (sourceFile.lastModified() != lastModified);
+        }
+
+        /**
+         * Gets a Validator for this schema, reusing one if there's one
+         * free and making one otherwise.
+         */
+        Validator takeValidator()
+        {
+            Validator validator = validators.poll();
+            if (validator == null)
+            {
+                validator = schema.newValidator();
+            }
+            return validator;
+        }
+
+        /**
+         * Puts a Validator that's done being used back in the pool, first
+         * setting it back to the way it was made.
+         */
+        void returnValidator(Validator validator)
+        {
+            validator.reset();
+            validators.offer(validator);
+        }
+    }
+
+    /**
+     * A DocumentBuilder's own error handler only reports validation
+     * errors and keeps going, so this one is used instead to make them
+     * stop the parse, the same way a Validator does.
+     */
+    private static class ValidationErrorHandler implements ErrorHandler
+    {
+        @Override
+        public void warning(SAXParseException spe) {}
+
+        @Override
+        public void error(SAXParseException spe) throws SAXParseException
+        {
+            throw spe;
+        }
+
+        @Override
+        public void fatalError(SAXParseException spe) throws SAXParseException
+        {
+            throw spe;
+        }
+    }
+
     // WE COULD ADD LOTS AND LOTS OF ADDITIONAL SERVICE METHOD. METHODS
     // FOR EXTRACTING OTHER TYPES OF DATA, OR FOR MORE COMPLEX ARRANGEMENTS
     // LIKE SERIES OF DATA AND OBJECT DATA